@@ -0,0 +1,26 @@
+package benchmark.jmh;
+
+import core.Ray;
+import math.Vec3;
+
+import java.util.Random;
+
+// Fixed sets of rays for the benchmarks, seeded so every run traces exactly the same ones
+final class BenchmarkRays {
+    static final int COUNT = 1024;
+
+    private BenchmarkRays() {
+    }
+
+    // Rays from the README camera position towards random points over the sphere field
+    static Ray[] towardsScene(long seed) {
+        Random random = new Random(seed);
+        Vec3 origin = new Vec3(13, 2, 3);
+        Ray[] rays = new Ray[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            Vec3 target = new Vec3(random.nextDouble() * 24 - 12, random.nextDouble() * 2, random.nextDouble() * 24 - 12);
+            rays[i] = new Ray(origin, target.subtract(origin));
+        }
+        return rays;
+    }
+}
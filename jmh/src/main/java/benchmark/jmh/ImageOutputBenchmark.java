@@ -0,0 +1,85 @@
+package benchmark.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rendering.Color;
+import rendering.ImageWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Color conversion and image encoding. Color.writeColor (text P3) is gone, Color.toByte is what every
+    output format now runs per channel. The file benchmarks write a 1200x675 frame, the Main image size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageOutputBenchmark {
+    private static final int WIDTH = 1200;
+    private static final int HEIGHT = 675;
+
+    private float[] pixels;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random random = new Random(1);
+        pixels = new float[WIDTH * HEIGHT * 3];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextFloat() * 1.2f;
+        }
+        directory = Files.createTempDirectory("ray-tracer-jmh");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (String name : new String[]{"frame.ppm", "frame.png", "frame.pfm"}) {
+            Files.deleteIfExists(directory.resolve(name));
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    // ops/s are color components per second
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * 3)
+    public int colorToByte() {
+        int sum = 0;
+        for (int i = 0; i < WIDTH * 3; i++) {
+            sum += Color.toByte(pixels[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void writePpm() throws IOException {
+        ImageWriter.write(directory.resolve("frame.ppm"), WIDTH, HEIGHT, pixels, 1);
+    }
+
+    @Benchmark
+    public void writePng() throws IOException {
+        ImageWriter.write(directory.resolve("frame.png"), WIDTH, HEIGHT, pixels, 1);
+    }
+
+    @Benchmark
+    public void writePfm() throws IOException {
+        ImageWriter.write(directory.resolve("frame.pfm"), WIDTH, HEIGHT, pixels, 1);
+    }
+}
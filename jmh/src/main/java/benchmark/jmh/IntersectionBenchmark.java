@@ -0,0 +1,120 @@
+package benchmark.jmh;
+
+import benchmark.BenchmarkScenes;
+import core.Interval;
+import core.Ray;
+import geometry.FlatBvh;
+import geometry.HitRecord;
+import geometry.HittableList;
+import geometry.Sphere;
+import geometry.SphereSoA;
+import material.Lambertian;
+import math.Utils;
+import math.Vec3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Ray-scene intersection. Each invocation tests all BenchmarkRays.COUNT rays, so the reported ops/s are rays/s.
+
+    The sphere benchmarks aim at one unit sphere with rays that all hit it or all miss it, the scene benchmarks
+    cast the same rays into the ~480 sphere Main scene through every acceleration structure we have.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IntersectionBenchmark {
+    private final Interval range = new Interval(0.001, Utils.INFINITY);
+    private final HitRecord record = new HitRecord();
+
+    private Sphere sphere;
+    private Ray[] sphereHits;
+    private Ray[] sphereMisses;
+
+    private HittableList list;
+    private FlatBvh bvh;
+    private SphereSoA soa;
+    private Ray[] sceneRays;
+
+    @Setup
+    public void setup() {
+        sphere = new Sphere(new Vec3(0, 0, 0), 1, new Lambertian(new Vec3(0.5, 0.5, 0.5)));
+        sphereHits = new Ray[BenchmarkRays.COUNT];
+        sphereMisses = new Ray[BenchmarkRays.COUNT];
+        Vec3 origin = new Vec3(0, 0, 5);
+        for (int i = 0; i < BenchmarkRays.COUNT; i++) {
+            double offset = (i % 64) / 64.0 * 0.5;
+            sphereHits[i] = new Ray(origin, new Vec3(offset, -offset, -5));
+            sphereMisses[i] = new Ray(origin, new Vec3(2 + offset, 2 - offset, -5));
+        }
+
+        list = BenchmarkScenes.randomSpheres(42);
+        bvh = new FlatBvh(list);
+        soa = new SphereSoA(list);
+        sceneRays = BenchmarkRays.towardsScene(7);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkRays.COUNT)
+    public int sphereHit() {
+        int hits = 0;
+        for (Ray ray : sphereHits) {
+            if (sphere.hit(ray, range, record)) hits++;
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkRays.COUNT)
+    public int sphereMiss() {
+        int hits = 0;
+        for (Ray ray : sphereMisses) {
+            if (sphere.hit(ray, range, record)) hits++;
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkRays.COUNT)
+    public int hittableList() {
+        int hits = 0;
+        for (Ray ray : sceneRays) {
+            if (list.hit(ray, range, record)) hits++;
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkRays.COUNT)
+    public int flatBvh() {
+        int hits = 0;
+        for (Ray ray : sceneRays) {
+            if (bvh.hit(ray, range, record)) hits++;
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkRays.COUNT)
+    public int sphereSoA() {
+        int hits = 0;
+        for (Ray ray : sceneRays) {
+            if (soa.hit(ray, range, record)) hits++;
+        }
+        return hits;
+    }
+}
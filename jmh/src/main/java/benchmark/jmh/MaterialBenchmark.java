@@ -0,0 +1,71 @@
+package benchmark.jmh;
+
+import core.Ray;
+import geometry.HitRecord;
+import material.Dielectric;
+import material.Lambertian;
+import material.Material;
+import material.Metal;
+import material.ScatterRecord;
+import math.Vec3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// One Material.scatter call per operation, for each material, on a fixed hit facing the incoming ray,
+// into the same ScatterRecord every time as the camera does
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MaterialBenchmark {
+    private final Material lambertian = new Lambertian(new Vec3(0.4, 0.2, 0.1));
+    private final Material metal = new Metal(new Vec3(0.7, 0.6, 0.5), 0.3);
+    private final Material dielectric = new Dielectric(1.5);
+
+    private final ScatterRecord out = new ScatterRecord();
+    private Ray rayIn;
+    private HitRecord record;
+
+    @Setup
+    public void setup() {
+        rayIn = new Ray(new Vec3(0, 0, 5), new Vec3(0.1, -0.2, -1));
+        record = new HitRecord();
+        record.p.set(0.1, -0.2, 1);
+        record.normal.set(0.1, -0.2, 1).unitVectorAssign();
+        record.t = 4;
+        record.frontFacing = true;
+    }
+
+    @Benchmark
+    public ScatterRecord lambertian() {
+        record.material = lambertian;
+        lambertian.scatter(rayIn, record, out);
+        return out;
+    }
+
+    @Benchmark
+    public ScatterRecord metal() {
+        record.material = metal;
+        metal.scatter(rayIn, record, out);
+        return out;
+    }
+
+    @Benchmark
+    public ScatterRecord dielectric() {
+        record.material = dielectric;
+        dielectric.scatter(rayIn, record, out);
+        return out;
+    }
+}
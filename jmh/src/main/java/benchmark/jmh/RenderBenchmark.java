@@ -0,0 +1,81 @@
+package benchmark.jmh;
+
+import benchmark.BenchmarkScenes;
+import core.Camera;
+import geometry.FlatBvh;
+import geometry.Hittable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Whole camera samples through the Main scene: ray generation, traversal, materials and all bounces.
+
+    samples traces a 64x36 frame at 1 sample per pixel on the benchmark thread, so its ops/s are camera rays/s.
+    frame is a complete optimizedRender of the same frame at 16 samples per pixel on all cores,
+    including the tile scheduler and writing the image.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 36;
+
+    private Hittable world;
+    private Camera sampleCamera;
+    private Camera frameCamera;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        world = new FlatBvh(BenchmarkScenes.randomSpheres(42));
+
+        sampleCamera = BenchmarkScenes.camera(WIDTH, 1);
+        sampleCamera.initialize();
+
+        output = Files.createTempFile("ray-tracer-jmh", ".ppm");
+        frameCamera = BenchmarkScenes.camera(WIDTH, 16);
+        frameCamera.setOutputPath(output);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public double samples() {
+        double sum = 0;
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int column = 0; column < WIDTH; column++) {
+                sum += sampleCamera.traceSample(world, column, row).x();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void frame() {
+        frameCamera.optimizedRender(world);
+    }
+}
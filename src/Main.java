@@ -1,13 +1,19 @@
 import core.Camera;
 import geometry.HittableList;
 import geometry.Sphere;
+import geometry.SphereSoA;
 import material.Dielectric;
 import material.Lambertian;
 import material.Material;
 import material.Metal;
 import math.Utils;
 import math.Vec3;
+import scene.Scene;
+import scene.SceneLoader;
+import stats.RenderStats;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 
@@ -35,8 +41,26 @@ import java.time.Instant;
         5. Determine color and write it to that pixel in the image
 */
 public class Main {
-    public static void main(String[] args) {
+    // Renders the scene file given as the first argument (see scene.SceneLoader), or the built-in scene without one
+    public static void main(String[] args) throws IOException {
         Instant startTime = Instant.now();
+        Scene scene = args.length > 0 ? SceneLoader.load(Paths.get(args[0])) : randomSpheres();
+        Camera cam = scene.getCamera();
+
+        // Print where the render time went, and write image-tiles.ppm with the cost of every tile
+        RenderStats stats = new RenderStats();
+        stats.setTileHeatmap(true);
+        cam.setStats(stats);
+
+        cam.optimizedRender(scene.getWorld());
+        Instant endTime = Instant.now();
+
+        System.out.println("Render completed in: " + Duration.between(startTime, endTime).getSeconds() + " seconds.");
+        System.out.println("Objects rendered: " + scene.getObjectCount());
+    }
+
+    // Many small random spheres around three large ones
+    private static Scene randomSpheres() {
         HittableList world = new HittableList();
 
         Material groundMaterial = new Lambertian(new Vec3(0.5, 0.5, 0.5));
@@ -91,6 +115,10 @@ public class Main {
         cam.setSamplesPerPixel(500);
         cam.maxDepth = 50;
 
+        // Stop sampling a pixel once its noise is below 1%, the sky and most of the ground get there long before 500
+        cam.setNoiseThreshold(0.01);
+        cam.setMinSamplesPerPixel(32);
+
         cam.setVerticalFov(70);
         cam.setLookFrom(new Vec3(1, 2, 4));
         cam.setLookAt(new Vec3(0, 0, 0));
@@ -99,12 +127,7 @@ public class Main {
         cam.setDeFocusAngle(0.6);
         cam.setFocusDist(10.0);
 
-        cam.optimizedRender(world);
-        Instant endTime = Instant.now();
-        int hittableObjectsCount = world.size();
-
-        System.out.println("Render completed in: " + Duration.between(startTime, endTime).getSeconds() + " seconds.");
-        System.out.println("Spheres rendered: " + hittableObjectsCount);
-
+        // Every object in this scene is a sphere, so the packed sphere set can replace the general BVH
+        return new Scene(cam, new SphereSoA(world), world.size());
     }
 }
@@ -0,0 +1,121 @@
+package animation;
+
+import core.Camera;
+import math.Vec3;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+    Where the camera is, where it looks and how wide it sees, keyed at some frames and interpolated in between.
+
+    lookFrom and lookAt follow a Catmull-Rom spline through the keys, so the camera passes every key exactly and
+    moves smoothly through it instead of turning a corner there. The first and last key are repeated as their own
+    neighbours, which makes a path of two keys a straight line. The field of view is interpolated linearly.
+    Before the first key and after the last one the camera holds still.
+ */
+public class CameraPath {
+    private final List<Keyframe> keys = new ArrayList<>();
+
+    public static class Keyframe {
+        public final int frame;
+        public final Vec3 lookFrom;
+        public final Vec3 lookAt;
+        public final double verticalFov;
+
+        public Keyframe(int frame, Vec3 lookFrom, Vec3 lookAt, double verticalFov) {
+            this.frame = frame;
+            this.lookFrom = lookFrom;
+            this.lookAt = lookAt;
+            this.verticalFov = verticalFov;
+        }
+    }
+
+    // Adds a key, replacing one already at that frame
+    public CameraPath key(int frame, Vec3 lookFrom, Vec3 lookAt, double verticalFov) {
+        keys.removeIf(key -> key.frame == frame);
+        keys.add(new Keyframe(frame, lookFrom, lookAt, verticalFov));
+        keys.sort(Comparator.comparingInt(key -> key.frame));
+        return this;
+    }
+
+    public List<Keyframe> getKeys() {
+        return keys;
+    }
+
+    public int getFirstFrame() {
+        requireKeys();
+        return keys.get(0).frame;
+    }
+
+    public int getLastFrame() {
+        requireKeys();
+        return keys.get(keys.size() - 1).frame;
+    }
+
+    // Points the camera the way the path has it at the given frame
+    public void apply(Camera camera, int frame) {
+        requireKeys();
+        int next = 0;
+        while (next < keys.size() && keys.get(next).frame <= frame) {
+            next++;
+        }
+        if (next == 0 || next == keys.size()) {
+            Keyframe key = keys.get(next == 0 ? 0 : keys.size() - 1);
+            camera.setLookFrom(new Vec3(key.lookFrom));
+            camera.setLookAt(new Vec3(key.lookAt));
+            camera.setVerticalFov(key.verticalFov);
+            return;
+        }
+
+        Keyframe k0 = keys.get(Math.max(next - 2, 0));
+        Keyframe k1 = keys.get(next - 1);
+        Keyframe k2 = keys.get(next);
+        Keyframe k3 = keys.get(Math.min(next + 1, keys.size() - 1));
+        double t = (double) (frame - k1.frame) / (k2.frame - k1.frame);
+
+        camera.setLookFrom(catmullRom(k0.lookFrom, k1.lookFrom, k2.lookFrom, k3.lookFrom, t));
+        camera.setLookAt(catmullRom(k0.lookAt, k1.lookAt, k2.lookAt, k3.lookAt, t));
+        camera.setVerticalFov(k1.verticalFov + (k2.verticalFov - k1.verticalFov) * t);
+    }
+
+    /*
+        A full circle from lookFrom around the vertical axis through lookAt over frames 0 to frameCount, looking at
+        lookAt the whole way. It has a key every frame, so it stays on the circle rather than cutting across it.
+     */
+    public static CameraPath turntable(Vec3 lookFrom, Vec3 lookAt, double verticalFov, int frameCount) {
+        double dx = lookFrom.x - lookAt.x;
+        double dz = lookFrom.z - lookAt.z;
+        double radius = Math.sqrt(dx * dx + dz * dz);
+        double startAngle = Math.atan2(dx, dz);
+
+        CameraPath path = new CameraPath();
+        for (int frame = 0; frame <= frameCount; frame++) {
+            double angle = startAngle + 2 * Math.PI * frame / frameCount;
+            Vec3 position = new Vec3(lookAt.x + radius * Math.sin(angle), lookFrom.y, lookAt.z + radius * Math.cos(angle));
+            path.key(frame, position, lookAt, verticalFov);
+        }
+        return path;
+    }
+
+    // The uniform Catmull-Rom segment from p1 (t = 0) to p2 (t = 1)
+    private static Vec3 catmullRom(Vec3 p0, Vec3 p1, Vec3 p2, Vec3 p3, double t) {
+        double t2 = t * t;
+        double t3 = t2 * t;
+        double w0 = -0.5 * t3 + t2 - 0.5 * t;
+        double w1 = 1.5 * t3 - 2.5 * t2 + 1;
+        double w2 = -1.5 * t3 + 2 * t2 + 0.5 * t;
+        double w3 = 0.5 * t3 - 0.5 * t2;
+        return new Vec3(
+                w0 * p0.x + w1 * p1.x + w2 * p2.x + w3 * p3.x,
+                w0 * p0.y + w1 * p1.y + w2 * p2.y + w3 * p3.y,
+                w0 * p0.z + w1 * p1.z + w2 * p2.z + w3 * p3.z);
+    }
+
+    private void requireKeys() {
+        if (keys.isEmpty()) {
+            throw new IllegalStateException("Camera path has no keyframes");
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package animation;
+
+import core.Camera;
+import geometry.Hittable;
+import rendering.Framebuffer;
+import rendering.ImageWriter;
+import scene.Scene;
+import scene.SceneLoader;
+import stats.RenderStats;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Renders the frames of a camera path one after another in this process, each to its own numbered file:
+
+        java -cp out animation.SequenceRenderer <scene.json> <frames>      (a turntable around the scene camera)
+
+    The world, with its BVH, is built once and the camera keeps its render pool, so a frame costs only its rays.
+    Writing a frame overlaps with rendering the next one. There are two framebuffers and one encoder thread:
+
+        render:   frame 0 → buffer A | frame 1 → buffer B | frame 2 → buffer A | ...
+        encode:                      | write frame 0 (A)  | write frame 1 (B)  | ...
+
+    Before a buffer is rendered into again, the write of the frame it held has to be finished.
+ */
+public class SequenceRenderer {
+    private final Camera camera;
+    private final Hittable world;
+    private final CameraPath path;
+    private String outputPattern;
+
+    public SequenceRenderer(Camera camera, Hittable world, CameraPath path) {
+        this.camera = camera;
+        this.world = world;
+        this.path = path;
+        this.outputPattern = defaultPattern(camera.getOutputPath().toString());
+    }
+
+    public String getOutputPattern() {
+        return outputPattern;
+    }
+
+    // A String.format pattern for the frame number, image-%04d.ppm by default for a camera writing image.ppm
+    public void setOutputPattern(String outputPattern) {
+        this.outputPattern = outputPattern;
+    }
+
+    public Path framePath(int frame) {
+        return Paths.get(String.format(outputPattern, frame));
+    }
+
+    // Every frame from the path's first key to its last
+    public void render() throws IOException, InterruptedException {
+        render(path.getFirstFrame(), path.getLastFrame());
+    }
+
+    public void render(int firstFrame, int lastFrame) throws IOException, InterruptedException {
+        System.out.println("Ray Tracer started (frames " + firstFrame + " to " + lastFrame + ")..");
+        ExecutorService encoder = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "frame-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Framebuffer[] buffers = new Framebuffer[2];
+        List<Future<Path>> writes = Arrays.asList(null, null);
+        RenderStats stats = camera.getStats();
+        long start = System.nanoTime();
+
+        try {
+            for (int frame = firstFrame; frame <= lastFrame; frame++) {
+                int slot = (frame - firstFrame) & 1;
+                finish(writes.get(slot));
+
+                long frameStart = System.nanoTime();
+                path.apply(camera, frame);
+                Framebuffer buffer = camera.renderFrame(world, buffers[slot]);
+                buffers[slot] = buffer;
+                if (stats != null) {
+                    stats.renderFinished();
+                }
+                System.out.printf("Frame %d rendered in %.2f s%n", frame, (System.nanoTime() - frameStart) / 1e9);
+
+                Path file = framePath(frame);
+                writes.set(slot, encoder.submit(() -> {
+                    ImageWriter.write(file, buffer.getLayer(Framebuffer.COLOR), 1);
+                    return file;
+                }));
+            }
+            for (Future<Path> write : writes) {
+                finish(write);
+            }
+        } finally {
+            encoder.shutdownNow();
+        }
+
+        System.err.println("Done.");
+        System.out.printf("%d frames created at: %s in %.2f s%n", lastFrame - firstFrame + 1,
+                framePath(firstFrame).toAbsolutePath().getParent(), (System.nanoTime() - start) / 1e9);
+    }
+
+    // Waits for a frame's write, passing on its IOException
+    private static void finish(Future<Path> write) throws IOException, InterruptedException {
+        if (write == null) {
+            return;
+        }
+        try {
+            write.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Writing a frame failed", e.getCause());
+        }
+    }
+
+    // image.ppm gets image-%04d.ppm, a name without an extension gets -%04d appended
+    private static String defaultPattern(String output) {
+        String escaped = output.replace("%", "%%");
+        int dot = escaped.lastIndexOf('.');
+        if (dot <= escaped.lastIndexOf('/') + 1) {
+            return escaped + "-%04d";
+        }
+        return escaped.substring(0, dot) + "-%04d" + escaped.substring(dot);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: SequenceRenderer <scene.json> <frames>");
+            System.exit(2);
+        }
+        Scene scene = SceneLoader.load(Paths.get(args[0]));
+        Camera camera = scene.getCamera();
+        int frames = Integer.parseInt(args[1]);
+
+        // Circle the scene camera's target, starting where the scene file puts the camera
+        CameraPath path = CameraPath.turntable(camera.getLookFrom(), camera.getLookAt(), camera.getVerticalFov(), frames);
+
+        new SequenceRenderer(camera, scene.getWorld(), path).render(0, frames - 1);
+    }
+}
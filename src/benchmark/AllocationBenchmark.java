@@ -0,0 +1,67 @@
+package benchmark;
+
+import core.Camera;
+import geometry.FlatBvh;
+import geometry.Hittable;
+import math.Vec3;
+
+import java.lang.management.ManagementFactory;
+
+/*
+    Measures how many bytes the render loop allocates per camera sample.
+
+    Every sample is traced on the current thread through Camera.traceSample, and the JVM's per-thread
+    allocation counter (com.sun.management.ThreadMXBean) is read before and after, so the number covers
+    ray generation, BVH traversal, the sphere tests, the materials and the color math, and nothing else.
+    The render loop fills reused records and rays instead of making new ones, so after the warm-up this should
+    print 0 bytes per sample; run it with -Xlog:gc to see that no collection happens either.
+
+    Run with:
+        java -cp out benchmark.AllocationBenchmark [imageWidth] [samplesPerPixel]
+ */
+public class AllocationBenchmark {
+
+    public static void main(String[] args) {
+        int imageWidth = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int samplesPerPixel = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        Hittable world = new FlatBvh(BenchmarkScenes.randomSpheres(42));
+        Camera cam = BenchmarkScenes.camera(imageWidth, samplesPerPixel);
+        cam.initialize();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up first so the JIT has compiled (and escape-analysed) the hot path
+        traceFrame(cam, world, imageWidth, samplesPerPixel);
+
+        long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        long startTime = System.nanoTime();
+        long samples = traceFrame(cam, world, imageWidth, samplesPerPixel);
+        long elapsed = System.nanoTime() - startTime;
+        long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        System.out.println("Samples traced:      " + samples);
+        System.out.println("Bytes allocated:     " + bytes);
+        System.out.printf("Bytes per sample:    %.1f%n", (double) bytes / samples);
+        System.out.printf("Samples per second:  %.0f%n", samples / (elapsed / 1e9));
+    }
+
+    private static long traceFrame(Camera cam, Hittable world, int imageWidth, int samplesPerPixel) {
+        int imageHeight = (int) (imageWidth / cam.aspectRatio);
+        Vec3 color = new Vec3();
+        for (int row = 0; row < imageHeight; row++) {
+            for (int column = 0; column < imageWidth; column++) {
+                for (int sample = 0; sample < samplesPerPixel; sample++) {
+                    cam.traceSample(world, column, row, color);
+                }
+            }
+        }
+        double checksum = color.x();
+        // Keep the result alive so the work can't be optimised away
+        if (checksum == -1) {
+            System.out.println(checksum);
+        }
+        return (long) imageHeight * imageWidth * samplesPerPixel;
+    }
+}
@@ -0,0 +1,107 @@
+package benchmark;
+
+import core.Camera;
+import geometry.HittableList;
+import geometry.Sphere;
+import geometry.TriangleMesh;
+import material.Dielectric;
+import material.Lambertian;
+import material.Material;
+import material.Metal;
+import math.Vec3;
+
+import java.util.Random;
+
+/*
+    Scenes shared by the benchmarks. They mirror the scene built in Main, but use a seeded Random
+    so that every run measures exactly the same geometry.
+ */
+public class BenchmarkScenes {
+
+    public static HittableList randomSpheres(long seed) {
+        Random random = new Random(seed);
+        HittableList world = new HittableList();
+
+        world.add(new Sphere(new Vec3(0, -1000, 0), 1000, new Lambertian(new Vec3(0.5, 0.5, 0.5))));
+
+        for (int a = -11; a < 11; a++) {
+            for (int b = -11; b < 11; b++) {
+                double chooseMat = random.nextDouble();
+                Vec3 center = new Vec3(a + 0.9 * random.nextDouble(), 0.2, b + 0.9 * random.nextDouble());
+
+                if (center.subtract(new Vec3(4, 0.2, 0)).length() > 0.9) {
+                    Material sphereMaterial;
+                    if (chooseMat < 0.8) {
+                        sphereMaterial = new Lambertian(new Vec3(
+                                random.nextDouble() * random.nextDouble(),
+                                random.nextDouble() * random.nextDouble(),
+                                random.nextDouble() * random.nextDouble()));
+                    } else if (chooseMat < 0.95) {
+                        sphereMaterial = new Metal(new Vec3(
+                                0.5 + 0.5 * random.nextDouble(),
+                                0.5 + 0.5 * random.nextDouble(),
+                                0.5 + 0.5 * random.nextDouble()), 0.5 * random.nextDouble());
+                    } else {
+                        sphereMaterial = new Dielectric(1.5);
+                    }
+                    world.add(new Sphere(center, 0.2, sphereMaterial));
+                }
+            }
+        }
+
+        world.add(new Sphere(new Vec3(0, 1, 0), 1.0, new Dielectric(1.5)));
+        world.add(new Sphere(new Vec3(-4, 1, 0), 1.0, new Lambertian(new Vec3(0.4, 0.2, 0.1))));
+        world.add(new Sphere(new Vec3(4, 1, 0), 1.0, new Metal(new Vec3(0.7, 0.6, 0.5), 0.0)));
+        return world;
+    }
+
+    // Same framing as the README's high quality render, at whatever size the benchmark asks for
+    public static Camera camera(int imageWidth, int samplesPerPixel) {
+        Camera cam = new Camera();
+
+        cam.aspectRatio = 16.0 / 9.0;
+        cam.imageWidth = imageWidth;
+        cam.setSamplesPerPixel(samplesPerPixel);
+        cam.maxDepth = 50;
+
+        cam.setVerticalFov(20);
+        cam.setLookFrom(new Vec3(13, 2, 3));
+        cam.setLookAt(new Vec3(0, 0, 0));
+        cam.setvUp(new Vec3(0, 1, 0));
+
+        cam.setDeFocusAngle(0.6);
+        cam.setFocusDist(10.0);
+        return cam;
+    }
+
+    // A sphere made of rows × columns quads, two triangles each, for tests that need a closed triangle mesh
+    public static TriangleMesh uvSphere(Vec3 center, double radius, int rows, int columns, Material material) {
+        float[] vertices = new float[3 * (rows + 1) * (columns + 1)];
+        for (int row = 0; row <= rows; row++) {
+            double theta = Math.PI * row / rows;
+            for (int column = 0; column <= columns; column++) {
+                double phi = 2 * Math.PI * column / columns;
+                int v = 3 * (row * (columns + 1) + column);
+                vertices[v] = (float) (center.x + radius * Math.sin(theta) * Math.cos(phi));
+                vertices[v + 1] = (float) (center.y + radius * Math.cos(theta));
+                vertices[v + 2] = (float) (center.z + radius * Math.sin(theta) * Math.sin(phi));
+            }
+        }
+
+        int[] indices = new int[6 * rows * columns];
+        int i = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int top = row * (columns + 1) + column;
+                int bottom = top + columns + 1;
+                indices[i++] = top;
+                indices[i++] = bottom;
+                indices[i++] = top + 1;
+                indices[i++] = top + 1;
+                indices[i++] = bottom;
+                indices[i++] = bottom + 1;
+            }
+        }
+        return new TriangleMesh(vertices, indices, material);
+    }
+}
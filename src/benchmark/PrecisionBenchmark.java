@@ -0,0 +1,216 @@
+package benchmark;
+
+import core.Camera;
+import core.Interval;
+import core.Ray;
+import geometry.FloatSphereSoA;
+import geometry.HitRecord;
+import geometry.Hittable;
+import geometry.HittableList;
+import geometry.Instance;
+import geometry.Sphere;
+import geometry.SphereSoA;
+import geometry.TriangleMesh;
+import light.LightList;
+import light.SphereLight;
+import material.DiffuseLight;
+import material.Lambertian;
+import material.Metal;
+import math.Transform;
+import math.Vec3;
+import rendering.Color;
+import rendering.Framebuffer;
+
+import java.util.Random;
+
+/*
+    Renders the benchmark scene with its spheres in double (geometry.SphereSoA) and in float
+    (geometry.FloatSphereSoA) and compares the two images, so float mode can be checked for acne, holes and
+    speed in one go. A second scene adds two triangle meshes, one placed directly and one through an Instance,
+    and the meshes are also checked for rays that hit the triangle they leave again. A third lights the spheres
+    with a sphere light on a black background. The light's sphere goes through the float structure like the rest,
+    so float hits on it have to be recognized as on the light (light.SphereLight.pdf), and shadow rays aimed at
+    it must not stop on it.
+
+    Both renders use the same seed, so pixels whose paths hit the same surfaces come out nearly the same, but
+    a path that rounds differently anywhere takes other random numbers from there on. The float image is
+    therefore held against the noise of the double one: a second double render with another seed. Float
+    passes when it is no further from double than that; self-intersection shows up as dark speckles all over
+    lit surfaces, far above that bar. A light weighted wrong shifts the whole image instead, which can hide in
+    that noise, so the mean brightness of float and double must also agree within MEAN_TOLERANCE. The run
+    exits with status 1 when any check fails.
+
+    Float spheres take half the memory of double ones, but so far they render no faster: node boxes are still
+    tested in double and the JIT doesn't turn the float leaf loops into wider SIMD code than the double ones,
+    so expect float to come out somewhat slower here. Until that changes scene files can't pick float.
+
+    Run with:
+        java -cp out benchmark.PrecisionBenchmark [imageWidth] [samplesPerPixel]
+ */
+public class PrecisionBenchmark {
+    // A pixel channel counts as different when its 8-bit value moves by more than this
+    private static final int THRESHOLD = 8;
+    // Rays spawned off each mesh when counting self-intersections
+    private static final int SPAWNED_RAYS = 200_000;
+    // How far apart, relatively, the mean brightness of the lit float and double renders may be
+    private static final double MEAN_TOLERANCE = 0.01;
+
+    public static void main(String[] args) {
+        int imageWidth = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int samplesPerPixel = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        Camera cam = BenchmarkScenes.camera(imageWidth, samplesPerPixel);
+
+        HittableList spheres = BenchmarkScenes.randomSpheres(42);
+        TriangleMesh mesh = BenchmarkScenes.uvSphere(new Vec3(2, 0.8, 2.2), 0.8, 12, 16,
+                new Lambertian(new Vec3(0.2, 0.4, 0.7)));
+        Instance instance = new Instance(
+                BenchmarkScenes.uvSphere(new Vec3(0, 0, 0), 1, 12, 16, new Metal(new Vec3(0.8, 0.8, 0.8), 0.05)),
+                Transform.scale(0.8).then(Transform.rotateY(30)).then(Transform.translate(-2, 0.8, -2.2)));
+
+        // Warm up first so both versions are compiled before they are timed
+        cam.setSeed(0);
+        cam.renderFrame(new SphereSoA(spheres), null);
+        cam.renderFrame(new FloatSphereSoA(spheres), null);
+
+        boolean passed = compare("Spheres", cam, new SphereSoA(spheres), new FloatSphereSoA(spheres));
+        passed &= compare("Spheres and meshes", cam, withMeshes(new SphereSoA(spheres), mesh, instance),
+                withMeshes(new FloatSphereSoA(spheres), mesh, instance));
+        passed &= lit(imageWidth, samplesPerPixel, spheres);
+        passed &= selfHits("Mesh", mesh, new Vec3(2, 0.8, 2.2));
+        passed &= selfHits("Instanced mesh", instance, new Vec3(-2, 0.8, -2.2));
+
+        if (!passed) {
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static Hittable withMeshes(Hittable spheres, Hittable... meshes) {
+        HittableList world = new HittableList();
+        world.add(spheres);
+        for (Hittable mesh : meshes) {
+            world.add(mesh);
+        }
+        return world;
+    }
+
+    /*
+        The spheres under a sphere light above them, with nothing else to light them. A float hit on the light
+        that isn't taken for one counts the light in full on top of what light sampling adds for it, and a shadow
+        ray stopped by the light it aims at drops light sampling's share; either moves the mean brightness.
+     */
+    private static boolean lit(int imageWidth, int samplesPerPixel, HittableList spheres) {
+        Sphere light = new Sphere(new Vec3(0.3, 10.3, -0.7), 2.5, new DiffuseLight(new Vec3(6, 6, 6)));
+        HittableList world = new HittableList();
+        for (Hittable sphere : spheres.getObjects()) {
+            world.add(sphere);
+        }
+        world.add(light);
+
+        Camera cam = BenchmarkScenes.camera(imageWidth, samplesPerPixel);
+        cam.setBackground(new Vec3());
+        cam.setLights(new LightList().add(new SphereLight(light)));
+        return compare("Spheres under a sphere light", cam, new SphereSoA(world), new FloatSphereSoA(world));
+    }
+
+    // Renders both worlds and the double one again with another seed, returns whether float is within the noise
+    private static boolean compare(String scene, Camera cam, Hittable doubleWorld, Hittable floatWorld) {
+        long start = System.nanoTime();
+        Framebuffer doubleImage = render(cam, doubleWorld, 0);
+        long doubleTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Framebuffer floatImage = render(cam, floatWorld, 0);
+        long floatTime = System.nanoTime() - start;
+
+        Framebuffer reseeded = render(cam, doubleWorld, 1);
+
+        System.out.println(scene + ":");
+        System.out.printf("  Double render:       %.0f ms%n", doubleTime / 1e6);
+        System.out.printf("  Float render:        %.0f ms%n", floatTime / 1e6);
+        double floatError = report("  Float vs double:    ", floatImage, doubleImage);
+        double noise = report("  Double, other seed: ", reseeded, doubleImage);
+        double doubleMean = mean(doubleImage), floatMean = mean(floatImage);
+        double meanDifference = Math.abs(floatMean / doubleMean - 1);
+        System.out.printf("  Mean brightness:     double %.5f, float %.5f, %.2f%% apart%n",
+                doubleMean, floatMean, 100 * meanDifference);
+
+        if (floatError > noise) {
+            System.out.println("  Float differs from double by more than double's own noise");
+            return false;
+        }
+        if (meanDifference > MEAN_TOLERANCE) {
+            System.out.println("  Float is brighter or darker on average than double");
+            return false;
+        }
+        return true;
+    }
+
+    private static double mean(Framebuffer image) {
+        float[] data = image.getLayer(Framebuffer.COLOR).getData();
+        double sum = 0;
+        for (float value : data) {
+            sum += value;
+        }
+        return sum / data.length;
+    }
+
+    private static Framebuffer render(Camera cam, Hittable world, long seed) {
+        cam.setSeed(seed);
+        return cam.renderFrame(world, null);
+    }
+
+    // Prints and returns the root mean square difference of two images, in 8-bit steps as they would be written
+    private static double report(String label, Framebuffer image, Framebuffer reference) {
+        float[] a = image.getLayer(Framebuffer.COLOR).getData();
+        float[] b = reference.getLayer(Framebuffer.COLOR).getData();
+        double sumSquares = 0;
+        int maxDifference = 0;
+        int overThreshold = 0;
+        for (int i = 0; i < a.length; i++) {
+            int difference = Math.abs(Color.toByte(a[i]) - Color.toByte(b[i]));
+            sumSquares += (double) difference * difference;
+            maxDifference = Math.max(maxDifference, difference);
+            if (difference > THRESHOLD) {
+                overThreshold++;
+            }
+        }
+        double rmse = Math.sqrt(sumSquares / a.length);
+        System.out.printf("%s RMSE %.3f, max %d, %.2f%% of channels off by more than %d%n",
+                label, rmse, maxDifference, 100.0 * overThreshold / a.length, THRESHOLD);
+        return rmse;
+    }
+
+    /*
+        Aims rays at a closed convex mesh around center from all sides, and from every hit spawns a ray outwards
+        the way a bounce would (HitRecord.spawnOrigin). None of those can meet the mesh again, so every hit is the
+        ray finding the triangle it left. Returns whether there were none.
+     */
+    private static boolean selfHits(String label, Hittable mesh, Vec3 center) {
+        Random random = new Random(7);
+        Interval range = new Interval(0, Double.POSITIVE_INFINITY);
+        HitRecord rec = new HitRecord();
+        HitRecord again = new HitRecord();
+        int spawned = 0;
+        int selfHits = 0;
+        while (spawned < SPAWNED_RAYS) {
+            Vec3 origin = center.add(new Vec3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian())
+                    .unitVector().multiply(10));
+            Vec3 target = center.add(new Vec3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian())
+                    .multiply(0.3));
+            if (!mesh.hit(new Ray(origin, target.subtract(origin)), range, rec)) {
+                continue;
+            }
+            Vec3 direction = rec.normal.add(new Vec3(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()));
+            if (Vec3.dot(direction, rec.normal) <= 0) {
+                continue;
+            }
+            spawned++;
+            if (mesh.hit(new Ray(rec.spawnOrigin(direction, new Vec3()), direction), range, again)) {
+                selfHits++;
+            }
+        }
+        System.out.printf("%s: %d of %d spawned rays hit the mesh again%n", label, selfHits, spawned);
+        return selfHits == 0;
+    }
+}
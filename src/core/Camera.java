@@ -3,15 +3,30 @@ package core;
 import geometry.HitRecord;
 import geometry.Hittable;
 import geometry.HittableList;
+import geometry.RayPacket;
+import light.LightList;
+import light.LightSample;
 import material.ScatterRecord;
+import math.RandomSource;
 import math.Utils;
 import math.Vec3;
-import rendering.Color;
+import rendering.AccumulationBuffer;
+import rendering.Framebuffer;
+import rendering.ImageFormat;
+import rendering.ImageWriter;
+import rendering.Tile;
+import rendering.TileOrder;
+import rendering.TileScheduler;
+import stats.RayCounters;
+import stats.RenderStats;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.stream.IntStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 
 public class Camera {
@@ -27,6 +42,15 @@ public class Camera {
     private Vec3 lookAt;
     private Vec3 vUp;
     private final ThreadLocal<HitRecord> recordThreadLocal = ThreadLocal.withInitial(HitRecord::new);
+    private final ThreadLocal<RayCounters> countersThreadLocal = ThreadLocal.withInitial(RayCounters::new);
+    private final ThreadLocal<ShadowState> shadowThreadLocal = ThreadLocal.withInitial(ShadowState::new);
+    private final ThreadLocal<PathState> pathThreadLocal = ThreadLocal.withInitial(PathState::new);
+    // Shared by every ray and thread, so hit() implementations must only read it. Rays that leave a surface start
+    // just off it (see HitRecord.spawnOrigin), so they need no minimum t to get clear of it
+    static final Interval HIT_RANGE = new Interval(0, Utils.INFINITY);
+    // Shadow rays end this fraction short of the sampled light point. Near the edge of a sphere light held in float
+    // (geometry.FloatSphereSoA) the float root lands up to a few 1e-5 of the distance before that point
+    static final double SHADOW_EPSILON = 1e-4;
 
     // orthogonal vectors for camera frame
     private Vec3 u, v, w;
@@ -36,10 +60,88 @@ public class Camera {
     private Vec3 deFocusDiskU;
     private Vec3 deFocusDiskV;
 
+    // Shutter interval, in the time units of moving objects (a moving Sphere goes from center0 at 0 to center1 at 1).
+    // Every ray is sent at a random time in it; open == close sends every ray at that instant, without motion blur
+    private double shutterOpen = 0;
+    private double shutterClose = 0;
+
+    // Tile scheduling for optimizedRender
+    private int tileSize = 32;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private TileOrder tileOrder = TileOrder.HILBERT;
+    private ForkJoinPool pool;
+    // Side of the square blocks of pixels whose camera rays are traced as one packet, 0 traces every ray alone
+    private int packetSize = 0;
+    private final ThreadLocal<PacketState> packetThreadLocal = new ThreadLocal<>();
+    // Renders tiles a bounce at a time with material-sorted shading instead of a path at a time, see core.Wavefront
+    private boolean wavefront = false;
+    private final ThreadLocal<Wavefront> wavefrontThreadLocal = ThreadLocal.withInitial(() -> new Wavefront(this));
+
+    // Where renders write the image, the extension picks the format (.ppm, .png or .pfm), see rendering.ImageFormat
+    private Path outputPath = Paths.get("image.ppm");
+
+    // Every pixel's random stream is derived from this, so the same seed renders the same image
+    private long seed = 0;
+
     public double aspectRatio = 1.0;
     public int imageWidth = 100;
     public int maxDepth = 50;
 
+    // Bounce count after which paths may be terminated by Russian roulette, set it to maxDepth or more to turn it off
+    private int rouletteStartDepth = 5;
+
+    // Adaptive sampling in optimizedRender: a pixel stops once the relative standard error of its mean luminance
+    // drops below noiseThreshold, after at least minSamplesPerPixel and at most samplesPerPixel samples. 0 turns it off
+    private double noiseThreshold = 0;
+    private int minSamplesPerPixel = 16;
+
+    // Counts rays, bounces and tile times when set, see stats.RenderStats; null skips all counting
+    private RenderStats stats;
+
+    // Lights sampled at every diffuse hit (next-event estimation), null or empty to only find lights by chance
+    private LightList lights;
+    // Radiance of rays that leave the scene, null for the white-to-blue sky gradient
+    private Vec3 background;
+
+    // Shadow ray, its range and the light sample of one render thread, reused for every light sample
+    private static final class ShadowState {
+        final Ray ray = new Ray();
+        final Interval range = new Interval();
+        final LightSample sample = new LightSample();
+    }
+
+    /*
+        The rays and scatter record of one render thread, reused for every sample so that tracing a path
+        allocates nothing: the camera ray is set up in place (see getRay), the material scatters into the
+        record, and the path carries on in a ray of its own that the scattered ray is copied into.
+     */
+    private static final class PathState {
+        final Ray cameraRay = new Ray();
+        final Ray ray = new Ray();
+        final ScatterRecord scatter = new ScatterRecord();
+    }
+
+    // One render thread's packet of camera rays and the pixels behind its lanes
+    private static final class PacketState {
+        final RayPacket packet;
+        final PixelSamples pixels;
+        final Ray[] rays;
+
+        PacketState(int lanes) {
+            packet = new RayPacket(lanes);
+            pixels = new PixelSamples(lanes);
+            rays = new Ray[lanes];
+            for (int k = 0; k < lanes; k++) {
+                rays[k] = new Ray();
+            }
+        }
+    }
+
+    // Receives a finished pixel: the sum of its samples and how many there were
+    interface PixelSink {
+        void accept(int column, int row, Vec3 colorSum, int samples);
+    }
+
     public Vec3 getvUp() {
         return vUp;
     }
@@ -88,6 +190,15 @@ public class Camera {
         this.verticalFov = verticalFov;
     }
 
+    // Worked out from imageWidth and aspectRatio by initialize
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    public int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+
     public void setSamplesPerPixel(int samplesPerPixel) {
         this.samplesPerPixel = samplesPerPixel;
     }
@@ -96,34 +207,316 @@ public class Camera {
         this.aspectRatio = ratio;
     }
 
-    private Vec3 rayColor(Ray r, int depth, Hittable world) {
-        // If we've exceeded the ray bounce limit, no more light is gathered
-        if (depth <= 0) {
-            return new Vec3(0, 0, 0);
+    public int getRouletteStartDepth() {
+        return rouletteStartDepth;
+    }
+
+    public void setRouletteStartDepth(int rouletteStartDepth) {
+        this.rouletteStartDepth = rouletteStartDepth;
+    }
+
+    public double getNoiseThreshold() {
+        return noiseThreshold;
+    }
+
+    public void setNoiseThreshold(double noiseThreshold) {
+        this.noiseThreshold = noiseThreshold;
+    }
+
+    public int getMinSamplesPerPixel() {
+        return minSamplesPerPixel;
+    }
+
+    public void setMinSamplesPerPixel(int minSamplesPerPixel) {
+        this.minSamplesPerPixel = minSamplesPerPixel;
+    }
+
+    public double getShutterOpen() {
+        return shutterOpen;
+    }
+
+    public double getShutterClose() {
+        return shutterClose;
+    }
+
+    // setShutter(0, 1) blurs moving objects over their whole motion, setShutter(0.25, 0.75) over the middle half
+    public void setShutter(double open, double close) {
+        if (close < open) {
+            throw new IllegalArgumentException("Shutter closes at " + close + " before it opens at " + open);
         }
+        this.shutterOpen = open;
+        this.shutterClose = close;
+    }
 
-        HitRecord rec = recordThreadLocal.get();
+    public RenderStats getStats() {
+        return stats;
+    }
+
+    public LightList getLights() {
+        return lights;
+    }
+
+    public void setLights(LightList lights) {
+        this.lights = lights;
+    }
+
+    public Vec3 getBackground() {
+        return background;
+    }
+
+    // A black background (new Vec3()) for scenes lit only by their lights
+    public void setBackground(Vec3 background) {
+        this.background = background;
+    }
+
+    public void setStats(RenderStats stats) {
+        this.stats = stats;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
 
-        if (world.hit(r, new Interval(0.001, Utils.INFINITY), rec)) {
-            ScatterRecord scatterRec = rec.material.scatter(r, rec);
+    public Path getOutputPath() {
+        return outputPath;
+    }
+
+    // Checks the extension here, so a path ImageWriter can't write fails before the render rather than after it
+    public void setOutputPath(Path outputPath) {
+        ImageFormat.fromPath(outputPath);
+        this.outputPath = outputPath;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public void setTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    public TileOrder getTileOrder() {
+        return tileOrder;
+    }
+
+    public void setTileOrder(TileOrder tileOrder) {
+        this.tileOrder = tileOrder;
+    }
 
-            if (scatterRec != null) {
-                Vec3 scatteredColor = rayColor(scatterRec.getScattered(), depth - 1, world);
-                return scatteredColor.multiply(scatterRec.getAttenuation());
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    // Traces the camera rays of packetSize × packetSize pixel blocks together (4 or 8 suit most scenes), 0 turns it off
+    public void setPacketSize(int packetSize) {
+        if (packetSize < 0 || packetSize > 16) {
+            throw new IllegalArgumentException("Packet size must be between 0 and 16, got " + packetSize);
+        }
+        this.packetSize = packetSize;
+    }
+
+    public boolean isWavefront() {
+        return wavefront;
+    }
+
+    // Renders tiles with core.Wavefront, which gives the same image; it packs camera rays itself, without setPacketSize
+    public void setWavefront(boolean wavefront) {
+        this.wavefront = wavefront;
+    }
+
+    // The pool is kept between renders and only rebuilt when the thread count changes
+    private ForkJoinPool renderPool() {
+        if (pool == null || pool.getParallelism() != threadCount) {
+            if (pool != null) {
+                pool.shutdown();
             }
+            pool = new ForkJoinPool(threadCount);
+        }
+        return pool;
+    }
+
+    /*
+        Follows one path through the scene and adds the light it carries into pixelColor.
+
+        This is a loop rather than recursion: the running product of the attenuations (the throughput) and the
+        light gathered so far stay in local doubles, so a bounce costs no stack frame and no color vector.
+            sky:       radiance += throughput * sky color, done
+            absorbed:  done, nothing more to add
+            scattered: throughput *= attenuation, continue with the scattered ray
+
+        Russian roulette: from rouletteStartDepth bounces on, a path survives with probability p equal to its
+        largest throughput component, and survivors are divided by p. Dim paths that would add next to nothing
+        mostly stop early, while the average over many samples stays the same (the estimate remains unbiased).
 
-            return new Vec3(0, 0, 0);  // Absorbed
+        With lights set, every non-specular hit also sends a shadow ray to a point picked on one of the lights
+        (next-event estimation), so small lights are found at every bounce rather than only by lucky paths.
+        A light can then be reached two ways, by the shadow ray and by the scattered path running into it.
+        Both are kept and weighted with the power heuristic (multiple importance sampling):
+
+            w_light = p_light² / (p_light² + p_bsdf²)       w_bsdf = p_bsdf² / (p_light² + p_bsdf²)
+
+        so each light path counts once in total, mostly through whichever strategy was likelier to find it:
+        light sampling for small lights, the BSDF for large ones and for glossy bounces. After specular
+        bounces, which light sampling skips, emitters hit by the path count fully.
+
+        primaryHit is the camera ray's closest hit when a packet has traced it already (its material is null if the
+        ray hit nothing), or null to trace the camera ray here like every other.
+     */
+    private void rayColor(Ray r, Hittable world, Vec3 pixelColor) {
+        rayColor(r, world, pixelColor, null);
+    }
+
+    private void rayColor(Ray r, Hittable world, Vec3 pixelColor, HitRecord primaryHit) {
+        HitRecord scratch = recordThreadLocal.get();
+        PathState path = pathThreadLocal.get();
+        ScatterRecord scatterRec = path.scatter;
+        RayCounters counters = stats != null ? countersThreadLocal.get() : null;
+        double throughputR = 1, throughputG = 1, throughputB = 1;
+        double radianceR = 0, radianceG = 0, radianceB = 0;
+        Ray ray = r;
+
+        LightList lights = this.lights;
+        boolean sampleLights = lights != null && !lights.isEmpty();
+        ShadowState shadow = sampleLights ? shadowThreadLocal.get() : null;
+        // How the current ray was scattered: the camera ray and specular bounces count emitters fully
+        boolean specularBounce = true;
+        double scatterPdf = 0;
+
+        // If we've exceeded the ray bounce limit, no more light is gathered
+        int depth = 0;
+        for (; depth < maxDepth; depth++) {
+            if (counters != null) {
+                if (depth == 0) counters.primaryRays++;
+                else counters.secondaryRays++;
+            }
+
+            HitRecord rec = depth == 0 && primaryHit != null ? primaryHit : scratch;
+            boolean hit = rec == primaryHit ? rec.material != null : world.hit(ray, HIT_RANGE, rec);
+            if (!hit) {
+                if (background != null) {
+                    radianceR += throughputR * background.x;
+                    radianceG += throughputG * background.y;
+                    radianceB += throughputB * background.z;
+                } else {
+                    // Background gradient (sky): blend white and blue by the height of the unit direction
+                    Vec3 direction = ray.getDirection();
+                    double a = 0.5 * (direction.y / direction.length() + 1.0);
+
+                    radianceR += throughputR * (1.0 - 0.5 * a);
+                    radianceG += throughputG * (1.0 - 0.3 * a);
+                    radianceB += throughputB;
+                }
+                if (counters != null) counters.skyRays++;
+                break;
+            }
+
+            Vec3 emitted = rec.material.emitted(ray, rec);
+            if (emitted != null) {
+                double weight = 1;
+                if (sampleLights && !specularBounce) {
+                    weight = powerHeuristic(scatterPdf, lights.pdf(ray.getOrigin(), rec.p, rec.error));
+                }
+                radianceR += throughputR * emitted.x * weight;
+                radianceG += throughputG * emitted.y * weight;
+                radianceB += throughputB * emitted.z * weight;
+            }
+
+            if (!rec.material.scatter(ray, rec, scatterRec)) {
+                if (counters != null) counters.absorbedRays++;
+                break;  // Absorbed
+            }
+            if (counters != null) counters.scatter(rec.material.getClass());
+
+            Vec3 attenuation = scatterRec.getAttenuation();
+            specularBounce = rec.material.isSpecular();
+
+            if (sampleLights && !specularBounce && lights.sample(rec.p, shadow.sample)) {
+                LightSample sample = shadow.sample;
+                // attenuation * bsdfPdf is the BSDF times the cosine towards the light, see Material.scatteringPdf
+                double bsdfPdf = rec.material.scatteringPdf(ray, rec, sample.direction);
+                if (bsdfPdf > 0) {
+                    aimShadowRay(rec, sample, shadow.ray, shadow.range);
+                    shadow.ray.setTime(ray.getTime());
+                    if (counters != null) counters.shadowRays++;
+
+                    if (!world.occluded(shadow.ray, shadow.range)) {
+                        double weight = sample.delta ? 1 : powerHeuristic(sample.pdf, bsdfPdf);
+                        double scale = bsdfPdf * weight / sample.pdf;
+                        radianceR += throughputR * attenuation.x * sample.radiance.x * scale;
+                        radianceG += throughputG * attenuation.y * sample.radiance.y * scale;
+                        radianceB += throughputB * attenuation.z * sample.radiance.z * scale;
+                    }
+                }
+            }
+            if (sampleLights && !specularBounce) {
+                scatterPdf = rec.material.scatteringPdf(ray, rec, scatterRec.getScattered().getDirection());
+            }
+
+            throughputR *= attenuation.x;
+            throughputG *= attenuation.y;
+            throughputB *= attenuation.z;
+            Ray scattered = scatterRec.getScattered();
+            rec.spawnOrigin(scattered.getDirection(), scattered.getOrigin());
+            ray = path.ray.set(scattered);
+
+            if (depth + 1 >= rouletteStartDepth) {
+                double survival = Math.max(throughputR, Math.max(throughputG, throughputB));
+                if (survival < 1) {
+                    if (Utils.randomDouble() >= survival) {
+                        if (counters != null) counters.rouletteTerminations++;
+                        break;
+                    }
+                    throughputR /= survival;
+                    throughputG /= survival;
+                    throughputB /= survival;
+                }
+            }
         }
+        if (depth == maxDepth && counters != null) {
+            counters.depthLimited++;
+        }
+
+        pixelColor.x += radianceR;
+        pixelColor.y += radianceG;
+        pixelColor.z += radianceB;
+    }
 
-        // Background gradient (sky)
-        Vec3 unitDirection = Vec3.unitVector(r.getDirection());
-        double a = 0.5 * (unitDirection.y() + 1.0);
+    // Weight of a sample taken with density pdf, against another strategy that could have taken it with otherPdf
+    static double powerHeuristic(double pdf, double otherPdf) {
+        double a = pdf * pdf;
+        double b = otherPdf * otherPdf;
+        return a + b > 0 ? a / (a + b) : 1;
+    }
 
-        return new Vec3(1.0, 1.0, 1.0).multiply(1.0 - a)
-                .add(new Vec3(0.5, 0.7, 1.0).multiply(a));
+    /*
+        Sets up shadowRay and range to test whether anything lies between rec and the light point sample picked.
+        The ray starts at rec.spawnOrigin and is aimed at the light point itself, from there, rather than along
+        sample.direction: the spawned origin is off rec.p by up to rec.error (around 1e-3 for a float hit on a
+        radius-1000 ground sphere), and a ray moved that far sideways enters a sphere light much nearer than the
+        sampled point when it passes close to the light's edge. With the direction spanning the whole way, the
+        range ends SHADOW_EPSILON short of the light, or the light itself would block the ray.
+     */
+    static void aimShadowRay(HitRecord rec, LightSample sample, Ray shadowRay, Interval range) {
+        Vec3 origin = rec.spawnOrigin(sample.direction, shadowRay.getOrigin());
+        Vec3 d = sample.direction;
+        shadowRay.getDirection().set(rec.p.x + sample.distance * d.x - origin.x,
+                rec.p.y + sample.distance * d.y - origin.y, rec.p.z + sample.distance * d.z - origin.z);
+        range.set(HIT_RANGE.getMin(), 1 - SHADOW_EPSILON);
     }
 
-    private void initialize() {
+    public void initialize() {
         this.imageHeight = (int)(imageWidth / aspectRatio);
         imageHeight = (imageHeight < 1) ? 1 : imageHeight;
 
@@ -161,57 +554,142 @@ public class Camera {
         this.deFocusDiskV = v.multiply(deFocusRadius);
     }
 
-    private Ray getRay(int column, int row) {
-        Vec3 offset = sampleSquare();
-        Vec3 pixelSample = pixel00Location
-                .add(pixelDeltaU.multiply(column + offset.x()))
-                .add(pixelDeltaV.multiply(row + offset.y()));
+    /*
+        Traces samples through pixel (column, row), adds them into pixelColor and returns how many were traced.
 
-        Vec3 rayOrigin = (this.getDeFocusAngle() <= 0) ? cameraCenter : deFocusDiskSample();
-        Vec3 rayDirection = pixelSample.subtract(rayOrigin);
+        Without a noise threshold that is always samplesPerPixel. With one, a running mean and variance of the
+        samples' luminance is kept (Welford's method, one pass and numerically stable), and the pixel stops as soon as
+            standard error of the mean = sqrt(variance / n)  <  noiseThreshold * mean
+        Sky and flat diffuse ground settle after the minimum; edges, glass and fuzzy metal keep going up to the maximum.
+     */
+    private int samplePixel(Hittable world, int column, int row, Vec3 pixelColor) {
+        if (noiseThreshold <= 0) {
+            for (int currentSample = 0; currentSample < samplesPerPixel; currentSample++) {
+                rayColor(cameraRay(column, row), world, pixelColor);
+            }
+            return samplesPerPixel;
+        }
+
+        double mean = 0;
+        double m2 = 0;
+        int n = 0;
+        while (n < samplesPerPixel) {
+            double beforeR = pixelColor.x, beforeG = pixelColor.y, beforeB = pixelColor.z;
+            rayColor(cameraRay(column, row), world, pixelColor);
+            double luminance = 0.2126 * (pixelColor.x - beforeR)
+                    + 0.7152 * (pixelColor.y - beforeG)
+                    + 0.0722 * (pixelColor.z - beforeB);
+
+            n++;
+            double delta = luminance - mean;
+            mean += delta / n;
+            m2 += delta * (luminance - mean);
+
+            if (n >= minSamplesPerPixel && n > 1) {
+                double variance = m2 / (n - 1);
+                // <= so a pixel that has only ever seen black (mean and variance 0) stops too
+                if (variance / n <= noiseThreshold * noiseThreshold * mean * mean) {
+                    break;
+                }
+            }
+        }
+        return n;
+    }
 
-        return new Ray(rayOrigin, rayDirection);
+    // Traces one sample through pixel (column, row) of the image; initialize() must have been called first
+    public Vec3 traceSample(Hittable world, int column, int row) {
+        Vec3 color = new Vec3();
+        traceSample(world, column, row, color);
+        return color;
     }
 
-    private Vec3 deFocusDiskSample() {
-        // Returns a random point in the camera defocus disk
-        Vec3 p = Vec3.randomInUnitDisk();
-        return cameraCenter.add(deFocusDiskU.multiply(p.x())).add(deFocusDiskV.multiply(p.y()));
+    // Same as above, added into color instead of a new vector
+    public void traceSample(Hittable world, int column, int row, Vec3 color) {
+        rayColor(cameraRay(column, row), world, color);
     }
 
-    private Vec3 sampleSquare() {
-        return new Vec3(
-                Utils.randomDouble() - 0.5,
-                Utils.randomDouble() - 0.5,
-                0
-        );
+    // The current thread's camera ray, set up for a new sample through pixel (column, row)
+    private Ray cameraRay(int column, int row) {
+        return getRay(column, row, pathThreadLocal.get().cameraRay);
+    }
+
+    // Sets up out, a ray with vectors of its own, as a new camera ray through pixel (column, row) and returns it
+    Ray getRay(int column, int row, Ray out) {
+        // Random point in the unit square around the pixel center
+        double offsetU = column + Utils.randomDouble() - 0.5;
+        double offsetV = row + Utils.randomDouble() - 0.5;
+
+        Vec3 rayOrigin = out.getOrigin();
+        if (this.getDeFocusAngle() <= 0) {
+            rayOrigin.set(cameraCenter);
+        } else {
+            deFocusDiskSample(rayOrigin);
+        }
+
+        // pixelSample - rayOrigin, built up in place in the direction vector
+        out.getDirection().set(pixel00Location)
+                .addScaledAssign(pixelDeltaU, offsetU)
+                .addScaledAssign(pixelDeltaV, offsetV)
+                .subtractAssign(rayOrigin);
+
+        // Only draws a random number with the shutter open, so still renders keep their random sequence
+        double time = shutterClose > shutterOpen
+                ? shutterOpen + Utils.randomDouble() * (shutterClose - shutterOpen)
+                : shutterOpen;
+        out.setTime(time);
+        return out;
+    }
+
+    private Vec3 deFocusDiskSample(Vec3 out) {
+        // Writes a random point in the camera defocus disk into out
+        double px, py;
+        do {
+            px = Utils.randomDouble(-1, 1);
+            py = Utils.randomDouble(-1, 1);
+        } while (px * px + py * py >= 1);
+
+        return out.set(cameraCenter).addScaledAssign(deFocusDiskU, px).addScaledAssign(deFocusDiskV, py);
     }
 
     public void render(Hittable world) {
         initialize();
+        if (stats != null) {
+            stats.renderStarted(imageWidth, imageHeight);
+        }
 
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter("image.ppm"))) {
-            writer.write("P3\n");
-            writer.write(imageWidth + " " + imageHeight + "\n");
-            writer.write("255\n");
-
-            for(int currentRow = 0; currentRow < imageHeight; currentRow++) {
-                System.out.println("Scanlines remaining: " + (imageHeight - currentRow));
+        Framebuffer.Layer pixels = new Framebuffer(imageWidth, imageHeight).addLayer(Framebuffer.COLOR, 3);
+        HitRecord rec = recordThreadLocal.get();
+        long nodeVisits = rec.nodeVisits;
+        long primitiveTests = rec.primitiveTests;
+        long frameStart = System.nanoTime();
 
-                for (int currentColumn = 0; currentColumn < imageWidth; currentColumn++) {
-                    Vec3 pixelColor = new Vec3(0, 0, 0);
+        for(int currentRow = 0; currentRow < imageHeight; currentRow++) {
+            System.out.println("Scanlines remaining: " + (imageHeight - currentRow));
 
-                    for (int currentSample = 0; currentSample < samplesPerPixel; currentSample++) {
-                        Ray ray = getRay(currentColumn, currentRow);
-                        pixelColor = pixelColor.add(rayColor(ray, maxDepth, world));
-                    }
+            for (int currentColumn = 0; currentColumn < imageWidth; currentColumn++) {
+                Utils.setSeed(Utils.pixelSeed(seed, currentColumn, currentRow));
+                Vec3 pixelColor = new Vec3(0, 0, 0);
 
-                    Color.writeColor(writer, pixelColor.multiply(pixelSamplesScale));
+                for (int currentSample = 0; currentSample < samplesPerPixel; currentSample++) {
+                    rayColor(cameraRay(currentColumn, currentRow), world, pixelColor);
                 }
+
+                pixels.set(currentColumn, currentRow, pixelColor, pixelSamplesScale);
             }
+        }
+
+        if (stats != null) {
+            // The whole frame is one tile here
+            stats.tileFinished(new Tile(0, 0, imageWidth, imageHeight), System.nanoTime() - frameStart,
+                    countersThreadLocal.get(), rec.nodeVisits - nodeVisits, rec.primitiveTests - primitiveTests);
+        }
+
+        try {
+            ImageWriter.write(outputPath, pixels, 1);
 
             System.out.println("Done.");
-            System.out.println("Image created at: " + new java.io.File("image.ppm").getAbsolutePath());
+            System.out.println("Image created at: " + outputPath.toAbsolutePath());
+            reportStats();
 
         } catch (IOException e) {
             System.err.println("Error writing to file: " + e.getMessage());
@@ -220,45 +698,327 @@ public class Camera {
 
     public void optimizedRender(Hittable world) {
         System.out.println("Ray Tracer started..");
+        Framebuffer frame = renderFrame(world, null);
+        Framebuffer.Layer pixels = frame.getLayer(Framebuffer.COLOR);
+        Framebuffer.Layer sampleCounts = frame.getLayer(Framebuffer.SAMPLES);
+
+        try {
+            ImageWriter.write(outputPath, pixels, 1);
+
+            System.err.println("Done.");
+            System.out.println("Image created at: " + outputPath.toAbsolutePath());
+
+            if (noiseThreshold > 0) {
+                writeSampleHeatmap(sampleCounts);
+            }
+            reportStats();
+
+        } catch (IOException e) {
+            System.err.println("Error writing to file: " + e.getMessage());
+        }
+    }
+
+    /*
+        Renders one frame the way optimizedRender does, into the COLOR and SAMPLES layers of a framebuffer, and
+        returns it without writing anything. Hand in the previous frame as reuse to render into it again: it is
+        overwritten when the image size still matches, otherwise a new one is made. With stats set this starts
+        them, ending them is up to the caller (see animation.SequenceRenderer).
+     */
+    public Framebuffer renderFrame(Hittable world, Framebuffer reuse) {
         initialize();
+        if (stats != null) {
+            stats.renderStarted(imageWidth, imageHeight);
+        }
+
+        Framebuffer frame = reuse;
+        if (frame == null || frame.getWidth() != imageWidth || frame.getHeight() != imageHeight
+                || !frame.hasLayer(Framebuffer.COLOR) || !frame.hasLayer(Framebuffer.SAMPLES)) {
+            frame = new Framebuffer(imageWidth, imageHeight);
+            frame.addLayer(Framebuffer.COLOR, 3);
+            frame.addLayer(Framebuffer.SAMPLES, 1);
+        }
+        Framebuffer.Layer pixels = frame.getLayer(Framebuffer.COLOR);
+        Framebuffer.Layer sampleCounts = frame.getLayer(Framebuffer.SAMPLES);
+
+        TileScheduler scheduler = new TileScheduler(imageWidth, imageHeight, tileSize, tileOrder);
+        int tileCount = scheduler.getTiles().size();
+        AtomicInteger tilesDone = new AtomicInteger();
+
+        scheduler.run(renderPool(), measured(tile -> {
+            renderPixels(world, tile, (column, row, colorSum, samples) -> {
+                sampleCounts.set(column, row, 0, samples);
+                pixels.set(column, row, colorSum, 1.0 / samples);
+            });
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("image.ppm"))) {
-            writer.write("P3\n");
-            writer.write(imageWidth + " " + imageHeight + "\n");
-            writer.write("255\n");
+            int done = tilesDone.incrementAndGet();
+            if (done % 10 == 0) {
+                System.err.println("Tiles remaining: " + (tileCount - done));
+            }
+        }));
+        return frame;
+    }
 
-            Vec3[][] pixels = new Vec3[imageHeight][imageWidth];
+    /*
+        Renders one tile exactly as optimizedRender would, for callers that put the image together themselves
+        (see distributed.RenderCoordinator). color receives the pixels' averages (r, g, b) and sampleCounts their
+        sample counts, row by row within the tile. Call initialize first; tiles may be rendered from several threads.
+     */
+    public void renderTile(Hittable world, Tile tile, float[] color, float[] sampleCounts) {
+        int tileWidth = tile.x1 - tile.x0;
+        renderPixels(world, tile, (column, row, colorSum, samples) -> {
+            int i = (row - tile.y0) * tileWidth + column - tile.x0;
+            double scale = 1.0 / samples;
+            sampleCounts[i] = samples;
+            color[3 * i] = (float) (colorSum.x * scale);
+            color[3 * i + 1] = (float) (colorSum.y * scale);
+            color[3 * i + 2] = (float) (colorSum.z * scale);
+        });
+    }
 
-            IntStream.range(0, imageHeight).parallel().forEach(currentRow -> {
-                if (currentRow % 10 == 0) {
-                    System.err.println("Writing pixels at line number: " + (imageHeight - currentRow));
+    // Renders every pixel of a tile, one by one, in packets (see setPacketSize) or as a wavefront, and hands each one to sink
+    private void renderPixels(Hittable world, Tile tile, PixelSink sink) {
+        if (wavefront) {
+            wavefrontThreadLocal.get().render(world, tile, sink, recordThreadLocal.get(),
+                    stats != null ? countersThreadLocal.get() : null);
+            return;
+        }
+        if (packetSize > 0) {
+            for (int y = tile.y0; y < tile.y1; y += packetSize) {
+                for (int x = tile.x0; x < tile.x1; x += packetSize) {
+                    renderPacket(world, x, y, Math.min(x + packetSize, tile.x1), Math.min(y + packetSize, tile.y1), sink);
                 }
+            }
+            return;
+        }
+
+        Vec3 pixelColor = new Vec3();
+        for (int currentRow = tile.y0; currentRow < tile.y1; currentRow++) {
+            for (int currentColumn = tile.x0; currentColumn < tile.x1; currentColumn++) {
+                int samples = renderPixel(world, currentColumn, currentRow, pixelColor);
+                sink.accept(currentColumn, currentRow, pixelColor, samples);
+            }
+        }
+    }
 
-                for (int currentColumn = 0; currentColumn < imageWidth; currentColumn++) {
-                    Vec3 pixelColor = new Vec3(0, 0, 0);
+    /*
+        Renders the pixels [x0, x1) × [y0, y1) with one packet lane each, the same image samplePixel gives pixel by
+        pixel. Every sample round the camera rays of all pixels still sampling go through the scene as one packet:
 
-                    // Sequential sample loop (no parallelization here)
-                    for (int currentSample = 0; currentSample < samplesPerPixel; currentSample++) {
-                        Ray ray = getRay(currentColumn, currentRow);
-                        pixelColor = pixelColor.add(rayColor(ray, maxDepth, world));
-                    }
+            round n:  getRay for every live lane  →  world.hit(packet)  →  rayColor per lane from its primary hit
 
-                    pixels[currentRow][currentColumn] = pixelColor.multiply(pixelSamplesScale);
+        Only the camera rays travel together, the bounces after them go their own ways and are traced one by one.
+        A pixel that meets the noise threshold leaves the packet, the others carry on.
+     */
+    private void renderPacket(Hittable world, int x0, int y0, int x1, int y1, PixelSink sink) {
+        int width = x1 - x0;
+        int lanes = width * (y1 - y0);
+        PacketState state = packetThreadLocal.get();
+        if (state == null || state.packet.getCapacity() < lanes) {
+            state = new PacketState(packetSize * packetSize);
+            packetThreadLocal.set(state);
+        }
+        RayPacket packet = state.packet;
+        PixelSamples pixels = state.pixels;
+        boolean[] live = pixels.live;
+        packet.setCount(lanes);
+        pixels.start(this, x0, y0, width, lanes);
+
+        HitRecord rec = recordThreadLocal.get();
+        RandomSource threadRandom = pixels.use(0);
+        try {
+            int liveCount = lanes;
+            while (liveCount > 0) {
+                for (int k = 0; k < lanes; k++) {
+                    if (live[k]) {
+                        pixels.use(k);
+                        packet.set(k, getRay(pixels.column(k), pixels.row(k), state.rays[k]), HIT_RANGE);
+                    }
                 }
-            });
+                world.hit(packet, live);
+                packet.moveCountersTo(rec);
 
-            // Write all pixels to file
-            for (int row = 0; row < imageHeight; row++) {
-                for (int col = 0; col < imageWidth; col++) {
-                    Color.writeColor(writer, pixels[row][col]);
+                for (int k = 0; k < lanes; k++) {
+                    if (live[k]) {
+                        pixels.use(k);
+                        Vec3 pixelColor = pixels.colors[k];
+                        double beforeR = pixelColor.x, beforeG = pixelColor.y, beforeB = pixelColor.z;
+                        rayColor(packet.getRay(k), world, pixelColor, packet.getRecord(k));
+                        if (!pixels.sampled(k, beforeR, beforeG, beforeB)) {
+                            live[k] = false;
+                            liveCount--;
+                        }
+                    }
                 }
             }
+        } finally {
+            Utils.swapRandomSource(threadRandom);
+        }
+        pixels.finish(sink);
+    }
 
-            System.err.println("Done.");
-            System.out.println("Image created at: " + new java.io.File("image.ppm").getAbsolutePath());
+    // Seeds and samples one pixel into pixelColor (the sum of its samples), returns the number of samples
+    private int renderPixel(Hittable world, int column, int row, Vec3 pixelColor) {
+        Utils.setSeed(Utils.pixelSeed(seed, column, row));
+        pixelColor.set(0, 0, 0);
+
+        // Sequential sample loop (no parallelization here)
+        return samplePixel(world, column, row, pixelColor);
+    }
 
+    /*
+        Writes each pixel's sample count from blue (minSamplesPerPixel) to red (samplesPerPixel) next to the image,
+        image.ppm gets image-samples.ppm
+     */
+    private void writeSampleHeatmap(Framebuffer.Layer sampleCounts) throws IOException {
+        long totalSamples = 0;
+        float[] counts = sampleCounts.getData();
+        float[] heat = new float[counts.length * 3];
+
+        int low = Math.min(minSamplesPerPixel, samplesPerPixel);
+        double range = Math.max(samplesPerPixel - low, 1);
+        for (int p = 0; p < counts.length; p++) {
+            totalSamples += (long) counts[p];
+            float level = (float) Math.max(0, Math.min(1, (counts[p] - low) / range));
+            heat[p * 3] = level;
+            heat[p * 3 + 2] = 1 - level;
+        }
+
+        Path heatmapPath = outputSibling("-samples");
+        ImageWriter.write(heatmapPath, imageWidth, imageHeight, heat, 1);
+
+        System.out.printf("Average samples per pixel: %.1f of %d%n", (double) totalSamples / counts.length, samplesPerPixel);
+        System.out.println("Sample heatmap created at: " + heatmapPath.toAbsolutePath());
+    }
+
+    // Runs renderTile and, with stats on, reports the tile's wall time and what its thread counted meanwhile
+    private Consumer<Tile> measured(Consumer<Tile> renderTile) {
+        if (stats == null) {
+            return renderTile;
+        }
+        return tile -> {
+            HitRecord rec = recordThreadLocal.get();
+            long nodeVisits = rec.nodeVisits;
+            long primitiveTests = rec.primitiveTests;
+            long start = System.nanoTime();
+
+            renderTile.accept(tile);
+
+            stats.tileFinished(tile, System.nanoTime() - start, countersThreadLocal.get(),
+                    rec.nodeVisits - nodeVisits, rec.primitiveTests - primitiveTests);
+        };
+    }
+
+    // Ends the stats of a render: prints the summary and writes the tile heatmap if it was asked for
+    private void reportStats() throws IOException {
+        if (stats == null) {
+            return;
+        }
+        stats.renderFinished();
+        System.out.print(stats.summary());
+
+        if (stats.isTileHeatmap()) {
+            Path heatmapPath = outputSibling("-tiles");
+            stats.writeTileHeatmap(heatmapPath);
+            System.out.println("Tile heatmap created at: " + heatmapPath.toAbsolutePath());
+        }
+    }
+
+    // A file next to the output image with a suffix before the extension, image.ppm gets image<suffix>.ppm
+    private Path outputSibling(String suffix) {
+        String name = outputPath.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return outputPath.resolveSibling(name.substring(0, dot) + suffix + name.substring(dot));
+    }
+
+    /*
+        Renders in passes into a float accumulation buffer instead of computing every sample of a pixel at once.
+        The first pass traces 1 sample per pixel and each pass after that doubles the total (1, 2, 4, 8 ...)
+        until samplesPerPixel is reached. After every pass the output image is rewritten with the image so far.
+
+        With a checkpoint file the buffer is also saved there after every pass, and if the file already exists
+        the render carries on from it. A job that gets killed loses at most the pass it was in, and a finished
+        checkpoint can be resumed later with a higher samplesPerPixel to refine the same image.
+        The checkpoint must come from the same image size and seed; other camera settings are not checked.
+     */
+    public void progressiveRender(Hittable world, Path checkpoint) {
+        System.out.println("Ray Tracer started (progressive)..");
+        initialize();
+        if (stats != null) {
+            stats.renderStarted(imageWidth, imageHeight);
+        }
+
+        AccumulationBuffer buffer;
+        try {
+            buffer = loadCheckpoint(checkpoint);
+        } catch (IOException e) {
+            System.err.println("Error reading checkpoint: " + e.getMessage());
+            return;
+        }
+
+        while (buffer.getSamplesPerPixel() < samplesPerPixel) {
+            int firstSample = buffer.getSamplesPerPixel();
+            renderPass(world, buffer, Math.min(Math.max(firstSample, 1), samplesPerPixel - firstSample));
+            System.err.println("Samples per pixel: " + buffer.getSamplesPerPixel() + " / " + samplesPerPixel);
+
+            try {
+                ImageWriter.write(outputPath, imageWidth, imageHeight, buffer.getSums(),
+                        1.0 / buffer.getSamplesPerPixel());
+                if (checkpoint != null) {
+                    buffer.save(checkpoint);
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing to file: " + e.getMessage());
+                return;
+            }
+        }
+
+        System.err.println("Done.");
+        System.out.println("Image created at: " + outputPath.toAbsolutePath());
+        try {
+            reportStats();
         } catch (IOException e) {
             System.err.println("Error writing to file: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /*
+        One pass of progressiveRender: adds passSamples more samples to every pixel of buffer, the ones that come
+        after the buffer's getSamplesPerPixel, so passes add up to the same image however the samples are split
+        between them (see also preview.PreviewRenderer). Call initialize first; the buffer must be the image's size.
+     */
+    public void renderPass(Hittable world, AccumulationBuffer buffer, int passSamples) {
+        int firstSample = buffer.getSamplesPerPixel();
+        TileScheduler scheduler = new TileScheduler(imageWidth, imageHeight, tileSize, tileOrder);
+        scheduler.run(renderPool(), measured(tile -> {
+            Vec3 pixelColor = new Vec3();
+            for (int currentRow = tile.y0; currentRow < tile.y1; currentRow++) {
+                for (int currentColumn = tile.x0; currentColumn < tile.x1; currentColumn++) {
+                    Utils.setSeed(Utils.sampleSeed(seed, currentColumn, currentRow, firstSample));
+                    pixelColor.set(0, 0, 0);
+
+                    for (int currentSample = 0; currentSample < passSamples; currentSample++) {
+                        rayColor(cameraRay(currentColumn, currentRow), world, pixelColor);
+                    }
+
+                    buffer.add(currentColumn, currentRow, pixelColor);
+                }
+            }
+        }));
+        buffer.addSamples(passSamples);
+    }
+
+    private AccumulationBuffer loadCheckpoint(Path checkpoint) throws IOException {
+        if (checkpoint == null || !Files.exists(checkpoint)) {
+            return new AccumulationBuffer(imageWidth, imageHeight, seed);
+        }
+
+        AccumulationBuffer buffer = AccumulationBuffer.load(checkpoint);
+        if (buffer.getWidth() != imageWidth || buffer.getHeight() != imageHeight || buffer.getSeed() != seed) {
+            throw new IOException(checkpoint + " was rendered at " + buffer.getWidth() + "x" + buffer.getHeight()
+                    + " with seed " + buffer.getSeed() + ", this camera renders " + imageWidth + "x" + imageHeight
+                    + " with seed " + seed);
+        }
+        System.out.println("Resuming from " + checkpoint + " at " + buffer.getSamplesPerPixel() + " samples per pixel");
+        return buffer;
+    }
+}
@@ -19,6 +19,18 @@ public class Interval {
         this.max = mx;
     }
 
+    // Tightest interval enclosing both a and b
+    public Interval(Interval a, Interval b) {
+        this.min = Math.min(a.min, b.min);
+        this.max = Math.max(a.max, b.max);
+    }
+
+    // Reuse this interval for a new range instead of allocating one per test
+    public void set(double mn, double mx) {
+        this.min = mn;
+        this.max = mx;
+    }
+
     public double getMin() {
         return min;
     }
@@ -39,6 +51,12 @@ public class Interval {
         return this.min < x && x < this.max;
     }
 
+    // Pads the interval by delta (half on each side)
+    public Interval expand(double delta) {
+        double padding = delta / 2;
+        return new Interval(min - padding, max + padding);
+    }
+
     public double clamp(double x) {
         if (x < this.getMin()) return this.getMin();
         if (x > this.getMax()) return this.getMax();
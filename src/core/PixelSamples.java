@@ -0,0 +1,119 @@
+package core;
+
+import math.RandomSource;
+import math.Utils;
+import math.Vec3;
+
+/*
+    A block of pixels sampled side by side instead of one after the other, for camera packets and core.Wavefront:
+    every pixel's color sum, sample count, running noise estimate and random stream.
+
+    Each pixel has a stream of its own, seeded the way renderPixel seeds the thread's, and a pixel has one sample
+    in flight at a time. So a pixel draws the same numbers in the same order however its samples are interleaved
+    with other pixels', and the block renders exactly what samplePixel renders pixel by pixel.
+ */
+final class PixelSamples {
+    final Vec3[] colors;
+    final boolean[] live;
+    private final RandomSource[] random;
+    private final int[] samples;
+    private final double[] mean;
+    private final double[] m2;
+
+    private int count;
+    private int x0;
+    private int y0;
+    private int width;
+    private int samplesPerPixel;
+    private int minSamplesPerPixel;
+    private double noiseThreshold;
+
+    PixelSamples(int capacity) {
+        colors = new Vec3[capacity];
+        live = new boolean[capacity];
+        random = new RandomSource[capacity];
+        for (int k = 0; k < capacity; k++) {
+            colors[k] = new Vec3();
+            random[k] = Utils.newRandomSource(0);
+        }
+        samples = new int[capacity];
+        mean = new double[capacity];
+        m2 = new double[capacity];
+    }
+
+    int capacity() {
+        return colors.length;
+    }
+
+    // Starts the pixels [x0, x0 + width) × [y0, ...), count of them row by row, with the camera's sample settings
+    void start(Camera camera, int x0, int y0, int width, int count) {
+        this.count = count;
+        this.x0 = x0;
+        this.y0 = y0;
+        this.width = width;
+        this.samplesPerPixel = camera.getSamplesPerPixel();
+        this.minSamplesPerPixel = camera.getMinSamplesPerPixel();
+        this.noiseThreshold = camera.getNoiseThreshold();
+
+        long seed = camera.getSeed();
+        for (int k = 0; k < count; k++) {
+            random[k].setSeed(Utils.pixelSeed(seed, column(k), row(k)));
+            colors[k].set(0, 0, 0);
+            samples[k] = 0;
+            mean[k] = 0;
+            m2[k] = 0;
+            live[k] = true;
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    int column(int k) {
+        return x0 + k % width;
+    }
+
+    int row(int k) {
+        return y0 + k / width;
+    }
+
+    // Makes pixel k's stream the current thread's, returns the stream it replaces
+    RandomSource use(int k) {
+        return Utils.swapRandomSource(random[k]);
+    }
+
+    /*
+        Counts a sample that took colors[k] from (beforeR, beforeG, beforeB) to its current value, the steps of
+        samplePixel's loop after rayColor, and returns whether the pixel wants another one.
+     */
+    boolean sampled(int k, double beforeR, double beforeG, double beforeB) {
+        int n = ++samples[k];
+        if (noiseThreshold <= 0) {
+            return n < samplesPerPixel;
+        }
+
+        Vec3 pixelColor = colors[k];
+        double luminance = 0.2126 * (pixelColor.x - beforeR)
+                + 0.7152 * (pixelColor.y - beforeG)
+                + 0.0722 * (pixelColor.z - beforeB);
+        double delta = luminance - mean[k];
+        mean[k] += delta / n;
+        m2[k] += delta * (luminance - mean[k]);
+
+        if (n >= minSamplesPerPixel && n > 1) {
+            double variance = m2[k] / (n - 1);
+            if (variance / n <= noiseThreshold * noiseThreshold * mean[k] * mean[k]) {
+                return false;
+            }
+        }
+        return n < samplesPerPixel;
+    }
+
+    // Hands every pixel's sum and sample count to sink
+    void finish(Camera.PixelSink sink) {
+        for (int k = 0; k < count; k++) {
+            sink.accept(column(k), row(k), colors[k], samples[k]);
+        }
+    }
+}
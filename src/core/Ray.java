@@ -5,6 +5,8 @@ import math.Vec3;
 public class Ray {
     private Vec3 origin;
     private Vec3 direction;
+    // When in the shutter interval the ray was sent, moving objects are hit where they are at this time
+    private double time;
 
     public Ray() {
         this.origin = new Vec3();
@@ -12,8 +14,13 @@ public class Ray {
     }
 
     public Ray(Vec3 o, Vec3 d) {
+        this(o, d, 0);
+    }
+
+    public Ray(Vec3 o, Vec3 d, double time) {
         this.origin = o;
         this.direction = d;
+        this.time = time;
     }
 
     public Vec3 getOrigin() {
@@ -24,8 +31,29 @@ public class Ray {
         return this.direction;
     }
 
+    public double getTime() {
+        return time;
+    }
+
+    public void setTime(double time) {
+        this.time = time;
+    }
+
     // P(t)=A+tb
     public Vec3 at(double t) {
-        return this.origin.add(this.direction.multiply(t));
+        return at(t, new Vec3());
+    }
+
+    // Same as above, written into out
+    public Vec3 at(double t, Vec3 out) {
+        return out.set(this.origin).addScaledAssign(this.direction, t);
+    }
+
+    // Copies r into this ray's own origin and direction vectors, so they must not be shared with another ray
+    public Ray set(Ray r) {
+        this.origin.set(r.origin);
+        this.direction.set(r.direction);
+        this.time = r.time;
+        return this;
     }
 }
@@ -0,0 +1,468 @@
+package core;
+
+import geometry.HitRecord;
+import geometry.Hittable;
+import geometry.RayPacket;
+import light.LightList;
+import light.LightSample;
+import material.Dielectric;
+import material.Lambertian;
+import material.Material;
+import material.Metal;
+import material.ScatterRecord;
+import math.RandomSource;
+import math.Utils;
+import math.Vec3;
+import rendering.Tile;
+import stats.RayCounters;
+
+import java.util.Arrays;
+
+/*
+    Camera.rayColor turned inside out. Instead of following one path from the camera to its end, every pixel of a
+    tile has a path in flight and all of them advance one bounce at a time, in two alternating stages:
+
+        extend:  trace every live path's ray                                → hit records
+        shade:   sort the hits by material type and run that type's loop   → scattered rays
+        extend:  ...                                                         until no path is left
+
+    In rayColor, material.scatter sees Lambertian, Metal and Dielectric mixed together, so the JIT can only make it
+    a virtual call through Material. Here each of those three classes has a loop of its own, whose calls only ever
+    see that one class, so the JIT binds them directly and inlines the small ones. Any other material (DiffuseLight,
+    new ones) goes through a shared loop with plain virtual calls:
+
+        hits:      [ L M L D L L M ... ]
+        buckets:   [ L L L L | M M | D | other ]  →  shadeLambertian, shadeMetal, shadeDielectric, shadeOther
+
+    The rest of a bounce (light sampling, MIS, throughput and Russian roulette) is the same as in rayColor, one
+    pass over the hits. Each pixel has only one sample in flight and draws from a stream of its own (see
+    core.PixelSamples), so a path draws the same numbers in the same order as in rayColor and the image is the same.
+
+    One per render thread, see Camera.setWavefront.
+ */
+final class Wavefront {
+    private static final int LAMBERTIAN = 0;
+    private static final int METAL = 1;
+    private static final int DIELECTRIC = 2;
+    private static final int OTHER = 3;
+    private static final int KINDS = 4;
+
+    // Camera rays per packet in the extend stage
+    private static final int PACKET_SIZE = 64;
+
+    private final Camera camera;
+    private final RayPacket packet = new RayPacket(PACKET_SIZE);
+    private final boolean[] packetLanes = new boolean[PACKET_SIZE];
+    private final Ray shadowRay = new Ray();
+    private final Interval shadowRange = new Interval();
+    private PixelSamples pixels;
+
+    // Settings of the render in progress
+    private LightList lights;
+    private boolean sampleLights;
+    private Vec3 background;
+    private int rouletteStartDepth;
+    private RayCounters counters;
+
+    // One path per pixel, indexed like the pixels; its rays and records are filled in place from bounce to bounce
+    private Ray[] rays;
+    private HitRecord[] records;
+    private double[] throughputR, throughputG, throughputB;
+    private double[] radianceR, radianceG, radianceB;
+    private boolean[] specularBounce;
+    private double[] scatterPdf;
+
+    // What shading the current hit gave, kept from the material loops to the pass after them
+    private Vec3[] emitted;
+    private ScatterRecord[] scatters;
+    private boolean[] scattered;
+    private boolean[] hitSpecular;
+    private LightSample[] lightSamples;
+    private boolean[] lightSampled;
+    private double[] lightBsdfPdf;
+    private double[] nextScatterPdf;
+
+    // Paths to extend, and the hits of the last extend sorted by material type
+    private int[] queue;
+    private int[] nextQueue;
+    private int[] bucketed;
+    private int[] kinds;
+    private final int[] bucketSize = new int[KINDS];
+    private final int[] bucketStart = new int[KINDS + 1];
+
+    Wavefront(Camera camera) {
+        this.camera = camera;
+    }
+
+    /*
+        Renders every pixel of a tile and hands each one to sink. work collects the BVH work (see
+        HitRecord.nodeVisits), counters the ray counts when stats are on.
+     */
+    void render(Hittable world, Tile tile, Camera.PixelSink sink, HitRecord work, RayCounters counters) {
+        int width = tile.x1 - tile.x0;
+        int count = width * (tile.y1 - tile.y0);
+        fit(count);
+        pixels.start(camera, tile.x0, tile.y0, width, count);
+
+        lights = camera.getLights();
+        sampleLights = lights != null && !lights.isEmpty();
+        background = camera.getBackground();
+        rouletteStartDepth = camera.getRouletteStartDepth();
+        this.counters = counters;
+        int maxDepth = camera.maxDepth;
+        boolean[] live = pixels.live;
+
+        RandomSource threadRandom = pixels.use(0);
+        try {
+            int liveCount = count;
+            while (liveCount > 0) {
+                // One sample of every pixel that is still sampling
+                int paths = 0;
+                for (int p = 0; p < count; p++) {
+                    if (live[p]) {
+                        pixels.use(p);
+                        camera.getRay(pixels.column(p), pixels.row(p), rays[p]);
+                        throughputR[p] = throughputG[p] = throughputB[p] = 1;
+                        radianceR[p] = radianceG[p] = radianceB[p] = 0;
+                        specularBounce[p] = true;
+                        scatterPdf[p] = 0;
+                        queue[paths++] = p;
+                    }
+                }
+
+                for (int depth = 0; depth < maxDepth && paths > 0; depth++) {
+                    extend(world, paths, depth, work);
+                    paths = shade(world, paths, depth);
+                }
+                if (paths > 0 && counters != null) {
+                    counters.depthLimited += paths;
+                }
+
+                for (int p = 0; p < count; p++) {
+                    if (live[p]) {
+                        Vec3 pixelColor = pixels.colors[p];
+                        double beforeR = pixelColor.x, beforeG = pixelColor.y, beforeB = pixelColor.z;
+                        pixelColor.x += radianceR[p];
+                        pixelColor.y += radianceG[p];
+                        pixelColor.z += radianceB[p];
+                        if (!pixels.sampled(p, beforeR, beforeG, beforeB)) {
+                            live[p] = false;
+                            liveCount--;
+                        }
+                    }
+                }
+            }
+        } finally {
+            Utils.swapRandomSource(threadRandom);
+            this.counters = null;
+        }
+        pixels.finish(sink);
+    }
+
+    /*
+        Traces the rays of the first count queued paths into their records. Camera rays go PACKET_SIZE at a time as
+        a geometry.RayPacket, they come from neighbouring pixels in order. Bounces go one by one: they leave in all
+        directions, and a packet of them tests every ray against nodes that only a few of them enter (it came out
+        slower than single rays on the random spheres scene, even with the rays sorted by direction).
+     */
+    private void extend(Hittable world, int count, int depth, HitRecord work) {
+        if (counters != null) {
+            if (depth == 0) counters.primaryRays += count;
+            else counters.secondaryRays += count;
+        }
+
+        if (depth > 0) {
+            for (int i = 0; i < count; i++) {
+                int p = queue[i];
+                if (!world.hit(rays[p], Camera.HIT_RANGE, records[p])) {
+                    records[p].material = null;
+                }
+            }
+            return;
+        }
+        for (int start = 0; start < count; start += PACKET_SIZE) {
+            int lanes = Math.min(PACKET_SIZE, count - start);
+            packet.setCount(lanes);
+            for (int k = 0; k < lanes; k++) {
+                packet.set(k, rays[queue[start + k]], Camera.HIT_RANGE);
+                packetLanes[k] = true;
+            }
+            world.hit(packet, packetLanes);
+            for (int k = 0; k < lanes; k++) {
+                records[queue[start + k]].copy(packet.getRecord(k));
+            }
+        }
+        packet.moveCountersTo(work);
+    }
+
+    // Shades the hits of the last extend and queues the paths that go on, returns how many
+    private int shade(Hittable world, int count, int depth) {
+        // Paths that left the scene take the background and are done, the rest are counted by material type
+        Arrays.fill(bucketSize, 0);
+        int hits = 0;
+        for (int i = 0; i < count; i++) {
+            int p = queue[i];
+            Material material = records[p].material;
+            if (material == null) {
+                addBackground(p);
+                continue;
+            }
+            int kind = kindOf(material);
+            kinds[p] = kind;
+            bucketSize[kind]++;
+            queue[hits++] = p;
+        }
+
+        // Counting sort: bucketStart gets where each bucket begins, bucketSize becomes its fill position
+        bucketStart[0] = 0;
+        for (int kind = 0; kind < KINDS; kind++) {
+            bucketStart[kind + 1] = bucketStart[kind] + bucketSize[kind];
+            bucketSize[kind] = bucketStart[kind];
+        }
+        for (int i = 0; i < hits; i++) {
+            int p = queue[i];
+            bucketed[bucketSize[kinds[p]]++] = p;
+        }
+
+        shadeLambertian(bucketStart[LAMBERTIAN], bucketStart[LAMBERTIAN + 1]);
+        shadeMetal(bucketStart[METAL], bucketStart[METAL + 1]);
+        shadeDielectric(bucketStart[DIELECTRIC], bucketStart[DIELECTRIC + 1]);
+        shadeOther(bucketStart[OTHER], bucketStart[OTHER + 1]);
+
+        int next = 0;
+        for (int i = 0; i < hits; i++) {
+            int p = bucketed[i];
+            if (bounce(world, p, depth)) {
+                nextQueue[next++] = p;
+            }
+        }
+        int[] extended = queue;
+        queue = nextQueue;
+        nextQueue = extended;
+        return next;
+    }
+
+    /*
+        The material loops. They are the same apart from the class the material is cast to, which is what gives
+        every call in them a single receiver class. Each one records the hit's emission, scatter and specularity,
+        and for non-specular hits the light sample and the densities MIS needs.
+     */
+    private void shadeLambertian(int from, int to) {
+        for (int i = from; i < to; i++) {
+            int p = bucketed[i];
+            pixels.use(p);
+            Ray ray = rays[p];
+            HitRecord rec = records[p];
+            Lambertian material = (Lambertian) rec.material;
+            shaded(p, material.emitted(ray, rec), material.scatter(ray, rec, scatters[p]), material.isSpecular());
+            if (sampleLight(p)) {
+                lightBsdfPdf[p] = material.scatteringPdf(ray, rec, lightSamples[p].direction);
+            }
+            if (needsScatterPdf(p)) {
+                nextScatterPdf[p] = material.scatteringPdf(ray, rec, scatters[p].getScattered().getDirection());
+            }
+        }
+    }
+
+    private void shadeMetal(int from, int to) {
+        for (int i = from; i < to; i++) {
+            int p = bucketed[i];
+            pixels.use(p);
+            Ray ray = rays[p];
+            HitRecord rec = records[p];
+            Metal material = (Metal) rec.material;
+            shaded(p, material.emitted(ray, rec), material.scatter(ray, rec, scatters[p]), material.isSpecular());
+            if (sampleLight(p)) {
+                lightBsdfPdf[p] = material.scatteringPdf(ray, rec, lightSamples[p].direction);
+            }
+            if (needsScatterPdf(p)) {
+                nextScatterPdf[p] = material.scatteringPdf(ray, rec, scatters[p].getScattered().getDirection());
+            }
+        }
+    }
+
+    private void shadeDielectric(int from, int to) {
+        for (int i = from; i < to; i++) {
+            int p = bucketed[i];
+            pixels.use(p);
+            Ray ray = rays[p];
+            HitRecord rec = records[p];
+            Dielectric material = (Dielectric) rec.material;
+            shaded(p, material.emitted(ray, rec), material.scatter(ray, rec, scatters[p]), material.isSpecular());
+            if (sampleLight(p)) {
+                lightBsdfPdf[p] = material.scatteringPdf(ray, rec, lightSamples[p].direction);
+            }
+            if (needsScatterPdf(p)) {
+                nextScatterPdf[p] = material.scatteringPdf(ray, rec, scatters[p].getScattered().getDirection());
+            }
+        }
+    }
+
+    private void shadeOther(int from, int to) {
+        for (int i = from; i < to; i++) {
+            int p = bucketed[i];
+            pixels.use(p);
+            Ray ray = rays[p];
+            HitRecord rec = records[p];
+            Material material = rec.material;
+            shaded(p, material.emitted(ray, rec), material.scatter(ray, rec, scatters[p]), material.isSpecular());
+            if (sampleLight(p)) {
+                lightBsdfPdf[p] = material.scatteringPdf(ray, rec, lightSamples[p].direction);
+            }
+            if (needsScatterPdf(p)) {
+                nextScatterPdf[p] = material.scatteringPdf(ray, rec, scatters[p].getScattered().getDirection());
+            }
+        }
+    }
+
+    private void shaded(int p, Vec3 emission, boolean scatter, boolean specular) {
+        emitted[p] = emission;
+        scattered[p] = scatter;
+        hitSpecular[p] = specular;
+    }
+
+    // Picks a point on a light for a hit that scattered off a non-specular material, as rayColor does
+    private boolean sampleLight(int p) {
+        lightSampled[p] = sampleLights && scattered[p] && !hitSpecular[p]
+                && lights.sample(records[p].p, lightSamples[p]);
+        return lightSampled[p];
+    }
+
+    private boolean needsScatterPdf(int p) {
+        return sampleLights && scattered[p] && !hitSpecular[p];
+    }
+
+    /*
+        The rest of rayColor's loop body for path p, on what its material loop recorded: emission with its MIS
+        weight, the shadow ray, the new throughput and Russian roulette. Returns whether the path goes on.
+     */
+    private boolean bounce(Hittable world, int p, int depth) {
+        Ray ray = rays[p];
+        HitRecord rec = records[p];
+        Vec3 emission = emitted[p];
+        ScatterRecord scatter = scatters[p];
+        emitted[p] = null;
+
+        if (emission != null) {
+            double weight = 1;
+            if (sampleLights && !specularBounce[p]) {
+                weight = Camera.powerHeuristic(scatterPdf[p], lights.pdf(ray.getOrigin(), rec.p, rec.error));
+            }
+            radianceR[p] += throughputR[p] * emission.x * weight;
+            radianceG[p] += throughputG[p] * emission.y * weight;
+            radianceB[p] += throughputB[p] * emission.z * weight;
+        }
+
+        if (!scattered[p]) {
+            if (counters != null) counters.absorbedRays++;
+            return false;
+        }
+        if (counters != null) counters.scatter(rec.material.getClass());
+
+        Vec3 attenuation = scatter.getAttenuation();
+        specularBounce[p] = hitSpecular[p];
+
+        if (lightSampled[p] && lightBsdfPdf[p] > 0) {
+            LightSample sample = lightSamples[p];
+            double bsdfPdf = lightBsdfPdf[p];
+            Camera.aimShadowRay(rec, sample, shadowRay, shadowRange);
+            shadowRay.setTime(ray.getTime());
+            if (counters != null) counters.shadowRays++;
+
+            if (!world.occluded(shadowRay, shadowRange)) {
+                double weight = sample.delta ? 1 : Camera.powerHeuristic(sample.pdf, bsdfPdf);
+                double scale = bsdfPdf * weight / sample.pdf;
+                radianceR[p] += throughputR[p] * attenuation.x * sample.radiance.x * scale;
+                radianceG[p] += throughputG[p] * attenuation.y * sample.radiance.y * scale;
+                radianceB[p] += throughputB[p] * attenuation.z * sample.radiance.z * scale;
+            }
+        }
+        if (sampleLights && !hitSpecular[p]) {
+            scatterPdf[p] = nextScatterPdf[p];
+        }
+
+        throughputR[p] *= attenuation.x;
+        throughputG[p] *= attenuation.y;
+        throughputB[p] *= attenuation.z;
+        Ray scattered = scatter.getScattered();
+        rec.spawnOrigin(scattered.getDirection(), scattered.getOrigin());
+        ray.set(scattered);
+
+        if (depth + 1 >= rouletteStartDepth) {
+            double survival = Math.max(throughputR[p], Math.max(throughputG[p], throughputB[p]));
+            if (survival < 1) {
+                pixels.use(p);
+                if (Utils.randomDouble() >= survival) {
+                    if (counters != null) counters.rouletteTerminations++;
+                    return false;
+                }
+                throughputR[p] /= survival;
+                throughputG[p] /= survival;
+                throughputB[p] /= survival;
+            }
+        }
+        return true;
+    }
+
+    // The background or sky a path that left the scene sees, as in rayColor
+    private void addBackground(int p) {
+        if (background != null) {
+            radianceR[p] += throughputR[p] * background.x;
+            radianceG[p] += throughputG[p] * background.y;
+            radianceB[p] += throughputB[p] * background.z;
+        } else {
+            Vec3 direction = rays[p].getDirection();
+            double a = 0.5 * (direction.y / direction.length() + 1.0);
+
+            radianceR[p] += throughputR[p] * (1.0 - 0.5 * a);
+            radianceG[p] += throughputG[p] * (1.0 - 0.3 * a);
+            radianceB[p] += throughputB[p];
+        }
+        if (counters != null) counters.skyRays++;
+    }
+
+    // Exact classes only, a subclass may change what the loop of its parent relies on
+    private static int kindOf(Material material) {
+        Class<?> type = material.getClass();
+        if (type == Lambertian.class) return LAMBERTIAN;
+        if (type == Metal.class) return METAL;
+        if (type == Dielectric.class) return DIELECTRIC;
+        return OTHER;
+    }
+
+    // Grows the per-path arrays to hold a tile of count pixels
+    private void fit(int count) {
+        if (pixels != null && pixels.capacity() >= count) {
+            return;
+        }
+        pixels = new PixelSamples(count);
+        rays = new Ray[count];
+        records = new HitRecord[count];
+        scatters = new ScatterRecord[count];
+        lightSamples = new LightSample[count];
+        for (int p = 0; p < count; p++) {
+            rays[p] = new Ray();
+            records[p] = new HitRecord();
+            scatters[p] = new ScatterRecord();
+            lightSamples[p] = new LightSample();
+        }
+        throughputR = new double[count];
+        throughputG = new double[count];
+        throughputB = new double[count];
+        radianceR = new double[count];
+        radianceG = new double[count];
+        radianceB = new double[count];
+        specularBounce = new boolean[count];
+        scatterPdf = new double[count];
+        emitted = new Vec3[count];
+        scattered = new boolean[count];
+        hitSpecular = new boolean[count];
+        lightSampled = new boolean[count];
+        lightBsdfPdf = new double[count];
+        nextScatterPdf = new double[count];
+        queue = new int[count];
+        nextQueue = new int[count];
+        bucketed = new int[count];
+        kinds = new int[count];
+    }
+}
@@ -0,0 +1,277 @@
+package distributed;
+
+import core.Camera;
+import rendering.Framebuffer;
+import rendering.ImageWriter;
+import rendering.Tile;
+import rendering.TileScheduler;
+import scene.Scene;
+import scene.SceneLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Renders a scene file across several worker processes, on this machine or others:
+
+        java -cp out distributed.RenderCoordinator <scene.json> [port] [local workers]
+        java -cp out distributed.RenderWorker <coordinator host> <port> [threads]     (on every other machine)
+
+    The coordinator cuts the frame into the camera's tiles and listens for workers. Each worker that connects
+    gets the scene once, as the binary scene cache, and then a few more tiles than it has threads, so it never
+    waits for work; every finished tile is answered with the next one. Workers may join at any time.
+
+        coordinator:  pending tiles ──→ worker 1 (tiles in flight) ──→ float results ──→ framebuffer
+                                   ──→ worker 2 (tiles in flight) ──→      ...
+                                   ←── tiles of a worker whose connection broke or that stopped answering
+
+    A worker that disconnects, or sends nothing for tileTimeout while it has tiles, is dropped and its
+    unfinished tiles go back to the front of the queue for the others. Every pixel is seeded the same way as
+    in Camera.optimizedRender, so the image does not depend on which worker rendered what.
+ */
+public class RenderCoordinator {
+    // Tiles a worker gets beyond one per thread, so it has the next one ready when a thread finishes
+    private static final int EXTRA_TILES_IN_FLIGHT = 2;
+
+    private final Path sceneFile;
+    private final int port;
+    private int localWorkers = 0;
+    private Duration tileTimeout = Duration.ofMinutes(5);
+
+    private Path sceneCache;
+    private List<Tile> tiles;
+    private BlockingDeque<Integer> pending;
+    private boolean[] finished;
+    private CountDownLatch remaining;
+    private Framebuffer.Layer pixels;
+    private Framebuffer.Layer sampleCounts;
+    private final AtomicInteger workerIds = new AtomicInteger();
+    private final List<Thread> sessions = new CopyOnWriteArrayList<>();
+
+    public RenderCoordinator(Path sceneFile, int port) {
+        this.sceneFile = sceneFile;
+        this.port = port;
+    }
+
+    public int getLocalWorkers() {
+        return localWorkers;
+    }
+
+    // Worker processes to start on this machine, for a single machine or for testing; they share its cores
+    public void setLocalWorkers(int localWorkers) {
+        this.localWorkers = localWorkers;
+    }
+
+    public Duration getTileTimeout() {
+        return tileTimeout;
+    }
+
+    // How long a worker with tiles in flight may stay silent before its tiles are given to the others
+    public void setTileTimeout(Duration tileTimeout) {
+        this.tileTimeout = tileTimeout;
+    }
+
+    public void render() throws IOException, InterruptedException {
+        System.out.println("Ray Tracer started (distributed)..");
+        Scene scene = SceneLoader.load(sceneFile);
+        sceneCache = SceneLoader.cachePath(sceneFile);
+        if (!Files.exists(sceneCache)) {
+            throw new IOException("No scene cache at " + sceneCache + " to send to the workers");
+        }
+
+        Camera camera = scene.getCamera();
+        camera.initialize();
+        int width = camera.imageWidth;
+        int height = camera.getImageHeight();
+
+        Framebuffer frame = new Framebuffer(width, height);
+        pixels = frame.addLayer(Framebuffer.COLOR, 3);
+        sampleCounts = frame.addLayer(Framebuffer.SAMPLES, 1);
+
+        tiles = new TileScheduler(width, height, camera.getTileSize(), camera.getTileOrder()).getTiles();
+        pending = new LinkedBlockingDeque<>();
+        for (int i = 0; i < tiles.size(); i++) {
+            pending.add(i);
+        }
+        finished = new boolean[tiles.size()];
+        remaining = new CountDownLatch(tiles.size());
+
+        List<Process> processes = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(port)) {
+            Thread acceptor = new Thread(() -> acceptWorkers(server), "render-coordinator");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            System.out.println("Waiting for workers on port " + server.getLocalPort());
+
+            int threadsPerWorker = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(localWorkers, 1));
+            for (int i = 0; i < localWorkers; i++) {
+                processes.add(startLocalWorker(server.getLocalPort(), threadsPerWorker));
+            }
+
+            long lastReport = tiles.size();
+            while (!remaining.await(1, TimeUnit.SECONDS)) {
+                long left = remaining.getCount();
+                if (left != lastReport) {
+                    System.err.println("Tiles remaining: " + left);
+                    lastReport = left;
+                }
+            }
+            // Let every worker hear that the work is done before the connections go away
+            for (Thread session : sessions) {
+                session.join(10_000);
+            }
+        } finally {
+            for (Process process : processes) {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            }
+        }
+
+        ImageWriter.write(camera.getOutputPath(), pixels, 1);
+        System.err.println("Done.");
+        System.out.println("Image created at: " + camera.getOutputPath().toAbsolutePath());
+    }
+
+    private void acceptWorkers(ServerSocket server) {
+        while (true) {
+            try {
+                Socket socket = server.accept();
+                int id = workerIds.incrementAndGet();
+                Thread session = new Thread(() -> serveWorker(socket, id), "render-worker-" + id);
+                session.setDaemon(true);
+                sessions.add(session);
+                session.start();
+            } catch (SocketException e) {
+                return;     // the server socket was closed, the render is over
+            } catch (IOException e) {
+                System.err.println("Could not accept a worker: " + e.getMessage());
+            }
+        }
+    }
+
+    // Feeds one worker tiles until the frame is done, and requeues its unfinished tiles if it fails
+    private void serveWorker(Socket socket, int id) {
+        List<Integer> inFlight = new ArrayList<>();
+        String name = "Worker " + id + " (" + socket.getRemoteSocketAddress() + ")";
+        try (Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            connection.setSoTimeout((int) Math.min(tileTimeout.toMillis(), Integer.MAX_VALUE));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+
+            int threads = RenderProtocol.readHello(in);
+            out.writeLong(Files.size(sceneCache));
+            Files.copy(sceneCache, out);
+            out.flush();
+            System.out.println(name + " joined with " + threads + " threads");
+
+            int window = threads + EXTRA_TILES_IN_FLIGHT;
+            int maxPixels = 0;
+            for (Tile tile : tiles) {
+                maxPixels = Math.max(maxPixels, tile.pixelCount());
+            }
+            float[] color = new float[3 * maxPixels];
+            float[] counts = new float[maxPixels];
+
+            while (remaining.getCount() > 0) {
+                Integer next;
+                while (inFlight.size() < window && (next = pending.poll()) != null) {
+                    RenderProtocol.writeTile(out, next, tiles.get(next));
+                    inFlight.add(next);
+                }
+                out.flush();
+
+                if (inFlight.isEmpty()) {
+                    // Nothing left to hand out, but a failing worker may still give some tiles back
+                    next = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (next != null) {
+                        pending.addFirst(next);
+                    }
+                    continue;
+                }
+
+                int tileId = in.readInt();
+                if (!inFlight.remove((Integer) tileId)) {
+                    throw new IOException("sent tile " + tileId + ", which it was not given");
+                }
+                RenderProtocol.readResult(in, color, counts);
+                store(tileId, color, counts);
+            }
+            out.writeInt(RenderProtocol.END_OF_WORK);
+            out.flush();
+        } catch (IOException e) {
+            requeue(inFlight);
+            String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            System.err.println(name + " lost (" + reason + "), " + inFlight.size() + " tiles handed back");
+        } catch (InterruptedException e) {
+            requeue(inFlight);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void store(int tileId, float[] color, float[] counts) {
+        if (finished[tileId]) {
+            return;
+        }
+        Tile tile = tiles.get(tileId);
+        int i = 0;
+        for (int row = tile.y0; row < tile.y1; row++) {
+            for (int column = tile.x0; column < tile.x1; column++) {
+                for (int channel = 0; channel < 3; channel++) {
+                    pixels.set(column, row, channel, color[3 * i + channel]);
+                }
+                sampleCounts.set(column, row, 0, counts[i]);
+                i++;
+            }
+        }
+        finished[tileId] = true;
+        remaining.countDown();
+    }
+
+    // Puts a failed worker's unfinished tiles at the front of the queue, in their original order
+    private synchronized void requeue(List<Integer> inFlight) {
+        for (int i = inFlight.size() - 1; i >= 0; i--) {
+            if (!finished[inFlight.get(i)]) {
+                pending.addFirst(inFlight.get(i));
+            }
+        }
+    }
+
+    private static Process startLocalWorker(int port, int threads) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), RenderWorker.class.getName(),
+                "localhost", String.valueOf(port), String.valueOf(threads))
+                .inheritIO()
+                .start();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: RenderCoordinator <scene.json> [port] [local workers]");
+            System.exit(2);
+        }
+        RenderCoordinator coordinator = new RenderCoordinator(Paths.get(args[0]),
+                args.length > 1 ? Integer.parseInt(args[1]) : 7070);
+        coordinator.setLocalWorkers(args.length > 2 ? Integer.parseInt(args[2]) : 0);
+        coordinator.render();
+    }
+}
@@ -0,0 +1,87 @@
+package distributed;
+
+import rendering.Tile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+    What the coordinator and its workers say to each other over one TCP connection per worker:
+
+        worker → coordinator   hello:   magic, version, number of render threads
+        coordinator → worker   scene:   byte count, then the scene cache file (see scene.SceneCache)
+        coordinator → worker   tile:    tile id, x0, y0, x1, y1          (any number, while the worker is busy)
+        worker → coordinator   result:  tile id, pixel count, r g b floats per pixel, then a sample count per pixel
+        coordinator → worker   done:    END_OF_WORK as the tile id
+
+    Results come back in whatever order the tiles finish. Everything is big-endian, as DataOutputStream writes it.
+ */
+final class RenderProtocol {
+    static final int MAGIC = 0x52544457;    // "RTDW"
+    static final int VERSION = 1;
+    static final int END_OF_WORK = -1;
+
+    private RenderProtocol() {
+    }
+
+    static void writeHello(DataOutputStream out, int threads) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(threads);
+        out.flush();
+    }
+
+    // The worker's thread count
+    static int readHello(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a render worker");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("worker speaks protocol version " + version + ", expected " + VERSION);
+        }
+        return in.readInt();
+    }
+
+    static void writeTile(DataOutputStream out, int id, Tile tile) throws IOException {
+        out.writeInt(id);
+        out.writeInt(tile.x0);
+        out.writeInt(tile.y0);
+        out.writeInt(tile.x1);
+        out.writeInt(tile.y1);
+    }
+
+    // Reads the rest of a tile message after its id
+    static Tile readTile(DataInputStream in) throws IOException {
+        return new Tile(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+    }
+
+    static void writeResult(DataOutputStream out, int id, float[] color, float[] sampleCounts, int pixels) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16 * pixels);
+        buffer.asFloatBuffer().put(color, 0, 3 * pixels);
+        buffer.position(12 * pixels);
+        buffer.asFloatBuffer().put(sampleCounts, 0, pixels);
+
+        out.writeInt(id);
+        out.writeInt(pixels);
+        out.write(buffer.array());
+        out.flush();
+    }
+
+    // Reads the rest of a result after its id into color and sampleCounts, returns the pixel count
+    static int readResult(DataInputStream in, float[] color, float[] sampleCounts) throws IOException {
+        int pixels = in.readInt();
+        if (pixels < 0 || pixels > sampleCounts.length) {
+            throw new IOException("result with " + pixels + " pixels, no tile is that large");
+        }
+        byte[] bytes = new byte[16 * pixels];
+        in.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.asFloatBuffer().get(color, 0, 3 * pixels);
+        buffer.position(12 * pixels);
+        buffer.asFloatBuffer().get(sampleCounts, 0, pixels);
+        return pixels;
+    }
+}
@@ -0,0 +1,125 @@
+package distributed;
+
+import core.Camera;
+import rendering.Tile;
+import scene.Scene;
+import scene.SceneLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Renders tiles for a distributed.RenderCoordinator:
+
+        java -cp out distributed.RenderWorker <coordinator host> <port> [threads]
+
+    The worker connects, receives the scene once, and then renders every tile it is sent on its own threads,
+    sending each one back as soon as it is done. It exits when the coordinator has no more work.
+ */
+public class RenderWorker {
+    private final String host;
+    private final int port;
+    private final int threads;
+
+    public RenderWorker(String host, int port, int threads) {
+        this.host = host;
+        this.port = port;
+        this.threads = threads;
+    }
+
+    public void run() throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            RenderProtocol.writeHello(out, threads);
+            Scene scene = receiveScene(in);
+            Camera camera = scene.getCamera();
+            camera.initialize();
+            System.out.println("Worker connected to " + host + ":" + port + ", " + scene.getObjectCount() + " objects, "
+                    + threads + " threads");
+
+            int tiles = 0;
+            int id;
+            while ((id = in.readInt()) != RenderProtocol.END_OF_WORK) {
+                int tileId = id;
+                Tile tile = RenderProtocol.readTile(in);
+                pool.execute(() -> {
+                    float[] color = new float[3 * tile.pixelCount()];
+                    float[] sampleCounts = new float[tile.pixelCount()];
+                    try {
+                        camera.renderTile(scene.getWorld(), tile, color, sampleCounts);
+                        synchronized (out) {
+                            RenderProtocol.writeResult(out, tileId, color, sampleCounts, tile.pixelCount());
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // Dropping the connection makes the coordinator hand this worker's tiles to the others
+                        System.err.println("Tile " + tileId + " failed: " + e);
+                        closeQuietly(socket);
+                    }
+                });
+                tiles++;
+            }
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            System.out.println("Worker done, rendered " + tiles + " tiles");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Copies the scene cache to a temporary file, loads it from there and deletes the file again
+    private static Scene receiveScene(DataInputStream in) throws IOException {
+        long size = in.readLong();
+        Path file = Files.createTempFile("raytracer-scene", ".cache");
+        try {
+            try (OutputStream copy = Files.newOutputStream(file)) {
+                copyBytes(in, copy, size);
+            }
+            return SceneLoader.loadCache(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void copyBytes(InputStream in, OutputStream out, long size) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        while (size > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, size));
+            if (read < 0) {
+                throw new IOException("connection closed while receiving the scene");
+            }
+            out.write(buffer, 0, read);
+            size -= read;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: RenderWorker <coordinator host> <port> [threads]");
+            System.exit(2);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        new RenderWorker(args[0], Integer.parseInt(args[1]), threads).run();
+    }
+}
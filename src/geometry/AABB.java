@@ -0,0 +1,104 @@
+package geometry;
+
+import core.Interval;
+import core.Ray;
+import math.Vec3;
+
+/*
+    Axis-aligned bounding box, stored as one interval per axis.
+    A ray hits the box if the t ranges where it is inside each pair of slabs (x, y and z) overlap.
+
+            y
+            |   ┌─────────┐
+            |   │         │  ← ray enters the x slab, then the y slab,
+            |   │    box  │    the box is hit only while it is inside both
+            |   └─────────┘
+            └──────────────── x
+ */
+public class AABB {
+    private Interval x;
+    private Interval y;
+    private Interval z;
+
+    public static final AABB EMPTY = new AABB(Interval.EMPTY, Interval.EMPTY, Interval.EMPTY);
+
+    public AABB(Interval x, Interval y, Interval z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        padToMinimums();
+    }
+
+    // Treat the two points a and b as extrema for the bounding box
+    public AABB(Vec3 a, Vec3 b) {
+        this(
+                new Interval(Math.min(a.x(), b.x()), Math.max(a.x(), b.x())),
+                new Interval(Math.min(a.y(), b.y()), Math.max(a.y(), b.y())),
+                new Interval(Math.min(a.z(), b.z()), Math.max(a.z(), b.z()))
+        );
+    }
+
+    // Tightest box enclosing both boxes
+    public AABB(AABB box0, AABB box1) {
+        this(
+                new Interval(box0.x, box1.x),
+                new Interval(box0.y, box1.y),
+                new Interval(box0.z, box1.z)
+        );
+    }
+
+    public Interval axisInterval(int n) {
+        if (n == 1) return y;
+        if (n == 2) return z;
+        return x;
+    }
+
+    // Index of the axis with the largest extent (0 = x, 1 = y, 2 = z)
+    public int longestAxis() {
+        if (x.size() > y.size()) {
+            return x.size() > z.size() ? 0 : 2;
+        }
+        return y.size() > z.size() ? 1 : 2;
+    }
+
+    public double centroid(int axis) {
+        Interval i = axisInterval(axis);
+        return 0.5 * (i.getMin() + i.getMax());
+    }
+
+    public boolean hit(Ray r, Interval rayT) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double tMin = rayT.getMin();
+        double tMax = rayT.getMax();
+
+        for (int axis = 0; axis < 3; axis++) {
+            Interval ax = axisInterval(axis);
+            double adInv = 1.0 / direction.get(axis);
+
+            double t0 = (ax.getMin() - origin.get(axis)) * adInv;
+            double t1 = (ax.getMax() - origin.get(axis)) * adInv;
+
+            if (t0 < t1) {
+                if (t0 > tMin) tMin = t0;
+                if (t1 < tMax) tMax = t1;
+            } else {
+                if (t1 > tMin) tMin = t1;
+                if (t0 < tMax) tMax = t0;
+            }
+
+            if (tMax <= tMin) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Flat primitives (or a point) would give a zero-width slab, so give every axis a small thickness
+    private void padToMinimums() {
+        double delta = 0.0001;
+        if (x.size() >= 0 && x.size() < delta) x = x.expand(delta);
+        if (y.size() >= 0 && y.size() < delta) y = y.expand(delta);
+        if (z.size() >= 0 && z.size() < delta) z = z.expand(delta);
+    }
+}
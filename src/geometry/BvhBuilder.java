@@ -0,0 +1,350 @@
+package geometry;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/*
+    Builds a bounding volume hierarchy straight into flat arrays, for FlatBvh and anything else that wants one.
+
+    Input is one box per primitive (minX, minY, minZ, maxX, maxY, maxZ packed in a double[]).
+    Output is a depth-first list of nodes:
+        nodeBounds[6 * n ..]   the node's box
+        nodeData[3 * n]        leaf: index of its first primitive in primIndices, interior: index of its second child
+        nodeData[3 * n + 1]    leaf: number of primitives, interior: 0
+        nodeData[3 * n + 2]    interior: split axis (used to visit the nearer child first)
+    The first child of an interior node is always the next node (n + 1), so only the second child needs storing.
+    A leaf never holds more than 2 * maxLeafSize primitives.
+
+    Splits use the surface area heuristic over a fixed number of bins along the longest centroid axis:
+    the cost of a split is roughly (area of left box * primitives on the left) + (area of right box * primitives on the right),
+    because the chance of a ray hitting a box is proportional to its surface area.
+
+    Large builds run in parallel: once a range is split, its two halves are built as separate fork/join tasks.
+    A subtree over k primitives never needs more than 2k - 1 nodes, so each half gets that many node slots
+    reserved up front and the tasks never touch each other's nodes. The slots a subtree does not use leave gaps,
+    which a final pass closes by renumbering the nodes depth first, so the layout is exactly the sequential one.
+ */
+class BvhBuilder {
+    private static final int BIN_COUNT = 12;
+    // Ranges with at least this many primitives build their two halves in parallel
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private final double[] primBounds;
+    private final double[] centroids;
+    private final int maxLeafSize;
+
+    int[] primIndices;
+    double[] nodeBounds;
+    int[] nodeData;
+    int nodeCount;
+    int maxDepth;
+
+    BvhBuilder(double[] primBounds, int primCount, int maxLeafSize) {
+        if (primCount <= 0) {
+            throw new IllegalArgumentException("Cannot build a BVH over an empty list of primitives");
+        }
+        this.primBounds = primBounds;
+        this.maxLeafSize = maxLeafSize;
+
+        this.centroids = new double[3 * primCount];
+        this.primIndices = new int[primCount];
+        for (int i = 0; i < primCount; i++) {
+            primIndices[i] = i;
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[3 * i + axis] = 0.5 * (primBounds[6 * i + axis] + primBounds[6 * i + 3 + axis]);
+            }
+        }
+
+        // A binary tree with n leaves or fewer never has more than 2n - 1 nodes
+        int maxNodes = 2 * primCount - 1;
+        this.nodeBounds = new double[6 * maxNodes];
+        this.nodeData = new int[3 * maxNodes];
+
+        if (primCount >= PARALLEL_THRESHOLD) {
+            new BuildTask(0, primCount, 0).invoke();
+            finish(true);
+        } else {
+            nodeCount = build(0, primCount, 0);
+            finish(false);
+        }
+    }
+
+    private final class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int node;
+
+        BuildTask(int start, int end, int node) {
+            this.start = start;
+            this.end = end;
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start < PARALLEL_THRESHOLD) {
+                build(start, end, node);
+                return;
+            }
+            int mid = split(node, start, end);
+            if (mid < 0) {
+                return;
+            }
+            // The first half may use up to 2 * (mid - start) - 1 nodes after this one
+            int secondChild = node + 2 * (mid - start);
+            nodeData[3 * node] = secondChild;
+            invokeAll(new BuildTask(start, mid, node + 1), new BuildTask(mid, end, secondChild));
+        }
+    }
+
+    // Builds the subtree over [start, end) with its root at node and returns the first node after it
+    private int build(int start, int end, int node) {
+        int mid = split(node, start, end);
+        if (mid < 0) {
+            return node + 1;
+        }
+        int secondChild = build(start, mid, node + 1);
+        nodeData[3 * node] = secondChild;
+        return build(mid, end, secondChild);
+    }
+
+    /*
+        Fills in the node's box and either makes it a leaf (returns -1) or partitions [start, end) for its
+        two children and returns where the second one starts. The caller links the second child.
+     */
+    private int split(int node, int start, int end) {
+        double[] cMin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] cMax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        int b = 6 * node;
+        for (int axis = 0; axis < 3; axis++) {
+            nodeBounds[b + axis] = Double.POSITIVE_INFINITY;
+            nodeBounds[b + 3 + axis] = Double.NEGATIVE_INFINITY;
+        }
+
+        for (int i = start; i < end; i++) {
+            int p = primIndices[i];
+            for (int axis = 0; axis < 3; axis++) {
+                nodeBounds[b + axis] = Math.min(nodeBounds[b + axis], primBounds[6 * p + axis]);
+                nodeBounds[b + 3 + axis] = Math.max(nodeBounds[b + 3 + axis], primBounds[6 * p + 3 + axis]);
+                cMin[axis] = Math.min(cMin[axis], centroids[3 * p + axis]);
+                cMax[axis] = Math.max(cMax[axis], centroids[3 * p + axis]);
+            }
+        }
+
+        int count = end - start;
+        int axis = longestAxis(cMin, cMax);
+
+        if (count <= maxLeafSize) {
+            makeLeaf(node, start, count);
+            return -1;
+        }
+
+        int mid;
+        if (cMax[axis] == cMin[axis]) {
+            // All centroids in one spot means no split can separate them; halve the range anyway if the leaf would be too big
+            if (count <= 2 * maxLeafSize) {
+                makeLeaf(node, start, count);
+                return -1;
+            }
+            mid = start + count / 2;
+        } else {
+            mid = sahPartition(node, start, end, axis, cMin[axis], cMax[axis]);
+            if (mid < 0) {
+                makeLeaf(node, start, count);
+                return -1;
+            }
+        }
+
+        nodeData[3 * node + 1] = 0;
+        nodeData[3 * node + 2] = axis;
+        return mid;
+    }
+
+    /*
+        Walks the tree depth first, first child before second, to find maxDepth. With renumber it also
+        copies every node to its position in that order, which closes the gaps a parallel build leaves.
+     */
+    private void finish(boolean renumber) {
+        double[] bounds = renumber ? new double[nodeBounds.length] : null;
+        int[] data = renumber ? new int[nodeData.length] : null;
+
+        // Pending nodes with their depth, and for second children the new number of the parent to link
+        int[] pending = new int[3 * 64];
+        int top = 0;
+        pending[top++] = 0;
+        pending[top++] = 1;
+        pending[top++] = -1;
+        int next = 0;
+        maxDepth = 0;
+
+        while (top > 0) {
+            int parent = pending[--top];
+            int depth = pending[--top];
+            int old = pending[--top];
+            maxDepth = Math.max(maxDepth, depth);
+
+            int node = old;
+            if (renumber) {
+                node = next++;
+                System.arraycopy(nodeBounds, 6 * old, bounds, 6 * node, 6);
+                System.arraycopy(nodeData, 3 * old, data, 3 * node, 3);
+                if (parent >= 0) {
+                    data[3 * parent] = node;
+                }
+            }
+
+            if (nodeData[3 * old + 1] == 0) {
+                if (top + 6 > pending.length) {
+                    pending = Arrays.copyOf(pending, 2 * pending.length);
+                }
+                // Second child below the first, so the first is numbered (and finished) first
+                pending[top++] = nodeData[3 * old];
+                pending[top++] = depth + 1;
+                pending[top++] = node;
+                pending[top++] = old + 1;
+                pending[top++] = depth + 1;
+                pending[top++] = -1;
+            }
+        }
+
+        if (renumber) {
+            nodeBounds = bounds;
+            nodeData = data;
+            nodeCount = next;
+        }
+    }
+
+    /*
+        Drops the primitives of [start, end) into bins along the axis and evaluates every split between two bins.
+        Returns the index the range was partitioned at, or -1 when keeping a leaf is cheaper than any split.
+     */
+    private int sahPartition(int node, int start, int end, int axis, double cMin, double cMax) {
+        int[] binCounts = new int[BIN_COUNT];
+        double[] binBounds = new double[6 * BIN_COUNT];
+        for (int i = 0; i < BIN_COUNT; i++) {
+            resetBox(binBounds, i);
+        }
+
+        double scale = BIN_COUNT / (cMax - cMin);
+        for (int i = start; i < end; i++) {
+            int p = primIndices[i];
+            int bin = binIndex(centroids[3 * p + axis], cMin, scale);
+            binCounts[bin]++;
+            growBox(binBounds, bin, p);
+        }
+
+        // Sweep from the right so that the left sweep below can price each split in one pass
+        double[] rightArea = new double[BIN_COUNT];
+        int[] rightCount = new int[BIN_COUNT];
+        double[] box = new double[6];
+        resetBox(box, 0);
+        int running = 0;
+        for (int i = BIN_COUNT - 1; i > 0; i--) {
+            running += binCounts[i];
+            mergeBox(box, binBounds, i);
+            rightCount[i] = running;
+            rightArea[i] = surfaceArea(box);
+        }
+
+        int bestSplit = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        resetBox(box, 0);
+        running = 0;
+        for (int i = 0; i < BIN_COUNT - 1; i++) {
+            running += binCounts[i];
+            mergeBox(box, binBounds, i);
+            if (running == 0 || rightCount[i + 1] == 0) {
+                continue;
+            }
+            double cost = surfaceArea(box) * running + rightArea[i + 1] * rightCount[i + 1];
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestSplit = i;
+            }
+        }
+
+        if (bestSplit < 0) {
+            return -1;
+        }
+
+        // Traversing a node costs about as much as one primitive test, so compare against testing them all
+        int count = end - start;
+        double nodeArea = surfaceArea(nodeBounds, 6 * node);
+        double splitCost = nodeArea > 0 ? 1.0 + bestCost / nodeArea : 1.0;
+        if (count <= 2 * maxLeafSize && count <= splitCost) {
+            return -1;
+        }
+
+        int left = start;
+        int right = end - 1;
+        while (left <= right) {
+            int p = primIndices[left];
+            if (binIndex(centroids[3 * p + axis], cMin, scale) <= bestSplit) {
+                left++;
+            } else {
+                primIndices[left] = primIndices[right];
+                primIndices[right] = p;
+                right--;
+            }
+        }
+        return left;
+    }
+
+    private void makeLeaf(int node, int start, int count) {
+        nodeData[3 * node] = start;
+        nodeData[3 * node + 1] = count;
+        nodeData[3 * node + 2] = 0;
+    }
+
+    private static int binIndex(double centroid, double cMin, double scale) {
+        int bin = (int) ((centroid - cMin) * scale);
+        return Math.min(bin, BIN_COUNT - 1);
+    }
+
+    private static int longestAxis(double[] min, double[] max) {
+        double dx = max[0] - min[0];
+        double dy = max[1] - min[1];
+        double dz = max[2] - min[2];
+        if (dx > dy) {
+            return dx > dz ? 0 : 2;
+        }
+        return dy > dz ? 1 : 2;
+    }
+
+    private static void resetBox(double[] boxes, int i) {
+        for (int axis = 0; axis < 3; axis++) {
+            boxes[6 * i + axis] = Double.POSITIVE_INFINITY;
+            boxes[6 * i + 3 + axis] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    private void growBox(double[] boxes, int i, int prim) {
+        for (int axis = 0; axis < 3; axis++) {
+            boxes[6 * i + axis] = Math.min(boxes[6 * i + axis], primBounds[6 * prim + axis]);
+            boxes[6 * i + 3 + axis] = Math.max(boxes[6 * i + 3 + axis], primBounds[6 * prim + 3 + axis]);
+        }
+    }
+
+    private static void mergeBox(double[] box, double[] boxes, int i) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[axis] = Math.min(box[axis], boxes[6 * i + axis]);
+            box[3 + axis] = Math.max(box[3 + axis], boxes[6 * i + 3 + axis]);
+        }
+    }
+
+    private static double surfaceArea(double[] box) {
+        return surfaceArea(box, 0);
+    }
+
+    private static double surfaceArea(double[] box, int offset) {
+        double dx = box[offset + 3] - box[offset];
+        double dy = box[offset + 4] - box[offset + 1];
+        double dz = box[offset + 5] - box[offset + 2];
+        if (dx < 0 || dy < 0 || dz < 0) {
+            return 0;
+        }
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+}
@@ -0,0 +1,102 @@
+package geometry;
+
+import core.Interval;
+import core.Ray;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+    Bounding volume hierarchy: a binary tree of bounding boxes over the scene objects.
+    If a ray misses a node's box it cannot hit anything underneath it, so the whole subtree is skipped.
+    That turns the linear scan of geometry.HittableList into a walk down O(log n) levels.
+
+                    [ box of everything ]
+                     /                 \
+            [ left half ]           [ right half ]
+             /       \               /        \
+         sphere    sphere        sphere     sphere
+
+    Build: take the longest axis of the box around the objects' centroids, sort along that axis
+    and split at the median, so every level halves the number of objects.
+ */
+public class BvhNode implements Hittable {
+    private final Hittable left;
+    private final Hittable right;
+    private final AABB bbox;
+
+    public BvhNode(HittableList list) {
+        // Copy so that sorting does not reorder the caller's list
+        this(new ArrayList<>(list.getObjects()), 0, list.size());
+    }
+
+    public BvhNode(List<Hittable> objects, int start, int end) {
+        if (end - start <= 0) {
+            throw new IllegalArgumentException("Cannot build a BVH over an empty list of objects");
+        }
+
+        int axis = centroidBounds(objects, start, end).longestAxis();
+        int objectSpan = end - start;
+
+        if (objectSpan == 1) {
+            left = right = objects.get(start);
+        } else if (objectSpan == 2) {
+            left = objects.get(start);
+            right = objects.get(start + 1);
+        } else {
+            objects.subList(start, end).sort(Comparator.comparingDouble(o -> o.boundingBox().centroid(axis)));
+
+            int mid = start + objectSpan / 2;
+            left = new BvhNode(objects, start, mid);
+            right = new BvhNode(objects, mid, end);
+        }
+
+        bbox = new AABB(left.boundingBox(), right.boundingBox());
+    }
+
+    @Override
+    public boolean hit(Ray r, Interval rayT, HitRecord record) {
+        record.nodeVisits++;
+        if (!bbox.hit(r, rayT)) {
+            return false;
+        }
+
+        boolean hitLeft = left.hit(r, rayT, record);
+        // Only look for hits on the right that are closer than the one found on the left
+        boolean hitRight = right.hit(r, new Interval(rayT.getMin(), hitLeft ? record.t : rayT.getMax()), record);
+
+        return hitLeft || hitRight;
+    }
+
+    @Override
+    public boolean occluded(Ray r, Interval rayT) {
+        return bbox.hit(r, rayT) && (left.occluded(r, rayT) || right != left && right.occluded(r, rayT));
+    }
+
+    @Override
+    public AABB boundingBox() {
+        return bbox;
+    }
+
+    // Box around the object centers rather than the objects themselves, so big objects don't skew the split axis
+    private static AABB centroidBounds(List<Hittable> objects, int start, int end) {
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+        for (int i = start; i < end; i++) {
+            AABB box = objects.get(i).boundingBox();
+            for (int axis = 0; axis < 3; axis++) {
+                double c = box.centroid(axis);
+                min[axis] = Math.min(min[axis], c);
+                max[axis] = Math.max(max[axis], c);
+            }
+        }
+
+        return new AABB(
+                new Interval(min[0], max[0]),
+                new Interval(min[1], max[1]),
+                new Interval(min[2], max[2])
+        );
+    }
+}
@@ -0,0 +1,267 @@
+package geometry;
+
+import core.Interval;
+import core.Ray;
+import math.Vec3;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    A BVH laid out as flat primitive arrays instead of a tree of BvhNode objects.
+
+    geometry.BvhNode chases a pointer and makes a virtual hit() call for every node it visits.
+    Here all nodes sit next to each other in depth-first order (see geometry.BvhBuilder for the layout),
+    so the walk is one loop over array indices with a small int stack for the subtrees still to visit:
+
+        nodeBounds: [ n0 box | n1 box | n2 box | ... ]      6 doubles per node
+        nodeData:   [ n0 info | n1 info | n2 info | ... ]   3 ints per node
+
+    Only the leaves call into the objects themselves. The stack and the interval handed to the objects
+    are kept per thread, so tracing a ray does not allocate anything.
+ */
+public class FlatBvh implements Hittable {
+    private static final int MAX_LEAF_SIZE = 4;
+
+    private final Hittable[] primitives;
+    private final double[] nodeBounds;
+    private final int[] nodeData;
+    private final int stackSize;
+    private final AABB bbox;
+    private final ThreadLocal<TraversalState> traversalState;
+
+    private static final class TraversalState {
+        final int[] stack;
+        final Interval range = new Interval();
+        // Rays of a packet that entered the current leaf
+        boolean[] lanes = new boolean[0];
+
+        TraversalState(int stackSize) {
+            this.stack = new int[stackSize];
+        }
+
+        boolean[] lanes(int capacity) {
+            if (lanes.length < capacity) {
+                lanes = new boolean[capacity];
+            }
+            return lanes;
+        }
+    }
+
+    public FlatBvh(HittableList list) {
+        this(list.getObjects());
+    }
+
+    public FlatBvh(List<Hittable> objects) {
+        int count = objects.size();
+        double[] primBounds = new double[6 * count];
+        AABB bounds = AABB.EMPTY;
+
+        for (int i = 0; i < count; i++) {
+            AABB box = objects.get(i).boundingBox();
+            for (int axis = 0; axis < 3; axis++) {
+                primBounds[6 * i + axis] = box.axisInterval(axis).getMin();
+                primBounds[6 * i + 3 + axis] = box.axisInterval(axis).getMax();
+            }
+            bounds = new AABB(bounds, box);
+        }
+
+        BvhBuilder builder = new BvhBuilder(primBounds, count, MAX_LEAF_SIZE);
+
+        // Store the objects in leaf order so every leaf covers a contiguous run of the array
+        this.primitives = new Hittable[count];
+        for (int i = 0; i < count; i++) {
+            primitives[i] = objects.get(builder.primIndices[i]);
+        }
+
+        this.nodeBounds = trim(builder.nodeBounds, 6 * builder.nodeCount);
+        this.nodeData = trim(builder.nodeData, 3 * builder.nodeCount);
+        this.stackSize = builder.maxDepth + 1;
+        this.bbox = bounds;
+        this.traversalState = ThreadLocal.withInitial(() -> new TraversalState(stackSize));
+    }
+
+    @Override
+    public boolean hit(Ray r, Interval rayT, HitRecord record) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double ox = origin.x(), oy = origin.y(), oz = origin.z();
+        double invDx = 1.0 / direction.x(), invDy = 1.0 / direction.y(), invDz = 1.0 / direction.z();
+        // One bit per axis that the ray travels down
+        int negativeAxes = (invDx < 0 ? 1 : 0) | (invDy < 0 ? 2 : 0) | (invDz < 0 ? 4 : 0);
+
+        TraversalState state = traversalState.get();
+        int[] stack = state.stack;
+        Interval range = state.range;
+
+        double tMin = rayT.getMin();
+        double closestSoFar = rayT.getMax();
+        boolean hitAnything = false;
+        int visits = 0;
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            visits++;
+            int b = 6 * node;
+            double tx0 = (nodeBounds[b] - ox) * invDx, tx1 = (nodeBounds[b + 3] - ox) * invDx;
+            double ty0 = (nodeBounds[b + 1] - oy) * invDy, ty1 = (nodeBounds[b + 4] - oy) * invDy;
+            double tz0 = (nodeBounds[b + 2] - oz) * invDz, tz1 = (nodeBounds[b + 5] - oz) * invDz;
+
+            double tNear = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.max(Math.min(tz0, tz1), tMin));
+            double tFar = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.min(Math.max(tz0, tz1), closestSoFar));
+
+            if (tNear <= tFar) {
+                int d = 3 * node;
+                int primitiveCount = nodeData[d + 1];
+
+                if (primitiveCount > 0) {
+                    int first = nodeData[d];
+                    for (int i = first; i < first + primitiveCount; i++) {
+                        range.set(tMin, closestSoFar);
+                        if (primitives[i].hit(r, range, record)) {
+                            hitAnything = true;
+                            closestSoFar = record.t;
+                        }
+                    }
+                } else {
+                    // Visit the child on the ray's side of the split first, it is more likely to hold the closest hit
+                    if ((negativeAxes >> nodeData[d + 2] & 1) != 0) {
+                        stack[stackPtr++] = node + 1;
+                        node = nodeData[d];
+                    } else {
+                        stack[stackPtr++] = nodeData[d];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                break;
+            }
+            node = stack[--stackPtr];
+        }
+
+        record.nodeVisits += visits;
+        return hitAnything;
+    }
+
+    /*
+        The walk of hit for a whole packet: a node is visited when any active ray enters its box, and a leaf hands
+        its objects only the rays that entered it. The rays keep their own tMax, so a node that every ray has
+        already found something closer than is skipped just like in the single ray walk.
+     */
+    @Override
+    public void hit(RayPacket packet, boolean[] active) {
+        TraversalState state = traversalState.get();
+        int[] stack = state.stack;
+        boolean[] lanes = state.lanes(packet.getCapacity());
+        int negativeAxes = packet.negativeAxes(active);
+        int visits = 0;
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            visits++;
+            if (packet.entersBox(nodeBounds, 6 * node, active)) {
+                int d = 3 * node;
+                int primitiveCount = nodeData[d + 1];
+
+                if (primitiveCount > 0) {
+                    // Taken before the objects run box tests of their own on the packet
+                    packet.enteredLanes(active, lanes);
+                    int first = nodeData[d];
+                    for (int i = first; i < first + primitiveCount; i++) {
+                        primitives[i].hit(packet, lanes);
+                    }
+                } else {
+                    if ((negativeAxes >> nodeData[d + 2] & 1) != 0) {
+                        stack[stackPtr++] = node + 1;
+                        node = nodeData[d];
+                    } else {
+                        stack[stackPtr++] = nodeData[d];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                break;
+            }
+            node = stack[--stackPtr];
+        }
+
+        packet.nodeVisits += visits;
+    }
+
+    // Same walk as hit, but it stops at the first object that blocks the ray and needs no closest-hit order
+    @Override
+    public boolean occluded(Ray r, Interval rayT) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double ox = origin.x(), oy = origin.y(), oz = origin.z();
+        double invDx = 1.0 / direction.x(), invDy = 1.0 / direction.y(), invDz = 1.0 / direction.z();
+
+        int[] stack = traversalState.get().stack;
+        double tMin = rayT.getMin();
+        double tMax = rayT.getMax();
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            int b = 6 * node;
+            double tx0 = (nodeBounds[b] - ox) * invDx, tx1 = (nodeBounds[b + 3] - ox) * invDx;
+            double ty0 = (nodeBounds[b + 1] - oy) * invDy, ty1 = (nodeBounds[b + 4] - oy) * invDy;
+            double tz0 = (nodeBounds[b + 2] - oz) * invDz, tz1 = (nodeBounds[b + 5] - oz) * invDz;
+
+            double tNear = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.max(Math.min(tz0, tz1), tMin));
+            double tFar = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.min(Math.max(tz0, tz1), tMax));
+
+            if (tNear <= tFar) {
+                int d = 3 * node;
+                int primitiveCount = nodeData[d + 1];
+
+                if (primitiveCount > 0) {
+                    int first = nodeData[d];
+                    for (int i = first; i < first + primitiveCount; i++) {
+                        if (primitives[i].occluded(r, rayT)) {
+                            return true;
+                        }
+                    }
+                } else {
+                    stack[stackPtr++] = nodeData[d];
+                    node = node + 1;
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                return false;
+            }
+            node = stack[--stackPtr];
+        }
+    }
+
+    @Override
+    public AABB boundingBox() {
+        return bbox;
+    }
+
+    public int size() {
+        return primitives.length;
+    }
+
+    public int nodeCount() {
+        return nodeData.length / 3;
+    }
+
+    private static double[] trim(double[] a, int length) {
+        return a.length == length ? a : Arrays.copyOf(a, length);
+    }
+
+    private static int[] trim(int[] a, int length) {
+        return a.length == length ? a : Arrays.copyOf(a, length);
+    }
+}
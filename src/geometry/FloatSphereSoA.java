@@ -0,0 +1,513 @@
+package geometry;
+
+import core.Interval;
+import core.Ray;
+import material.Material;
+import math.Precision;
+import math.Vec3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    geometry.SphereSoA in float: the same arrays, BVH and two-pass leaf test, with the centers, radii, motions
+    and node boxes stored as floats and the discriminants and roots computed in float arithmetic. That halves
+    the memory every sphere and node takes. It does not make rendering faster yet: the node boxes are still
+    tested in double, and the JIT doesn't compile the float loop of pass 1 to wider SIMD code than the double
+    one, so benchmark.PrecisionBenchmark renders a few percent to 20% slower with float than with double.
+
+    Rays stay double. A leaf test rounds the ray to float once; node boxes are tested in double on the float
+    bounds, like geometry.TriangleMesh does. Every box is grown by the rounding of its sphere's float values
+    before it is rounded outwards, so it still holds the sphere the float test sees.
+
+    Float leaves a few digits where double left nine, so the roots come from the form of the quadratic that
+    does not cancel,
+
+        q = h + sign(h) √(h² - a c),   roots q / a and c / q
+
+    and hits are filled in with Precision.FLOAT (see HitRecord.setSphereHit), so rays leaving a sphere start
+    far enough off it for the float test. Scene files don't offer it until it renders faster than double;
+    build one in code in place of a SphereSoA, as benchmark.PrecisionBenchmark does.
+ */
+public class FloatSphereSoA implements Hittable {
+    private static final int MAX_LEAF_SIZE = 8;
+
+    private final float[] centerX;
+    private final float[] centerY;
+    private final float[] centerZ;
+    private final float[] radius;
+    private final float[] motionX;
+    private final float[] motionY;
+    private final float[] motionZ;
+    private final int[] materialIndex;
+    private final Material[] materials;
+
+    private final float[] nodeBounds;
+    private final int[] nodeData;
+    private final AABB bbox;
+    private final ThreadLocal<TraversalState> traversalState;
+
+    private static final class TraversalState {
+        final int[] stack;
+        final float[] discriminant = new float[2 * MAX_LEAF_SIZE];
+        final float[] halfB = new float[2 * MAX_LEAF_SIZE];
+        final float[] c = new float[2 * MAX_LEAF_SIZE];
+        // The same per ray of a packet, with every ray rounded to float once, the rays that entered the current
+        // leaf and each ray's closest sphere
+        float[] laneDiscriminant = new float[0];
+        float[] laneHalfB = new float[0];
+        float[] laneC = new float[0];
+        float[] originX = new float[0], originY = new float[0], originZ = new float[0];
+        float[] directionX = new float[0], directionY = new float[0], directionZ = new float[0];
+        float[] time = new float[0];
+        boolean[] lanes = new boolean[0];
+        int[] closest = new int[0];
+
+        TraversalState(int stackSize) {
+            this.stack = new int[stackSize];
+        }
+
+        void fitPacket(int capacity) {
+            if (lanes.length < capacity) {
+                laneDiscriminant = new float[capacity];
+                laneHalfB = new float[capacity];
+                laneC = new float[capacity];
+                originX = new float[capacity];
+                originY = new float[capacity];
+                originZ = new float[capacity];
+                directionX = new float[capacity];
+                directionY = new float[capacity];
+                directionZ = new float[capacity];
+                time = new float[capacity];
+                lanes = new boolean[capacity];
+                closest = new int[capacity];
+            }
+        }
+    }
+
+    public FloatSphereSoA(HittableList list) {
+        this(SphereSoA.spheresOf(list));
+    }
+
+    public FloatSphereSoA(List<Sphere> spheres) {
+        int count = spheres.size();
+        boolean moving = spheres.stream().anyMatch(Sphere::isMoving);
+        float[] cx = new float[count], cy = new float[count], cz = new float[count], r = new float[count];
+        float[] mx = new float[count], my = new float[count], mz = new float[count];
+
+        // Boxes of the float spheres over their whole path, grown by the rounding of the float test's centers
+        double[] primBounds = new double[6 * count];
+        for (int i = 0; i < count; i++) {
+            Sphere s = spheres.get(i);
+            cx[i] = (float) s.getCenter().x;
+            cy[i] = (float) s.getCenter().y;
+            cz[i] = (float) s.getCenter().z;
+            r[i] = (float) s.getRadius();
+            if (s.isMoving()) {
+                mx[i] = (float) s.getMotion().x;
+                my[i] = (float) s.getMotion().y;
+                mz[i] = (float) s.getMotion().z;
+            }
+            double[] c = {cx[i], cy[i], cz[i]};
+            double[] m = {mx[i], my[i], mz[i]};
+            double margin = Precision.FLOAT.gamma(3) * (Math.max(Math.abs(c[0]), Math.max(Math.abs(c[1]), Math.abs(c[2])))
+                    + Math.max(Math.abs(m[0]), Math.max(Math.abs(m[1]), Math.abs(m[2]))) + r[i]);
+            for (int axis = 0; axis < 3; axis++) {
+                primBounds[6 * i + axis] = Math.min(c[axis], c[axis] + m[axis]) - r[i] - margin;
+                primBounds[6 * i + 3 + axis] = Math.max(c[axis], c[axis] + m[axis]) + r[i] + margin;
+            }
+        }
+
+        BvhBuilder builder = new BvhBuilder(primBounds, count, MAX_LEAF_SIZE);
+
+        centerX = new float[count];
+        centerY = new float[count];
+        centerZ = new float[count];
+        radius = new float[count];
+        materialIndex = new int[count];
+        motionX = moving ? new float[count] : null;
+        motionY = moving ? new float[count] : null;
+        motionZ = moving ? new float[count] : null;
+
+        // Many spheres share a material, store each distinct one once
+        Map<Material, Integer> materialTable = new IdentityHashMap<>();
+        List<Material> materialList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int source = builder.primIndices[i];
+            centerX[i] = cx[source];
+            centerY[i] = cy[source];
+            centerZ[i] = cz[source];
+            radius[i] = r[source];
+            if (moving) {
+                motionX[i] = mx[source];
+                motionY[i] = my[source];
+                motionZ[i] = mz[source];
+            }
+            materialIndex[i] = materialTable.computeIfAbsent(spheres.get(source).getMaterial(), material -> {
+                materialList.add(material);
+                return materialList.size() - 1;
+            });
+        }
+        this.materials = materialList.toArray(new Material[0]);
+
+        // Rounded outwards so the float boxes still contain everything the double boxes did
+        this.nodeBounds = new float[6 * builder.nodeCount];
+        for (int n = 0; n < builder.nodeCount; n++) {
+            for (int axis = 0; axis < 3; axis++) {
+                nodeBounds[6 * n + axis] = Math.nextDown((float) builder.nodeBounds[6 * n + axis]);
+                nodeBounds[6 * n + 3 + axis] = Math.nextUp((float) builder.nodeBounds[6 * n + 3 + axis]);
+            }
+        }
+        this.nodeData = Arrays.copyOf(builder.nodeData, 3 * builder.nodeCount);
+        this.bbox = new AABB(
+                new Interval(nodeBounds[0], nodeBounds[3]),
+                new Interval(nodeBounds[1], nodeBounds[4]),
+                new Interval(nodeBounds[2], nodeBounds[5]));
+
+        int stackSize = builder.maxDepth + 1;
+        this.traversalState = ThreadLocal.withInitial(() -> new TraversalState(stackSize));
+    }
+
+    @Override
+    public boolean hit(Ray r, Interval rayT, HitRecord record) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double invDx = 1.0 / direction.x, invDy = 1.0 / direction.y, invDz = 1.0 / direction.z;
+        int negativeAxes = (invDx < 0 ? 1 : 0) | (invDy < 0 ? 2 : 0) | (invDz < 0 ? 4 : 0);
+        float ox = (float) origin.x, oy = (float) origin.y, oz = (float) origin.z;
+        float dx = (float) direction.x, dy = (float) direction.y, dz = (float) direction.z;
+        float a = dx * dx + dy * dy + dz * dz;
+        float time = (float) r.getTime();
+
+        TraversalState state = traversalState.get();
+        int[] stack = state.stack;
+        float[] discriminant = state.discriminant;
+        float[] halfB = state.halfB;
+        float[] cTerm = state.c;
+
+        double tMin = rayT.getMin();
+        double closestSoFar = rayT.getMax();
+        int closestSphere = -1;
+        int visits = 0;
+        int tests = 0;
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            visits++;
+            int b = 6 * node;
+            double tx0 = (nodeBounds[b] - origin.x) * invDx, tx1 = (nodeBounds[b + 3] - origin.x) * invDx;
+            double ty0 = (nodeBounds[b + 1] - origin.y) * invDy, ty1 = (nodeBounds[b + 4] - origin.y) * invDy;
+            double tz0 = (nodeBounds[b + 2] - origin.z) * invDz, tz1 = (nodeBounds[b + 5] - origin.z) * invDz;
+
+            double tNear = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.max(Math.min(tz0, tz1), tMin));
+            double tFar = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.min(Math.max(tz0, tz1), closestSoFar));
+
+            if (tNear <= tFar) {
+                int d = 3 * node;
+                int sphereCount = nodeData[d + 1];
+
+                if (sphereCount > 0) {
+                    int first = nodeData[d];
+                    tests += sphereCount;
+
+                    // Pass 1: discriminants for the whole leaf, no branches
+                    if (motionX == null) {
+                        for (int k = 0; k < sphereCount; k++) {
+                            int i = first + k;
+                            float ocx = centerX[i] - ox;
+                            float ocy = centerY[i] - oy;
+                            float ocz = centerZ[i] - oz;
+                            float h = dx * ocx + dy * ocy + dz * ocz;
+                            float c = ocx * ocx + ocy * ocy + ocz * ocz - radius[i] * radius[i];
+                            halfB[k] = h;
+                            cTerm[k] = c;
+                            discriminant[k] = h * h - a * c;
+                        }
+                    } else {
+                        for (int k = 0; k < sphereCount; k++) {
+                            int i = first + k;
+                            float ocx = centerX[i] + time * motionX[i] - ox;
+                            float ocy = centerY[i] + time * motionY[i] - oy;
+                            float ocz = centerZ[i] + time * motionZ[i] - oz;
+                            float h = dx * ocx + dy * ocy + dz * ocz;
+                            float c = ocx * ocx + ocy * ocy + ocz * ocz - radius[i] * radius[i];
+                            halfB[k] = h;
+                            cTerm[k] = c;
+                            discriminant[k] = h * h - a * c;
+                        }
+                    }
+
+                    // Pass 2: roots only where the ray can touch the sphere
+                    for (int k = 0; k < sphereCount; k++) {
+                        if (discriminant[k] < 0) {
+                            continue;
+                        }
+                        float root = closestRoot(halfB[k], discriminant[k], a, cTerm[k], tMin, closestSoFar);
+                        if (!Float.isNaN(root)) {
+                            closestSoFar = root;
+                            closestSphere = first + k;
+                        }
+                    }
+                } else {
+                    if ((negativeAxes >> nodeData[d + 2] & 1) != 0) {
+                        stack[stackPtr++] = node + 1;
+                        node = nodeData[d];
+                    } else {
+                        stack[stackPtr++] = nodeData[d];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                break;
+            }
+            node = stack[--stackPtr];
+        }
+
+        record.nodeVisits += visits;
+        record.primitiveTests += tests;
+        if (closestSphere < 0) {
+            return false;
+        }
+
+        fill(record, r, closestSoFar, closestSphere, time);
+        return true;
+    }
+
+    /*
+        The walk of hit for a whole packet, the way SphereSoA walks it: pass 1 takes one sphere at a time over
+        every ray of the packet, pass 2 solves only for the rays that entered the leaf. Each ray is rounded to
+        float with the same expressions as hit, so a packet finds exactly the hits its rays would find alone.
+     */
+    @Override
+    public void hit(RayPacket packet, boolean[] active) {
+        TraversalState state = traversalState.get();
+        state.fitPacket(packet.getCapacity());
+        int[] stack = state.stack;
+        float[] discriminant = state.laneDiscriminant;
+        float[] halfB = state.laneHalfB;
+        float[] cTerm = state.laneC;
+        float[] originX = state.originX, originY = state.originY, originZ = state.originZ;
+        float[] directionX = state.directionX, directionY = state.directionY, directionZ = state.directionZ;
+        float[] time = state.time;
+        boolean[] lanes = state.lanes;
+        int[] closest = state.closest;
+
+        int count = packet.count;
+        double[] tMin = packet.tMin, tMax = packet.tMax;
+        for (int k = 0; k < count; k++) {
+            originX[k] = (float) packet.originX[k];
+            originY[k] = (float) packet.originY[k];
+            originZ[k] = (float) packet.originZ[k];
+            directionX[k] = (float) packet.directionX[k];
+            directionY[k] = (float) packet.directionY[k];
+            directionZ[k] = (float) packet.directionZ[k];
+            time[k] = (float) packet.time[k];
+            closest[k] = -1;
+        }
+        int negativeAxes = packet.negativeAxes(active);
+        int visits = 0;
+        long tests = 0;
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            visits++;
+            if (packet.entersBox(nodeBounds, 6 * node, active)) {
+                int d = 3 * node;
+                int sphereCount = nodeData[d + 1];
+
+                if (sphereCount > 0) {
+                    packet.enteredLanes(active, lanes);
+                    int first = nodeData[d];
+                    for (int i = first; i < first + sphereCount; i++) {
+                        float cx = centerX[i], cy = centerY[i], cz = centerZ[i];
+                        float radiusSquared = radius[i] * radius[i];
+
+                        // Pass 1: this sphere's discriminant for every ray, no branches
+                        if (motionX == null) {
+                            for (int k = 0; k < count; k++) {
+                                float dx = directionX[k], dy = directionY[k], dz = directionZ[k];
+                                float ocx = cx - originX[k];
+                                float ocy = cy - originY[k];
+                                float ocz = cz - originZ[k];
+                                float h = dx * ocx + dy * ocy + dz * ocz;
+                                float c = ocx * ocx + ocy * ocy + ocz * ocz - radiusSquared;
+                                halfB[k] = h;
+                                cTerm[k] = c;
+                                discriminant[k] = h * h - (dx * dx + dy * dy + dz * dz) * c;
+                            }
+                        } else {
+                            float mx = motionX[i], my = motionY[i], mz = motionZ[i];
+                            for (int k = 0; k < count; k++) {
+                                float dx = directionX[k], dy = directionY[k], dz = directionZ[k];
+                                float ocx = cx + time[k] * mx - originX[k];
+                                float ocy = cy + time[k] * my - originY[k];
+                                float ocz = cz + time[k] * mz - originZ[k];
+                                float h = dx * ocx + dy * ocy + dz * ocz;
+                                float c = ocx * ocx + ocy * ocy + ocz * ocz - radiusSquared;
+                                halfB[k] = h;
+                                cTerm[k] = c;
+                                discriminant[k] = h * h - (dx * dx + dy * dy + dz * dz) * c;
+                            }
+                        }
+
+                        // Pass 2: roots only for the rays in this leaf that can touch the sphere
+                        for (int k = 0; k < count; k++) {
+                            if (!lanes[k]) {
+                                continue;
+                            }
+                            tests++;
+                            if (discriminant[k] < 0) {
+                                continue;
+                            }
+                            float a = directionX[k] * directionX[k] + directionY[k] * directionY[k]
+                                    + directionZ[k] * directionZ[k];
+                            float root = closestRoot(halfB[k], discriminant[k], a, cTerm[k], tMin[k], tMax[k]);
+                            if (!Float.isNaN(root)) {
+                                tMax[k] = root;
+                                closest[k] = i;
+                            }
+                        }
+                    }
+                } else {
+                    if ((negativeAxes >> nodeData[d + 2] & 1) != 0) {
+                        stack[stackPtr++] = node + 1;
+                        node = nodeData[d];
+                    } else {
+                        stack[stackPtr++] = nodeData[d];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                break;
+            }
+            node = stack[--stackPtr];
+        }
+
+        packet.nodeVisits += visits;
+        packet.primitiveTests += tests;
+
+        // Records only for the rays whose closest hit so far is one of these spheres
+        for (int k = 0; k < count; k++) {
+            if (closest[k] >= 0) {
+                fill(packet.records[k], packet.rays[k], tMax[k], closest[k], time[k]);
+                packet.hit[k] = true;
+            }
+        }
+    }
+
+    // Same walk as hit, returning at the first sphere the ray meets inside rayT
+    @Override
+    public boolean occluded(Ray r, Interval rayT) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double invDx = 1.0 / direction.x, invDy = 1.0 / direction.y, invDz = 1.0 / direction.z;
+        float ox = (float) origin.x, oy = (float) origin.y, oz = (float) origin.z;
+        float dx = (float) direction.x, dy = (float) direction.y, dz = (float) direction.z;
+        float a = dx * dx + dy * dy + dz * dz;
+        float time = (float) r.getTime();
+
+        int[] stack = traversalState.get().stack;
+        double tMin = rayT.getMin();
+        double tMax = rayT.getMax();
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            int b = 6 * node;
+            double tx0 = (nodeBounds[b] - origin.x) * invDx, tx1 = (nodeBounds[b + 3] - origin.x) * invDx;
+            double ty0 = (nodeBounds[b + 1] - origin.y) * invDy, ty1 = (nodeBounds[b + 4] - origin.y) * invDy;
+            double tz0 = (nodeBounds[b + 2] - origin.z) * invDz, tz1 = (nodeBounds[b + 5] - origin.z) * invDz;
+
+            double tNear = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.max(Math.min(tz0, tz1), tMin));
+            double tFar = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.min(Math.max(tz0, tz1), tMax));
+
+            if (tNear <= tFar) {
+                int d = 3 * node;
+                int sphereCount = nodeData[d + 1];
+
+                if (sphereCount > 0) {
+                    int first = nodeData[d];
+                    for (int i = first; i < first + sphereCount; i++) {
+                        float ocx = centerX[i] - ox;
+                        float ocy = centerY[i] - oy;
+                        float ocz = centerZ[i] - oz;
+                        if (motionX != null) {
+                            ocx = centerX[i] + time * motionX[i] - ox;
+                            ocy = centerY[i] + time * motionY[i] - oy;
+                            ocz = centerZ[i] + time * motionZ[i] - oz;
+                        }
+                        float h = dx * ocx + dy * ocy + dz * ocz;
+                        float c = ocx * ocx + ocy * ocy + ocz * ocz - radius[i] * radius[i];
+                        float discriminant = h * h - a * c;
+                        if (discriminant >= 0 && !Float.isNaN(closestRoot(h, discriminant, a, c, tMin, tMax))) {
+                            return true;
+                        }
+                    }
+                } else {
+                    stack[stackPtr++] = nodeData[d];
+                    node = node + 1;
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                return false;
+            }
+            node = stack[--stackPtr];
+        }
+    }
+
+    /*
+        The nearer root of a t² - 2 h t + c = 0 inside (tMin, tMax), or NaN if neither is. The roots are
+        (h ± √discriminant) / a; taking q with the sign of h adds two numbers of the same sign, so neither root
+        loses digits to cancellation, which in float would move the near root of a ray leaving a sphere by more
+        than the offset it starts with.
+     */
+    private static float closestRoot(float h, float discriminant, float a, float c, double tMin, double tMax) {
+        float q = h + Math.copySign((float) Math.sqrt(discriminant), h);
+        if (q == 0) {
+            return Float.NaN;
+        }
+        float t0 = c / q, t1 = q / a;
+        float near = Math.min(t0, t1), far = Math.max(t0, t1);
+        if (near > tMin && near < tMax) {
+            return near;
+        }
+        if (far > tMin && far < tMax) {
+            return far;
+        }
+        return Float.NaN;
+    }
+
+    // Only the closest sphere fills in the record, every other candidate was just a t value
+    private void fill(HitRecord record, Ray r, double t, int i, float time) {
+        float cx = centerX[i], cy = centerY[i], cz = centerZ[i];
+        if (motionX != null) {
+            cx += time * motionX[i];
+            cy += time * motionY[i];
+            cz += time * motionZ[i];
+        }
+        record.setSphereHit(r, t, cx, cy, cz, radius[i], Precision.FLOAT);
+        record.material = materials[materialIndex[i]];
+    }
+
+    @Override
+    public AABB boundingBox() {
+        return bbox;
+    }
+
+    public int size() {
+        return radius.length;
+    }
+}
@@ -2,33 +2,121 @@ package geometry;
 
 import core.Ray;
 import material.Material;
+import math.Precision;
 import math.Vec3;
 
 /*
 
  */
 public class HitRecord {
-    public Vec3 p;
-    public Vec3 normal;
+    // Filled in place by every hit, so a record allocates nothing after it is made
+    public final Vec3 p = new Vec3();
+    public final Vec3 normal = new Vec3();
     public double t;
+    // How far p may be off the surface in any coordinate, as the surface's own intersection test sees it: the
+    // rounding of p and of the test together. Rays leaving the surface start this far out, see spawnOrigin
+    public double error;
     public boolean frontFacing;
     public Material material;   // geometry.HitRecord class needs to know which material was hit
 
+    // Running totals of the work done by hit() calls on this record, read by stats.RenderStats.
+    // They are not hit data, so copy() leaves them alone
+    public long nodeVisits;       // BVH nodes whose box was tested
+    public long primitiveTests;   // ray-primitive intersection tests
+
     public HitRecord() {
-        this.p = new Vec3();
-        this.normal = new Vec3();
         this.t = 0.0;
     }
 
     void setFaceNormal(Ray ray, Vec3 outwardNormal) {
         frontFacing = Vec3.dot(ray.getDirection(), outwardNormal) < 0; // if this is true it means ray is coming from outside
-        normal = frontFacing ? outwardNormal : outwardNormal.negate();
+        normal.set(outwardNormal);
+        if (!frontFacing) {
+            normal.negateAssign();
+        }
+    }
+
+    // Same as above for a normal given as components, so the caller doesn't need a temporary vector
+    void setFaceNormal(Ray ray, double nx, double ny, double nz) {
+        Vec3 d = ray.getDirection();
+        frontFacing = d.x * nx + d.y * ny + d.z * nz < 0;
+        if (frontFacing) {
+            normal.set(nx, ny, nz);
+        } else {
+            normal.set(-nx, -ny, -nz);
+        }
+    }
+
+    /*
+        Fills in t, p, error and the normal for a hit at t on the sphere around (cx, cy, cz), whose test ran at the
+        given precision. r.at(t) lands off the sphere by the rounding of t, which grows with how far the ray came,
+        so p is moved back onto the sphere along the radius and is then only off by the rounding of the center and
+        radius; a few operations' worth of that at the test's precision covers what the test can tell apart.
+     */
+    void setSphereHit(Ray r, double t, double cx, double cy, double cz, double radius, Precision precision) {
+        this.t = t;
+        r.at(t, p);
+        double px = p.x - cx, py = p.y - cy, pz = p.z - cz;
+        double scale = radius / Math.sqrt(px * px + py * py + pz * pz);
+        px *= scale;
+        py *= scale;
+        pz *= scale;
+        p.set(cx + px, cy + py, cz + pz);
+        error = precision.gamma(8) * (Math.max(Math.abs(cx), Math.max(Math.abs(cy), Math.abs(cz))) + radius);
+
+        double invRadius = 1 / radius;
+        setFaceNormal(r, px * invRadius, py * invRadius, pz * invRadius);
+    }
+
+    /*
+        The same for a flat shape: a hit at t on the plane n · p = planeOffset with unit normal (nx, ny, nz), p moved
+        back onto the plane. magnitude is the largest coordinate of the shape, which the test's rounding scales with
+     */
+    void setPlaneHit(Ray r, double t, double nx, double ny, double nz, double planeOffset, double magnitude,
+                     Precision precision) {
+        this.t = t;
+        r.at(t, p);
+        double distance = nx * p.x + ny * p.y + nz * p.z - planeOffset;
+        p.set(p.x - distance * nx, p.y - distance * ny, p.z - distance * nz);
+        error = precision.gamma(8) * Math.max(magnitude, Math.max(Math.abs(p.x), Math.max(Math.abs(p.y), Math.abs(p.z))));
+
+        setFaceNormal(r, nx, ny, nz);
+    }
+
+    /*
+        Where a ray leaving the hit in direction starts, written into out: p moved along the normal by as far as
+        p can be off (error, spread over the normal's axes), to the side of the surface the ray goes to, and
+        rounded away from the surface.
+
+                 ray leaving ↗
+                   ○  spawned origin, out of reach of the rounding of p
+            ───────┼───────────────  surface
+                   · p, somewhere within ± error of it
+
+        A ray from there cannot hit the surface it leaves again, so it needs no minimum t. A fixed one (0.001, say)
+        lets self-hits through on large or distant objects and hides real hits nearer than it on small ones.
+     */
+    public Vec3 spawnOrigin(Vec3 direction, Vec3 out) {
+        double offset = error * (Math.abs(normal.x) + Math.abs(normal.y) + Math.abs(normal.z));
+        if (Vec3.dot(direction, normal) < 0) {
+            offset = -offset;
+        }
+        double ox = offset * normal.x, oy = offset * normal.y, oz = offset * normal.z;
+        return out.set(away(p.x + ox, ox), away(p.y + oy, oy), away(p.z + oz, oz));
+    }
+
+    // One step further in the offset's direction
+    private static double away(double value, double offset) {
+        if (offset > 0) return Math.nextUp(value);
+        if (offset < 0) return Math.nextDown(value);
+        return value;
     }
 
     public void copy(HitRecord r) {
         this.t = r.t;
-        this.p = r.p;
-        this.normal = r.normal;
+        this.error = r.error;
+        this.p.set(r.p);
+        this.normal.set(r.normal);
         this.frontFacing = r.frontFacing;
         this.material = r.material;
     }
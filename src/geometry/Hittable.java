@@ -13,4 +13,34 @@ public interface Hittable {
             Interval rayT,
             HitRecord record
     );
+
+    /**
+     * Check if anything at all blocks a ray within the given t range, for shadow rays. Unlike hit it may stop
+     * at the first hit it finds rather than look for the closest, and it fills in no record.
+     * Objects without a faster way of their own fall back to hit
+     * @return true if the ray hits something, false if it gets through
+     */
+    default boolean occluded(Ray r, Interval rayT) {
+        return hit(r, rayT, new HitRecord());
+    }
+
+    /**
+     * Trace the rays of a packet whose active flag is set, each within its own [tMin, tMax]. A ray that hits this
+     * object closer than its tMax gets its record filled in, its tMax lowered to the hit and its hit flag set.
+     * Acceleration structures walk their tree once for the whole packet; other objects trace the rays one by one
+     * with hit
+     */
+    default void hit(RayPacket packet, boolean[] active) {
+        for (int k = 0; k < packet.count; k++) {
+            if (active[k]) {
+                packet.traceLane(this, k);
+            }
+        }
+    }
+
+    /**
+     * Axis-aligned box enclosing the whole object, used to build acceleration structures
+     * @return the bounding box of this object
+     */
+    AABB boundingBox();
 }
@@ -8,6 +8,9 @@ import java.util.List;
 
 public class HittableList implements Hittable {
     private List<Hittable> objects;
+    private AABB bbox = AABB.EMPTY;
+    // The shrinking range the objects are tested in, one per thread
+    private final ThreadLocal<Interval> rangeThreadLocal = ThreadLocal.withInitial(Interval::new);
 
     public HittableList() {
         objects = new ArrayList<>();
@@ -15,38 +18,56 @@ public class HittableList implements Hittable {
 
     public HittableList(Hittable object) {
         objects = new ArrayList<>();
-        objects.add(object);
+        add(object);
     }
 
     public void clear() {
         objects.clear();
+        bbox = AABB.EMPTY;
     }
 
     public void add(Hittable object) {
         objects.add(object);
+        bbox = new AABB(bbox, object.boundingBox());
+    }
+
+    public List<Hittable> getObjects() {
+        return objects;
     }
 
     @Override
     public boolean hit(Ray r, Interval rayT, HitRecord record) {
-        HitRecord tempRecord = new HitRecord();
+        // Every object writes straight into record, and only when it finds a hit closer than the ones before
+        Interval range = rangeThreadLocal.get();
         boolean hitAnything = false;
 
         double closestSoFar = rayT.getMax();
 
-        for (Hittable o : objects) {
-            if (o.hit(r, new Interval(rayT.getMin(), closestSoFar), tempRecord)) {
+        for (int i = 0, n = objects.size(); i < n; i++) {
+            range.set(rayT.getMin(), closestSoFar);
+            if (objects.get(i).hit(r, range, record)) {
                 hitAnything = true;
-                closestSoFar = tempRecord.t;
-                record.t = tempRecord.t;
-                record.p = tempRecord.p;
-                record.normal = tempRecord.normal;
-                record .frontFacing = tempRecord.frontFacing;
-                record.material = tempRecord.material;
+                closestSoFar = record.t;
             }
         }
         return hitAnything;
     }
 
+    @Override
+    public boolean occluded(Ray r, Interval rayT) {
+        for (Hittable o : objects) {
+            if (o.occluded(r, rayT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public AABB boundingBox() {
+        return bbox;
+    }
+
     public int size() {
         return objects.size();
     }
@@ -0,0 +1,140 @@
+package geometry;
+
+import core.Interval;
+import core.Ray;
+import math.Transform;
+import math.Vec3;
+
+/*
+    A placed copy of a shared object: the object's geometry is stored once, and each Instance only adds a
+    transform and its own bounding box. A forest of 100k trees is one tree mesh plus 100k Instances.
+
+    Instead of moving the object, the ray is moved into the object's own space with the inverse transform:
+
+        world ray ──(toWorld⁻¹)──→ object-space ray ──→ object.hit ──→ hit point and normal ──(toWorld)──→ world
+
+    The direction is transformed without normalizing it, so t means the same in both spaces and the
+    ray interval and the record's t need no conversion. Normals go through the inverse transpose, which keeps
+    them perpendicular to the surface under non-uniform scaling.
+
+    Instances can hold other instances (or a BVH of them), and they can go into any acceleration structure
+    like any other Hittable, since the box they report is the object's box transformed into world space.
+ */
+public class Instance implements Hittable {
+    private final Hittable object;
+    private final Transform toWorld;
+    private final AABB bbox;
+
+    /*
+        Object-space rays for the current thread, one per level of instance nesting, so tracing does not allocate.
+        A single scratch ray would not do: an instance of a BVH of instances passes its object-space ray down
+        to every inner instance, and each of those needs it unchanged.
+     */
+    private static final ThreadLocal<RayStack> rayStack = ThreadLocal.withInitial(RayStack::new);
+
+    private static final class RayStack {
+        Ray[] rays = new Ray[0];
+        int depth;
+
+        Ray push() {
+            if (depth == rays.length) {
+                Ray[] grown = new Ray[depth + 4];
+                System.arraycopy(rays, 0, grown, 0, depth);
+                for (int i = depth; i < grown.length; i++) {
+                    grown[i] = new Ray();
+                }
+                rays = grown;
+            }
+            return rays[depth++];
+        }
+
+        void pop() {
+            depth--;
+        }
+    }
+
+    public Instance(Hittable object, Transform toWorld) {
+        this.object = object;
+        this.toWorld = toWorld;
+        this.bbox = transformBox(object.boundingBox(), toWorld);
+    }
+
+    @Override
+    public boolean hit(Ray r, Interval rayT, HitRecord record) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        Transform toObject = toWorld.inverse();
+
+        RayStack stack = rayStack.get();
+        Ray local = stack.push();
+        boolean hit;
+        try {
+            toObject.applyPoint(origin.x, origin.y, origin.z, local.getOrigin());
+            toObject.applyVector(direction.x, direction.y, direction.z, local.getDirection());
+            local.setTime(r.getTime());
+            hit = object.hit(local, rayT, record);
+        } finally {
+            stack.pop();
+        }
+        if (!hit) {
+            return false;
+        }
+
+        // In place: the components go in as values before the results are written
+        Vec3 p = record.p;
+        Vec3 n = record.normal;
+        record.error = toWorld.pointError(p.x, p.y, p.z, record.error);
+        toWorld.applyPoint(p.x, p.y, p.z, p);
+        toWorld.applyNormal(n.x, n.y, n.z, n).unitVectorAssign();
+        return true;
+    }
+
+    @Override
+    public boolean occluded(Ray r, Interval rayT) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        Transform toObject = toWorld.inverse();
+
+        RayStack stack = rayStack.get();
+        Ray local = stack.push();
+        try {
+            toObject.applyPoint(origin.x, origin.y, origin.z, local.getOrigin());
+            toObject.applyVector(direction.x, direction.y, direction.z, local.getDirection());
+            local.setTime(r.getTime());
+            return object.occluded(local, rayT);
+        } finally {
+            stack.pop();
+        }
+    }
+
+    @Override
+    public AABB boundingBox() {
+        return bbox;
+    }
+
+    public Hittable getObject() {
+        return object;
+    }
+
+    public Transform getTransform() {
+        return toWorld;
+    }
+
+    // Box around all 8 transformed corners of the object's box
+    private static AABB transformBox(AABB box, Transform transform) {
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        Vec3 corner = new Vec3();
+        for (int i = 0; i < 8; i++) {
+            double x = (i & 1) == 0 ? box.axisInterval(0).getMin() : box.axisInterval(0).getMax();
+            double y = (i & 2) == 0 ? box.axisInterval(1).getMin() : box.axisInterval(1).getMax();
+            double z = (i & 4) == 0 ? box.axisInterval(2).getMin() : box.axisInterval(2).getMax();
+            transform.applyPoint(x, y, z, corner);
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], corner.get(axis));
+                max[axis] = Math.max(max[axis], corner.get(axis));
+            }
+        }
+        return new AABB(new Vec3(min[0], min[1], min[2]), new Vec3(max[0], max[1], max[2]));
+    }
+}
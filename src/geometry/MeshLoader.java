@@ -0,0 +1,701 @@
+package geometry;
+
+import material.Material;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/*
+    Reads triangle meshes from Wavefront OBJ and PLY files into a geometry.TriangleMesh.
+
+    Files are memory-mapped rather than read through streams, and numbers are parsed straight from the
+    mapped bytes, so loading creates no String per line or per number.
+
+    OBJ: the file is cut into chunks of about CHUNK_SIZE bytes at line breaks and the chunks are parsed in
+    parallel, each into its own vertex and index arrays, which are then joined in file order. Only "v" and "f"
+    lines are used; faces with more than three corners are split into a fan of triangles, and "v/vt/vn"
+    corners keep just the vertex. Negative (relative) indices are resolved once every chunk's vertex count is known.
+
+    PLY: ascii, binary_little_endian and binary_big_endian. The x, y, z properties of "vertex" and the
+    vertex_indices (or vertex_index) list of "face" are used, everything else is skipped. In binary files with
+    fixed-size vertex records the vertices are decoded in parallel; faces are variable length and read in order.
+    A PLY body has to fit in one mapping (2 GB).
+ */
+public class MeshLoader {
+    private static final long CHUNK_SIZE = 8L << 20;
+
+    public static TriangleMesh load(Path file, Material material) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".obj")) return loadObj(file, material);
+        if (name.endsWith(".ply")) return loadPly(file, material);
+        throw new IllegalArgumentException("Unsupported mesh type " + file + ", use .obj or .ply");
+    }
+
+    // ---------------------------------------------------------------- OBJ
+
+    public static TriangleMesh loadObj(Path file, Material material) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            ObjChunk[] chunks = new ObjChunk[bounds.length - 1];
+
+            try {
+                IntStream.range(0, chunks.length).parallel().forEach(i -> {
+                    try {
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+                        chunks[i] = new ObjChunk(buffer, bounds[i]).parse();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw new IOException(file + ": " + e.getCause().getMessage(), e.getCause());
+            }
+
+            // Join the chunks in file order
+            int vertexCount = 0;
+            int indexCount = 0;
+            for (ObjChunk chunk : chunks) {
+                vertexCount += chunk.vertices.size / 3;
+                indexCount += chunk.indices.size;
+            }
+            float[] vertices = new float[3 * vertexCount];
+            int[] indices = new int[indexCount];
+
+            int vertexOffset = 0;
+            int indexOffset = 0;
+            for (ObjChunk chunk : chunks) {
+                System.arraycopy(chunk.vertices.data, 0, vertices, 3 * vertexOffset, chunk.vertices.size);
+                System.arraycopy(chunk.indices.data, 0, indices, indexOffset, chunk.indices.size);
+                // Relative indices were stored as vertex numbers within the chunk
+                for (int r = 0; r < chunk.relative.size; r++) {
+                    indices[indexOffset + chunk.relative.data[r]] += vertexOffset;
+                }
+                vertexOffset += chunk.vertices.size / 3;
+                indexOffset += chunk.indices.size;
+            }
+
+            return buildMesh(file, vertices, indices, material);
+        }
+    }
+
+    // Chunk start offsets, each one just after a line break, plus the file size at the end
+    private static long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long position = CHUNK_SIZE;
+        while (position < size) {
+            // Move forward to the start of the next line
+            long lineStart = -1;
+            long scan = position;
+            while (lineStart < 0 && scan < size) {
+                probe.clear();
+                int read = channel.read(probe, scan);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        lineStart = scan + i + 1;
+                        break;
+                    }
+                }
+                scan += read;
+            }
+            if (lineStart < 0 || lineStart >= size) {
+                break;
+            }
+            bounds.add(lineStart);
+            position = lineStart + CHUNK_SIZE;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private static final class ObjChunk {
+        private final Cursor cursor;
+        final FloatList vertices = new FloatList();
+        final IntList indices = new IntList();
+        final IntList relative = new IntList();     // positions in indices that still need the chunk's vertex offset
+        private final IntList face = new IntList();
+        private final IntList faceRelative = new IntList();
+
+        ObjChunk(ByteBuffer buffer, long fileOffset) {
+            this.cursor = new Cursor(buffer, fileOffset);
+        }
+
+        ObjChunk parse() throws IOException {
+            while (cursor.hasMore()) {
+                cursor.skipSpaces();
+                if (cursor.atKeyword('v')) {
+                    for (int axis = 0; axis < 3; axis++) {
+                        vertices.add((float) cursor.readDouble());
+                    }
+                } else if (cursor.atKeyword('f')) {
+                    readFace();
+                }
+                cursor.skipLine();
+            }
+            return this;
+        }
+
+        private void readFace() throws IOException {
+            face.size = 0;
+            faceRelative.size = 0;
+            while (cursor.skipSpaces()) {
+                long index = cursor.readLong();
+                if (index > 0) {
+                    face.add((int) (index - 1));
+                    faceRelative.add(0);
+                } else if (index < 0) {
+                    // Counts back from the last vertex read so far; the chunk offset is added when the chunks are joined
+                    face.add((int) (vertices.size / 3 + index));
+                    faceRelative.add(1);
+                } else {
+                    throw cursor.error("vertex index 0 in face");
+                }
+                cursor.skipToken();     // the /vt/vn part, if any
+            }
+            if (face.size < 3) {
+                throw cursor.error("face with fewer than 3 vertices");
+            }
+
+            // Fan triangulation: (0, 1, 2), (0, 2, 3), ...
+            for (int k = 1; k + 1 < face.size; k++) {
+                addCorner(0);
+                addCorner(k);
+                addCorner(k + 1);
+            }
+        }
+
+        private void addCorner(int k) {
+            if (faceRelative.data[k] != 0) {
+                relative.add(indices.size);
+            }
+            indices.add(face.data[k]);
+        }
+    }
+
+    // ---------------------------------------------------------------- PLY
+
+    private enum PlyType {
+        INT8(1), UINT8(1), INT16(2), UINT16(2), INT32(4), UINT32(4), FLOAT32(4), FLOAT64(8);
+
+        final int size;
+
+        PlyType(int size) {
+            this.size = size;
+        }
+
+        static PlyType parse(String name) throws IOException {
+            switch (name) {
+                case "char": case "int8": return INT8;
+                case "uchar": case "uint8": return UINT8;
+                case "short": case "int16": return INT16;
+                case "ushort": case "uint16": return UINT16;
+                case "int": case "int32": return INT32;
+                case "uint": case "uint32": return UINT32;
+                case "float": case "float32": return FLOAT32;
+                case "double": case "float64": return FLOAT64;
+                default: throw new IOException("unknown PLY type " + name);
+            }
+        }
+
+        double read(ByteBuffer buffer, int position) {
+            switch (this) {
+                case INT8: return buffer.get(position);
+                case UINT8: return buffer.get(position) & 0xFF;
+                case INT16: return buffer.getShort(position);
+                case UINT16: return buffer.getShort(position) & 0xFFFF;
+                case INT32: return buffer.getInt(position);
+                case UINT32: return buffer.getInt(position) & 0xFFFFFFFFL;
+                case FLOAT32: return buffer.getFloat(position);
+                default: return buffer.getDouble(position);
+            }
+        }
+    }
+
+    private static final class PlyProperty {
+        final String name;
+        final PlyType type;
+        final PlyType countType;    // null unless this is a list
+
+        PlyProperty(String name, PlyType type, PlyType countType) {
+            this.name = name;
+            this.type = type;
+            this.countType = countType;
+        }
+    }
+
+    private static final class PlyElement {
+        final String name;
+        final int count;
+        final List<PlyProperty> properties = new ArrayList<>();
+
+        PlyElement(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        // Bytes per record in a binary file, or -1 when a list makes the records variable length
+        int stride() {
+            int stride = 0;
+            for (PlyProperty property : properties) {
+                if (property.countType != null) {
+                    return -1;
+                }
+                stride += property.type.size;
+            }
+            return stride;
+        }
+    }
+
+    public static TriangleMesh loadPly(Path file, Material material) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The header is plain text lines up to "end_header"
+            MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 1 << 20));
+            List<PlyElement> elements = new ArrayList<>();
+            String format = null;
+            int position = 0;
+            boolean ended = false;
+            while (!ended) {
+                int lineEnd = position;
+                while (lineEnd < head.limit() && head.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                if (lineEnd >= head.limit()) {
+                    throw new IOException(file + ": PLY header has no end_header");
+                }
+                byte[] bytes = new byte[lineEnd - position];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = head.get(position + i);
+                }
+                String[] words = new String(bytes, StandardCharsets.US_ASCII).trim().split("\\s+");
+                position = lineEnd + 1;
+
+                switch (words[0]) {
+                    case "ply": case "comment": case "obj_info": case "":
+                        break;
+                    case "format":
+                        format = words[1];
+                        break;
+                    case "element":
+                        elements.add(new PlyElement(words[1], Integer.parseInt(words[2])));
+                        break;
+                    case "property":
+                        if (elements.isEmpty()) {
+                            throw new IOException(file + ": PLY property before any element");
+                        }
+                        PlyProperty property = words[1].equals("list")
+                                ? new PlyProperty(words[4], PlyType.parse(words[3]), PlyType.parse(words[2]))
+                                : new PlyProperty(words[2], PlyType.parse(words[1]), null);
+                        elements.get(elements.size() - 1).properties.add(property);
+                        break;
+                    case "end_header":
+                        ended = true;
+                        break;
+                    default:
+                        throw new IOException(file + ": unexpected PLY header line " + String.join(" ", words));
+                }
+            }
+
+            long bodySize = channel.size() - position;
+            if (bodySize > Integer.MAX_VALUE) {
+                throw new IOException(file + ": PLY bodies over 2 GB are not supported");
+            }
+            MappedByteBuffer body = channel.map(FileChannel.MapMode.READ_ONLY, position, bodySize);
+
+            PlyReader reader;
+            if ("ascii".equals(format)) {
+                reader = new AsciiPlyReader(new Cursor(body, position));
+            } else if ("binary_little_endian".equals(format)) {
+                reader = new BinaryPlyReader(body.order(ByteOrder.LITTLE_ENDIAN));
+            } else if ("binary_big_endian".equals(format)) {
+                reader = new BinaryPlyReader(body.order(ByteOrder.BIG_ENDIAN));
+            } else {
+                throw new IOException(file + ": unknown PLY format " + format);
+            }
+
+            float[] vertices = null;
+            IntList indices = new IntList();
+            for (PlyElement element : elements) {
+                if (element.name.equals("vertex")) {
+                    vertices = reader.readVertices(element);
+                } else if (element.name.equals("face")) {
+                    reader.readFaces(element, indices);
+                } else {
+                    reader.skip(element);
+                }
+            }
+            if (vertices == null) {
+                throw new IOException(file + ": PLY file has no vertex element");
+            }
+            return buildMesh(file, vertices, Arrays.copyOf(indices.data, indices.size), material);
+        }
+    }
+
+    private abstract static class PlyReader {
+        abstract double read(PlyType type) throws IOException;
+
+        abstract void skip(PlyElement element) throws IOException;
+
+        float[] readVertices(PlyElement vertex) throws IOException {
+            int[] axes = axisProperties(vertex);
+            float[] vertices = new float[3 * vertex.count];
+            for (int v = 0; v < vertex.count; v++) {
+                for (int p = 0; p < vertex.properties.size(); p++) {
+                    PlyProperty property = vertex.properties.get(p);
+                    if (property.countType != null) {
+                        skipList(property);
+                        continue;
+                    }
+                    double value = read(property.type);
+                    for (int axis = 0; axis < 3; axis++) {
+                        if (axes[axis] == p) {
+                            vertices[3 * v + axis] = (float) value;
+                        }
+                    }
+                }
+            }
+            return vertices;
+        }
+
+        void readFaces(PlyElement face, IntList indices) throws IOException {
+            int[] corners = new int[16];
+            for (int f = 0; f < face.count; f++) {
+                for (PlyProperty property : face.properties) {
+                    boolean isIndexList = property.name.equals("vertex_indices") || property.name.equals("vertex_index");
+                    if (property.countType == null) {
+                        read(property.type);
+                    } else if (!isIndexList) {
+                        skipList(property);
+                    } else {
+                        int count = (int) read(property.countType);
+                        if (corners.length < count) {
+                            corners = new int[count];
+                        }
+                        for (int k = 0; k < count; k++) {
+                            corners[k] = (int) read(property.type);
+                        }
+                        for (int k = 1; k + 1 < count; k++) {
+                            indices.add(corners[0]);
+                            indices.add(corners[k]);
+                            indices.add(corners[k + 1]);
+                        }
+                    }
+                }
+            }
+        }
+
+        void skipList(PlyProperty property) throws IOException {
+            int count = (int) read(property.countType);
+            for (int k = 0; k < count; k++) {
+                read(property.type);
+            }
+        }
+
+        static int[] axisProperties(PlyElement vertex) throws IOException {
+            int[] axes = {-1, -1, -1};
+            for (int p = 0; p < vertex.properties.size(); p++) {
+                switch (vertex.properties.get(p).name) {
+                    case "x": axes[0] = p; break;
+                    case "y": axes[1] = p; break;
+                    case "z": axes[2] = p; break;
+                    default: break;
+                }
+            }
+            if (axes[0] < 0 || axes[1] < 0 || axes[2] < 0) {
+                throw new IOException("PLY vertex element needs x, y and z properties");
+            }
+            return axes;
+        }
+    }
+
+    private static final class AsciiPlyReader extends PlyReader {
+        private final Cursor cursor;
+
+        AsciiPlyReader(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        double read(PlyType type) throws IOException {
+            cursor.skipWhitespace();
+            return cursor.readDouble();
+        }
+
+        @Override
+        void skip(PlyElement element) {
+            for (int i = 0; i < element.count; i++) {
+                cursor.skipWhitespace();
+                cursor.skipLine();
+            }
+        }
+    }
+
+    private static final class BinaryPlyReader extends PlyReader {
+        private final ByteBuffer body;
+        private int position;
+
+        BinaryPlyReader(ByteBuffer body) {
+            this.body = body;
+        }
+
+        @Override
+        double read(PlyType type) throws IOException {
+            if (position + type.size > body.limit()) {
+                throw new IOException("PLY file ends before all elements were read");
+            }
+            double value = type.read(body, position);
+            position += type.size;
+            return value;
+        }
+
+        // Fixed-size records are decoded in parallel, every record's offset is known up front
+        @Override
+        float[] readVertices(PlyElement vertex) throws IOException {
+            int stride = vertex.stride();
+            if (stride < 0) {
+                return super.readVertices(vertex);
+            }
+            if (position + (long) stride * vertex.count > body.limit()) {
+                throw new IOException("PLY file ends before all vertices were read");
+            }
+
+            int[] axes = axisProperties(vertex);
+            int[] offsets = new int[3];
+            PlyType[] types = new PlyType[3];
+            for (int axis = 0; axis < 3; axis++) {
+                for (int p = 0; p < axes[axis]; p++) {
+                    offsets[axis] += vertex.properties.get(p).type.size;
+                }
+                types[axis] = vertex.properties.get(axes[axis]).type;
+            }
+
+            float[] vertices = new float[3 * vertex.count];
+            int start = position;
+            ByteOrder order = body.order();
+            int blocks = Math.max(1, vertex.count / 65536);
+            IntStream.range(0, blocks).parallel().forEach(block -> {
+                ByteBuffer view = body.duplicate().order(order);
+                int from = (int) ((long) vertex.count * block / blocks);
+                int to = (int) ((long) vertex.count * (block + 1) / blocks);
+                for (int v = from; v < to; v++) {
+                    int record = start + v * stride;
+                    for (int axis = 0; axis < 3; axis++) {
+                        vertices[3 * v + axis] = (float) types[axis].read(view, record + offsets[axis]);
+                    }
+                }
+            });
+            position += stride * vertex.count;
+            return vertices;
+        }
+
+        @Override
+        void skip(PlyElement element) throws IOException {
+            int stride = element.stride();
+            if (stride >= 0) {
+                position += stride * element.count;
+                return;
+            }
+            for (int i = 0; i < element.count; i++) {
+                for (PlyProperty property : element.properties) {
+                    if (property.countType == null) {
+                        read(property.type);
+                    } else {
+                        skipList(property);
+                    }
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- shared
+
+    private static TriangleMesh buildMesh(Path file, float[] vertices, int[] indices, Material material) throws IOException {
+        int vertexCount = vertices.length / 3;
+        for (int index : indices) {
+            if (index < 0 || index >= vertexCount) {
+                throw new IOException(file + ": face refers to vertex " + index + ", the file has " + vertexCount);
+            }
+        }
+        if (indices.length == 0) {
+            throw new IOException(file + ": no faces");
+        }
+        return new TriangleMesh(vertices, indices, material);
+    }
+
+    /*
+        Reads numbers and skips text directly in a mapped buffer. Numbers are assembled from their digits
+        (mantissa and exponent), which is plenty for float vertex data and much faster than Double.parseDouble.
+     */
+    private static final class Cursor {
+        private final ByteBuffer buffer;
+        private final long fileOffset;
+        private final int end;
+        private int position;
+
+        Cursor(ByteBuffer buffer, long fileOffset) {
+            this.buffer = buffer;
+            this.fileOffset = fileOffset;
+            this.end = buffer.limit();
+        }
+
+        boolean hasMore() {
+            return position < end;
+        }
+
+        // Skips spaces and tabs; false at the end of the line (or a comment)
+        boolean skipSpaces() {
+            while (position < end) {
+                byte c = buffer.get(position);
+                if (c == ' ' || c == '\t') {
+                    position++;
+                } else {
+                    return c != '\n' && c != '\r' && c != '#';
+                }
+            }
+            return false;
+        }
+
+        void skipWhitespace() {
+            while (position < end && buffer.get(position) <= ' ') {
+                position++;
+            }
+        }
+
+        void skipLine() {
+            while (position < end && buffer.get(position) != '\n') {
+                position++;
+            }
+            position++;
+        }
+
+        void skipToken() {
+            while (position < end && buffer.get(position) > ' ') {
+                position++;
+            }
+        }
+
+        // True (and moves past it) if a one-letter keyword followed by a space starts here
+        boolean atKeyword(char keyword) {
+            if (position + 1 < end && buffer.get(position) == keyword) {
+                byte next = buffer.get(position + 1);
+                if (next == ' ' || next == '\t') {
+                    position += 2;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long readLong() throws IOException {
+            boolean negative = false;
+            if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                negative = buffer.get(position++) == '-';
+            }
+            int start = position;
+            long value = 0;
+            while (position < end) {
+                int digit = buffer.get(position) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                value = value * 10 + digit;
+                position++;
+            }
+            if (position == start) {
+                throw error("expected an integer");
+            }
+            return negative ? -value : value;
+        }
+
+        double readDouble() throws IOException {
+            skipSpaces();
+            boolean negative = false;
+            if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                negative = buffer.get(position++) == '-';
+            }
+
+            long mantissa = 0;
+            int exponent = 0;
+            int digits = 0;
+            boolean fraction = false;
+            while (position < end) {
+                byte c = buffer.get(position);
+                if (c >= '0' && c <= '9') {
+                    if (mantissa < 100_000_000_000_000_000L) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        if (fraction) exponent--;
+                    } else if (!fraction) {
+                        exponent++;     // digits beyond what a long holds only scale the value
+                    }
+                    digits++;
+                } else if (c == '.' && !fraction) {
+                    fraction = true;
+                } else {
+                    break;
+                }
+                position++;
+            }
+            if (digits == 0) {
+                throw error("expected a number");
+            }
+
+            if (position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+                position++;
+                exponent += (int) readLong();
+            }
+
+            double value = exponent >= 0 ? mantissa * Math.pow(10, exponent) : mantissa / Math.pow(10, -exponent);
+            return negative ? -value : value;
+        }
+
+        IOException error(String message) {
+            return new IOException(message + " at byte " + (fileOffset + position));
+        }
+    }
+
+    private static final class FloatList {
+        float[] data = new float[1024];
+        int size;
+
+        void add(float value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+    }
+
+    private static final class IntList {
+        int[] data = new int[1024];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package geometry;
+
+import core.Interval;
+import core.Ray;
+import material.Material;
+import math.Precision;
+import math.Vec3;
+
+/*
+    A flat parallelogram: the corner q and the two edges u and v leaving it,
+
+              q + v ────────── q + u + v
+               /                 /
+              q ──────────── q + u
+
+    so a point on it is q + alpha u + beta v with alpha and beta in [0, 1]. Its front side is the one the
+    normal u × v points to. Quads are the usual shape of area lights (see light.QuadLight) and of walls.
+ */
+public class Quad implements Hittable {
+    private final Vec3 q;
+    private final Vec3 u;
+    private final Vec3 v;
+    private final Material material;
+
+    // Unit normal and plane offset (normal · p = d for points on the plane)
+    private final Vec3 normal;
+    private final double d;
+    // n / (n · n) for the unnormalized n = u × v, turns a point on the plane into its alpha and beta
+    private final Vec3 w;
+    private final double area;
+    // Largest coordinate of any corner, what the rounding of a hit point scales with
+    private final double extent;
+    private final AABB bbox;
+
+    public Quad(Vec3 q, Vec3 u, Vec3 v, Material material) {
+        this.q = q;
+        this.u = u;
+        this.v = v;
+        this.material = material;
+
+        Vec3 n = Vec3.cross(u, v);
+        this.area = n.length();
+        this.normal = Vec3.unitVector(n);
+        this.d = Vec3.dot(normal, q);
+        this.w = n.divide(Vec3.dot(n, n));
+
+        Vec3 far = q.add(u).add(v);
+        this.bbox = new AABB(new AABB(q, far), new AABB(q.add(u), q.add(v)));
+        double extent = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            Interval span = bbox.axisInterval(axis);
+            extent = Math.max(extent, Math.max(Math.abs(span.getMin()), Math.abs(span.getMax())));
+        }
+        this.extent = extent;
+    }
+
+    @Override
+    public boolean hit(Ray r, Interval rayT, HitRecord record) {
+        record.primitiveTests++;
+        double t = intersect(r, rayT);
+        if (Double.isNaN(t)) {
+            return false;
+        }
+
+        record.setPlaneHit(r, t, normal.x, normal.y, normal.z, d, extent, Precision.DOUBLE);
+        record.material = material;
+        return true;
+    }
+
+    @Override
+    public boolean occluded(Ray r, Interval rayT) {
+        return !Double.isNaN(intersect(r, rayT));
+    }
+
+    // The t at which the ray crosses the quad inside rayT, NaN if it does not
+    public double intersect(Ray r, Interval rayT) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double denominator = normal.x * direction.x + normal.y * direction.y + normal.z * direction.z;
+        if (Math.abs(denominator) < 1e-8) {
+            return Double.NaN;     // parallel to the plane
+        }
+
+        double t = (d - (normal.x * origin.x + normal.y * origin.y + normal.z * origin.z)) / denominator;
+        if (!rayT.surrounds(t)) {
+            return Double.NaN;
+        }
+
+        boolean inside = inside(origin.x + t * direction.x, origin.y + t * direction.y, origin.z + t * direction.z);
+        return inside ? t : Double.NaN;
+    }
+
+    // Whether p lies on the quad, up to rounding; light.QuadLight uses it to recognize its own hit points
+    public boolean contains(Vec3 p) {
+        double distance = normal.x * p.x + normal.y * p.y + normal.z * p.z - d;
+        double tolerance = 1e-7 * Math.max(1, Math.abs(d) + Math.sqrt(area));
+        return Math.abs(distance) <= tolerance && inside(p.x, p.y, p.z);
+    }
+
+    // Whether a point on the plane falls inside the parallelogram
+    private boolean inside(double x, double y, double z) {
+        // Relative to q, then alpha = w · (p × v), beta = w · (u × p)
+        double px = x - q.x, py = y - q.y, pz = z - q.z;
+        double alpha = w.x * (py * v.z - pz * v.y) + w.y * (pz * v.x - px * v.z) + w.z * (px * v.y - py * v.x);
+        double beta = w.x * (u.y * pz - u.z * py) + w.y * (u.z * px - u.x * pz) + w.z * (u.x * py - u.y * px);
+        return alpha >= 0 && alpha <= 1 && beta >= 0 && beta <= 1;
+    }
+
+    @Override
+    public AABB boundingBox() {
+        return bbox;
+    }
+
+    public Vec3 getQ() {
+        return q;
+    }
+
+    public Vec3 getU() {
+        return u;
+    }
+
+    public Vec3 getV() {
+        return v;
+    }
+
+    public Vec3 getNormal() {
+        return normal;
+    }
+
+    public double getArea() {
+        return area;
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+}
@@ -0,0 +1,197 @@
+package geometry;
+
+import core.Interval;
+import core.Ray;
+import math.Vec3;
+
+/*
+    A bundle of rays traced through the scene together, stored as a structure of arrays with one lane per ray:
+
+        originX/Y/Z:    [ o0 | o1 | o2 | ... ]
+        directionX/Y/Z: [ d0 | d1 | d2 | ... ]
+        inverseX/Y/Z:   1 / direction, for the slab tests
+        time:           the ray's time, for moving spheres
+        tMin, tMax:     each ray's interval; tMax shrinks to the closest hit found so far
+        records, hit:   each ray's closest hit, valid where hit is set
+
+    Acceleration structures walk their tree once for the whole packet (see Hittable.hit(RayPacket, boolean[])).
+    A node's box is tested against every ray in one branch-free loop over these arrays, the kind of loop the JIT
+    turns into SIMD code (as in geometry.SphereSoA), and the subtree is skipped only when no active ray enters it:
+
+        packet of 4 × 4 camera rays           node box
+            ════════════════▶                ┌──────┐
+            ════════════════▶   all enter →  │      │  → one visit, one set of node loads for all 16
+            ════════════════▶                └──────┘
+
+    The primary rays of neighbouring pixels nearly always enter the same nodes, so the packet pays for one walk
+    instead of one per ray. Which rays a call traces is given by an active flag per lane, so rays that are done
+    (a pixel that has all its samples) ride along without being traced.
+ */
+public class RayPacket {
+    private final int capacity;
+    int count;
+
+    final double[] originX, originY, originZ;
+    final double[] directionX, directionY, directionZ;
+    final double[] inverseX, inverseY, inverseZ;
+    final double[] time;
+    final double[] tMin, tMax;
+    final Ray[] rays;
+    final HitRecord[] records;
+    final boolean[] hit;
+
+    // Every ray's entry and exit t of the box tested last, see entersBox
+    final double[] boxNear, boxFar;
+    // Range handed to objects that trace the packet's rays one by one
+    final Interval range = new Interval();
+
+    // Work done on this packet, per packet for node visits and per ray for primitive tests
+    long nodeVisits;
+    long primitiveTests;
+
+    public RayPacket(int capacity) {
+        this.capacity = capacity;
+        originX = new double[capacity];
+        originY = new double[capacity];
+        originZ = new double[capacity];
+        directionX = new double[capacity];
+        directionY = new double[capacity];
+        directionZ = new double[capacity];
+        inverseX = new double[capacity];
+        inverseY = new double[capacity];
+        inverseZ = new double[capacity];
+        time = new double[capacity];
+        tMin = new double[capacity];
+        tMax = new double[capacity];
+        rays = new Ray[capacity];
+        records = new HitRecord[capacity];
+        for (int k = 0; k < capacity; k++) {
+            records[k] = new HitRecord();
+        }
+        hit = new boolean[capacity];
+        boxNear = new double[capacity];
+        boxFar = new double[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // Number of lanes in use, lanes 0 to count - 1
+    public void setCount(int count) {
+        if (count < 0 || count > capacity) {
+            throw new IllegalArgumentException("Packet holds up to " + capacity + " rays, got " + count);
+        }
+        this.count = count;
+    }
+
+    // Puts a ray into a lane with no hit yet
+    public void set(int lane, Ray ray, Interval rayT) {
+        Vec3 origin = ray.getOrigin();
+        Vec3 direction = ray.getDirection();
+        originX[lane] = origin.x;
+        originY[lane] = origin.y;
+        originZ[lane] = origin.z;
+        directionX[lane] = direction.x;
+        directionY[lane] = direction.y;
+        directionZ[lane] = direction.z;
+        inverseX[lane] = 1.0 / direction.x;
+        inverseY[lane] = 1.0 / direction.y;
+        inverseZ[lane] = 1.0 / direction.z;
+        time[lane] = ray.getTime();
+        tMin[lane] = rayT.getMin();
+        tMax[lane] = rayT.getMax();
+        rays[lane] = ray;
+        records[lane].material = null;
+        hit[lane] = false;
+    }
+
+    public Ray getRay(int lane) {
+        return rays[lane];
+    }
+
+    public boolean isHit(int lane) {
+        return hit[lane];
+    }
+
+    // The lane's closest hit, its material is null while the ray has hit nothing
+    public HitRecord getRecord(int lane) {
+        return records[lane];
+    }
+
+    // Adds the work counted on this packet and its records to record (see HitRecord.nodeVisits) and clears it here
+    public void moveCountersTo(HitRecord record) {
+        for (int k = 0; k < capacity; k++) {
+            record.nodeVisits += records[k].nodeVisits;
+            record.primitiveTests += records[k].primitiveTests;
+            records[k].nodeVisits = 0;
+            records[k].primitiveTests = 0;
+        }
+        record.nodeVisits += nodeVisits;
+        record.primitiveTests += primitiveTests;
+        nodeVisits = 0;
+        primitiveTests = 0;
+    }
+
+    /*
+        Slab test of every ray against the box at bounds[b .. b + 5] (min x y z, max x y z), leaving each ray's
+        entry and exit t in boxNear and boxFar; lane k enters the box if boxNear[k] <= boxFar[k].
+        The first loop has no branches so it can run on all lanes at once, the second only looks for an active lane.
+     */
+    boolean entersBox(double[] bounds, int b, boolean[] active) {
+        return entersBox(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5], active);
+    }
+
+    // Same for the float boxes of geometry.TriangleMesh
+    boolean entersBox(float[] bounds, int b, boolean[] active) {
+        return entersBox(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5], active);
+    }
+
+    private boolean entersBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                              boolean[] active) {
+        for (int k = 0; k < count; k++) {
+            double tx0 = (minX - originX[k]) * inverseX[k], tx1 = (maxX - originX[k]) * inverseX[k];
+            double ty0 = (minY - originY[k]) * inverseY[k], ty1 = (maxY - originY[k]) * inverseY[k];
+            double tz0 = (minZ - originZ[k]) * inverseZ[k], tz1 = (maxZ - originZ[k]) * inverseZ[k];
+
+            boxNear[k] = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.max(Math.min(tz0, tz1), tMin[k]));
+            boxFar[k] = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.min(Math.max(tz0, tz1), tMax[k]));
+        }
+        for (int k = 0; k < count; k++) {
+            if (active[k] && boxNear[k] <= boxFar[k]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Which lanes entered the box of the last entersBox, into lanes; taken before the box test gets reused
+    void enteredLanes(boolean[] active, boolean[] lanes) {
+        for (int k = 0; k < count; k++) {
+            lanes[k] = active[k] && boxNear[k] <= boxFar[k];
+        }
+    }
+
+    // Directions the first active ray travels down on, one bit per axis; the packet visits children in its order
+    int negativeAxes(boolean[] active) {
+        for (int k = 0; k < count; k++) {
+            if (active[k]) {
+                return (inverseX[k] < 0 ? 1 : 0) | (inverseY[k] < 0 ? 2 : 0) | (inverseZ[k] < 0 ? 4 : 0);
+            }
+        }
+        return 0;
+    }
+
+    // Traces one lane against an object on its own, for objects without a packet walk
+    void traceLane(Hittable object, int lane) {
+        range.set(tMin[lane], tMax[lane]);
+        if (object.hit(rays[lane], range, records[lane])) {
+            hit[lane] = true;
+            tMax[lane] = records[lane].t;
+        }
+    }
+}
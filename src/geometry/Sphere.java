@@ -3,25 +3,64 @@ package geometry;
 import core.Interval;
 import core.Ray;
 import material.Material;
+import math.Precision;
 import math.Vec3;
 
+/*
+    A sphere, either still or moving in a straight line from center0 at time 0 to center1 at time 1
+    during the camera's shutter interval (see Camera.setShutter), which blurs it along its path.
+    A moving sphere's box covers both ends of the path, and so the whole path, so it can go into a BVH like
+    any other object: the BVH stays valid for every ray time and only the sphere itself looks at the time.
+ */
 public class Sphere implements Hittable {
     private Vec3 center;
+    // center1 - center0, null for a sphere that does not move
+    private Vec3 motion;
     private double radius;
     private Material material;
+    private AABB bbox;
 
     public Sphere(Vec3 center, double radius, Material m) {
         this.center = center;
         this.radius = Math.max(0, radius);
         this.material = m;
+
+        Vec3 radiusVector = new Vec3(this.radius, this.radius, this.radius);
+        this.bbox = new AABB(center.subtract(radiusVector), center.add(radiusVector));
+    }
+
+    public Sphere(Vec3 center0, Vec3 center1, double radius, Material m) {
+        this(center0, radius, m);
+        Vec3 motion = center1.subtract(center0);
+        if (!motion.nearZero()) {
+            this.motion = motion;
+
+            Vec3 radiusVector = new Vec3(this.radius, this.radius, this.radius);
+            this.bbox = new AABB(bbox, new AABB(center1.subtract(radiusVector), center1.add(radiusVector)));
+        }
     }
 
     @Override
     public boolean hit(Ray r, Interval rayT, HitRecord record) {
-        Vec3 oc = center.subtract(r.getOrigin());
-        double a = r.getDirection().lengthSquared();
-        double h = Vec3.dot(r.getDirection(), oc);
-        double c = oc.lengthSquared() - radius*radius;
+        record.primitiveTests++;
+
+        // Plain doubles instead of Vec3s, most calls are misses and should not allocate anything
+        double cx = center.x, cy = center.y, cz = center.z;
+        if (motion != null) {
+            double time = r.getTime();
+            cx += time * motion.x;
+            cy += time * motion.y;
+            cz += time * motion.z;
+        }
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double ocx = cx - origin.x;
+        double ocy = cy - origin.y;
+        double ocz = cz - origin.z;
+
+        double a = direction.lengthSquared();
+        double h = direction.x * ocx + direction.y * ocy + direction.z * ocz;
+        double c = ocx * ocx + ocy * ocy + ocz * ocz - radius*radius;
 
         double discriminant = h*h - a*c;
 
@@ -38,20 +77,63 @@ public class Sphere implements Hittable {
             }
         }
 
-        record.t = root;
-        record.p = r.at(record.t);
-        Vec3 outwardNormal = (record.p.subtract(center)).divide(radius);
-        record.setFaceNormal(r, outwardNormal);
+        record.setSphereHit(r, root, cx, cy, cz, radius, Precision.DOUBLE);
         record.material = this.material;
 
         return true;
     }
 
+    @Override
+    public boolean occluded(Ray r, Interval rayT) {
+        double cx = center.x, cy = center.y, cz = center.z;
+        if (motion != null) {
+            double time = r.getTime();
+            cx += time * motion.x;
+            cy += time * motion.y;
+            cz += time * motion.z;
+        }
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double ocx = cx - origin.x;
+        double ocy = cy - origin.y;
+        double ocz = cz - origin.z;
+
+        double a = direction.lengthSquared();
+        double h = direction.x * ocx + direction.y * ocy + direction.z * ocz;
+        double c = ocx * ocx + ocy * ocy + ocz * ocz - radius*radius;
+
+        double discriminant = h*h - a*c;
+        if (discriminant < 0) {
+            return false;
+        }
+        double sqrtDiscriminant = Math.sqrt(discriminant);
+        return rayT.surrounds((h - sqrtDiscriminant) / a) || rayT.surrounds((h + sqrtDiscriminant) / a);
+    }
+
+    @Override
+    public AABB boundingBox() {
+        return bbox;
+    }
+
+    // The center at time 0
     public Vec3 getCenter() {
         return center;
     }
 
+    // How far the center moves from time 0 to time 1, null for a sphere that stays put
+    public Vec3 getMotion() {
+        return motion;
+    }
+
+    public boolean isMoving() {
+        return motion != null;
+    }
+
     public double getRadius() {
         return radius;
     }
+
+    public Material getMaterial() {
+        return material;
+    }
 }
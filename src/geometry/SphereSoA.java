@@ -0,0 +1,475 @@
+package geometry;
+
+import core.Interval;
+import core.Ray;
+import material.Material;
+import math.Precision;
+import math.Vec3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    A set of spheres stored as a structure of arrays instead of one Sphere object each:
+
+        centerX: [ x0 | x1 | x2 | ... ]
+        centerY: [ y0 | y1 | y2 | ... ]
+        centerZ: [ z0 | z1 | z2 | ... ]
+        radius:  [ r0 | r1 | r2 | ... ]
+        materialIndex → index into a small table of the distinct materials
+        motionX/Y/Z:   how far each center moves over the shutter, only kept when some sphere moves
+
+    The spheres are ordered so that each leaf of a BVH (built by geometry.BvhBuilder) is a contiguous run,
+    and a leaf is tested in two passes:
+        1. a branch-free loop over the run computing every discriminant, which the JIT can turn into SIMD code
+           since it is plain arithmetic over parallel double[]s
+        2. a scalar pass that only solves for t on the spheres whose discriminant was not negative
+
+    Moving spheres have boxes around their whole path, so the BVH holds for every ray time; only pass 1 moves
+    the centers to the ray's time, in a second copy of the loop so still scenes keep the plain one.
+ */
+public class SphereSoA implements Hittable {
+    private static final int MAX_LEAF_SIZE = 8;
+
+    private final double[] centerX;
+    private final double[] centerY;
+    private final double[] centerZ;
+    private final double[] radius;
+    private final double[] motionX;
+    private final double[] motionY;
+    private final double[] motionZ;
+    private final int[] materialIndex;
+    private final Material[] materials;
+
+    private final double[] nodeBounds;
+    private final int[] nodeData;
+    private final AABB bbox;
+    private final ThreadLocal<TraversalState> traversalState;
+
+    private static final class TraversalState {
+        final int[] stack;
+        final double[] discriminant = new double[2 * MAX_LEAF_SIZE];
+        final double[] halfB = new double[2 * MAX_LEAF_SIZE];
+        // The same per ray of a packet, with the rays that entered the current leaf and each ray's closest sphere
+        double[] laneDiscriminant = new double[0];
+        double[] laneHalfB = new double[0];
+        boolean[] lanes = new boolean[0];
+        int[] closest = new int[0];
+
+        TraversalState(int stackSize) {
+            this.stack = new int[stackSize];
+        }
+
+        void fitPacket(int capacity) {
+            if (lanes.length < capacity) {
+                laneDiscriminant = new double[capacity];
+                laneHalfB = new double[capacity];
+                lanes = new boolean[capacity];
+                closest = new int[capacity];
+            }
+        }
+    }
+
+    public SphereSoA(HittableList list) {
+        this(spheresOf(list));
+    }
+
+    public SphereSoA(List<Sphere> spheres) {
+        int count = spheres.size();
+        double[] primBounds = new double[6 * count];
+        AABB bounds = AABB.EMPTY;
+
+        for (int i = 0; i < count; i++) {
+            AABB box = spheres.get(i).boundingBox();
+            for (int axis = 0; axis < 3; axis++) {
+                primBounds[6 * i + axis] = box.axisInterval(axis).getMin();
+                primBounds[6 * i + 3 + axis] = box.axisInterval(axis).getMax();
+            }
+            bounds = new AABB(bounds, box);
+        }
+
+        BvhBuilder builder = new BvhBuilder(primBounds, count, MAX_LEAF_SIZE);
+
+        centerX = new double[count];
+        centerY = new double[count];
+        centerZ = new double[count];
+        radius = new double[count];
+        materialIndex = new int[count];
+
+        // Many spheres share a material, store each distinct one once
+        Map<Material, Integer> materialTable = new IdentityHashMap<>();
+        List<Material> materialList = new ArrayList<>();
+        boolean moving = spheres.stream().anyMatch(Sphere::isMoving);
+        motionX = moving ? new double[count] : null;
+        motionY = moving ? new double[count] : null;
+        motionZ = moving ? new double[count] : null;
+
+        for (int i = 0; i < count; i++) {
+            Sphere s = spheres.get(builder.primIndices[i]);
+            centerX[i] = s.getCenter().x;
+            centerY[i] = s.getCenter().y;
+            centerZ[i] = s.getCenter().z;
+            radius[i] = s.getRadius();
+            if (s.isMoving()) {
+                motionX[i] = s.getMotion().x;
+                motionY[i] = s.getMotion().y;
+                motionZ[i] = s.getMotion().z;
+            }
+            materialIndex[i] = materialTable.computeIfAbsent(s.getMaterial(), m -> {
+                materialList.add(m);
+                return materialList.size() - 1;
+            });
+        }
+
+        this.materials = materialList.toArray(new Material[0]);
+        this.nodeBounds = Arrays.copyOf(builder.nodeBounds, 6 * builder.nodeCount);
+        this.nodeData = Arrays.copyOf(builder.nodeData, 3 * builder.nodeCount);
+        this.bbox = bounds;
+
+        int stackSize = builder.maxDepth + 1;
+        this.traversalState = ThreadLocal.withInitial(() -> new TraversalState(stackSize));
+    }
+
+    @Override
+    public boolean hit(Ray r, Interval rayT, HitRecord record) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double ox = origin.x, oy = origin.y, oz = origin.z;
+        double dx = direction.x, dy = direction.y, dz = direction.z;
+        double invDx = 1.0 / dx, invDy = 1.0 / dy, invDz = 1.0 / dz;
+        int negativeAxes = (invDx < 0 ? 1 : 0) | (invDy < 0 ? 2 : 0) | (invDz < 0 ? 4 : 0);
+        double a = dx * dx + dy * dy + dz * dz;
+        double time = r.getTime();
+
+        TraversalState state = traversalState.get();
+        int[] stack = state.stack;
+        double[] discriminant = state.discriminant;
+        double[] halfB = state.halfB;
+
+        double tMin = rayT.getMin();
+        double closestSoFar = rayT.getMax();
+        int closestSphere = -1;
+        int visits = 0;
+        int tests = 0;
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            visits++;
+            int b = 6 * node;
+            double tx0 = (nodeBounds[b] - ox) * invDx, tx1 = (nodeBounds[b + 3] - ox) * invDx;
+            double ty0 = (nodeBounds[b + 1] - oy) * invDy, ty1 = (nodeBounds[b + 4] - oy) * invDy;
+            double tz0 = (nodeBounds[b + 2] - oz) * invDz, tz1 = (nodeBounds[b + 5] - oz) * invDz;
+
+            double tNear = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.max(Math.min(tz0, tz1), tMin));
+            double tFar = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.min(Math.max(tz0, tz1), closestSoFar));
+
+            if (tNear <= tFar) {
+                int d = 3 * node;
+                int sphereCount = nodeData[d + 1];
+
+                if (sphereCount > 0) {
+                    int first = nodeData[d];
+                    tests += sphereCount;
+
+                    // Pass 1: discriminants for the whole leaf, no branches
+                    if (motionX == null) {
+                        for (int k = 0; k < sphereCount; k++) {
+                            int i = first + k;
+                            double ocx = centerX[i] - ox;
+                            double ocy = centerY[i] - oy;
+                            double ocz = centerZ[i] - oz;
+                            double h = dx * ocx + dy * ocy + dz * ocz;
+                            double c = ocx * ocx + ocy * ocy + ocz * ocz - radius[i] * radius[i];
+                            halfB[k] = h;
+                            discriminant[k] = h * h - a * c;
+                        }
+                    } else {
+                        for (int k = 0; k < sphereCount; k++) {
+                            int i = first + k;
+                            double ocx = centerX[i] + time * motionX[i] - ox;
+                            double ocy = centerY[i] + time * motionY[i] - oy;
+                            double ocz = centerZ[i] + time * motionZ[i] - oz;
+                            double h = dx * ocx + dy * ocy + dz * ocz;
+                            double c = ocx * ocx + ocy * ocy + ocz * ocz - radius[i] * radius[i];
+                            halfB[k] = h;
+                            discriminant[k] = h * h - a * c;
+                        }
+                    }
+
+                    // Pass 2: roots only where the ray can touch the sphere
+                    for (int k = 0; k < sphereCount; k++) {
+                        if (discriminant[k] < 0) {
+                            continue;
+                        }
+                        double sqrtDiscriminant = Math.sqrt(discriminant[k]);
+                        double root = (halfB[k] - sqrtDiscriminant) / a;
+                        if (root <= tMin || root >= closestSoFar) {
+                            root = (halfB[k] + sqrtDiscriminant) / a;
+                            if (root <= tMin || root >= closestSoFar) {
+                                continue;
+                            }
+                        }
+                        closestSoFar = root;
+                        closestSphere = first + k;
+                    }
+                } else {
+                    if ((negativeAxes >> nodeData[d + 2] & 1) != 0) {
+                        stack[stackPtr++] = node + 1;
+                        node = nodeData[d];
+                    } else {
+                        stack[stackPtr++] = nodeData[d];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                break;
+            }
+            node = stack[--stackPtr];
+        }
+
+        record.nodeVisits += visits;
+        record.primitiveTests += tests;
+        if (closestSphere < 0) {
+            return false;
+        }
+
+        // Only the closest sphere fills in the record, every other candidate was just a t value
+        int i = closestSphere;
+        double cx = centerX[i], cy = centerY[i], cz = centerZ[i];
+        if (motionX != null) {
+            cx += time * motionX[i];
+            cy += time * motionY[i];
+            cz += time * motionZ[i];
+        }
+        record.setSphereHit(r, closestSoFar, cx, cy, cz, radius[i], Precision.DOUBLE);
+        record.material = materials[materialIndex[i]];
+        return true;
+    }
+
+    /*
+        The walk of hit for a whole packet. In a leaf the two passes turn around: pass 1 takes one sphere at a time
+        and computes its discriminant for every ray of the packet, a branch-free loop over the packet's ray arrays,
+        and pass 2 solves for t only on the rays that entered the leaf and can touch the sphere.
+     */
+    @Override
+    public void hit(RayPacket packet, boolean[] active) {
+        TraversalState state = traversalState.get();
+        state.fitPacket(packet.getCapacity());
+        int[] stack = state.stack;
+        double[] discriminant = state.laneDiscriminant;
+        double[] halfB = state.laneHalfB;
+        boolean[] lanes = state.lanes;
+        int[] closest = state.closest;
+
+        int count = packet.count;
+        double[] originX = packet.originX, originY = packet.originY, originZ = packet.originZ;
+        double[] directionX = packet.directionX, directionY = packet.directionY, directionZ = packet.directionZ;
+        double[] time = packet.time;
+        double[] tMin = packet.tMin, tMax = packet.tMax;
+        for (int k = 0; k < count; k++) {
+            closest[k] = -1;
+        }
+        int negativeAxes = packet.negativeAxes(active);
+        int visits = 0;
+        long tests = 0;
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            visits++;
+            if (packet.entersBox(nodeBounds, 6 * node, active)) {
+                int d = 3 * node;
+                int sphereCount = nodeData[d + 1];
+
+                if (sphereCount > 0) {
+                    packet.enteredLanes(active, lanes);
+                    int first = nodeData[d];
+                    for (int i = first; i < first + sphereCount; i++) {
+                        double cx = centerX[i], cy = centerY[i], cz = centerZ[i];
+                        double radiusSquared = radius[i] * radius[i];
+
+                        // Pass 1: this sphere's discriminant for every ray, no branches
+                        if (motionX == null) {
+                            for (int k = 0; k < count; k++) {
+                                double dx = directionX[k], dy = directionY[k], dz = directionZ[k];
+                                double ocx = cx - originX[k];
+                                double ocy = cy - originY[k];
+                                double ocz = cz - originZ[k];
+                                double h = dx * ocx + dy * ocy + dz * ocz;
+                                double c = ocx * ocx + ocy * ocy + ocz * ocz - radiusSquared;
+                                halfB[k] = h;
+                                discriminant[k] = h * h - (dx * dx + dy * dy + dz * dz) * c;
+                            }
+                        } else {
+                            double mx = motionX[i], my = motionY[i], mz = motionZ[i];
+                            for (int k = 0; k < count; k++) {
+                                double dx = directionX[k], dy = directionY[k], dz = directionZ[k];
+                                double ocx = cx + time[k] * mx - originX[k];
+                                double ocy = cy + time[k] * my - originY[k];
+                                double ocz = cz + time[k] * mz - originZ[k];
+                                double h = dx * ocx + dy * ocy + dz * ocz;
+                                double c = ocx * ocx + ocy * ocy + ocz * ocz - radiusSquared;
+                                halfB[k] = h;
+                                discriminant[k] = h * h - (dx * dx + dy * dy + dz * dz) * c;
+                            }
+                        }
+
+                        // Pass 2: roots only for the rays in this leaf that can touch the sphere
+                        for (int k = 0; k < count; k++) {
+                            if (!lanes[k]) {
+                                continue;
+                            }
+                            tests++;
+                            if (discriminant[k] < 0) {
+                                continue;
+                            }
+                            double a = directionX[k] * directionX[k] + directionY[k] * directionY[k]
+                                    + directionZ[k] * directionZ[k];
+                            double sqrtDiscriminant = Math.sqrt(discriminant[k]);
+                            double root = (halfB[k] - sqrtDiscriminant) / a;
+                            if (root <= tMin[k] || root >= tMax[k]) {
+                                root = (halfB[k] + sqrtDiscriminant) / a;
+                                if (root <= tMin[k] || root >= tMax[k]) {
+                                    continue;
+                                }
+                            }
+                            tMax[k] = root;
+                            closest[k] = i;
+                        }
+                    }
+                } else {
+                    if ((negativeAxes >> nodeData[d + 2] & 1) != 0) {
+                        stack[stackPtr++] = node + 1;
+                        node = nodeData[d];
+                    } else {
+                        stack[stackPtr++] = nodeData[d];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                break;
+            }
+            node = stack[--stackPtr];
+        }
+
+        packet.nodeVisits += visits;
+        packet.primitiveTests += tests;
+
+        // Records only for the rays whose closest hit so far is one of these spheres
+        for (int k = 0; k < count; k++) {
+            int i = closest[k];
+            if (i < 0) {
+                continue;
+            }
+            Ray r = packet.rays[k];
+            HitRecord record = packet.records[k];
+            double cx = centerX[i], cy = centerY[i], cz = centerZ[i];
+            if (motionX != null) {
+                cx += time[k] * motionX[i];
+                cy += time[k] * motionY[i];
+                cz += time[k] * motionZ[i];
+            }
+            record.setSphereHit(r, tMax[k], cx, cy, cz, radius[i], Precision.DOUBLE);
+            record.material = materials[materialIndex[i]];
+            packet.hit[k] = true;
+        }
+    }
+
+    // Same walk as hit, returning at the first sphere the ray meets inside rayT
+    @Override
+    public boolean occluded(Ray r, Interval rayT) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double ox = origin.x, oy = origin.y, oz = origin.z;
+        double dx = direction.x, dy = direction.y, dz = direction.z;
+        double invDx = 1.0 / dx, invDy = 1.0 / dy, invDz = 1.0 / dz;
+        double a = dx * dx + dy * dy + dz * dz;
+        double time = r.getTime();
+
+        int[] stack = traversalState.get().stack;
+        double tMin = rayT.getMin();
+        double tMax = rayT.getMax();
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            int b = 6 * node;
+            double tx0 = (nodeBounds[b] - ox) * invDx, tx1 = (nodeBounds[b + 3] - ox) * invDx;
+            double ty0 = (nodeBounds[b + 1] - oy) * invDy, ty1 = (nodeBounds[b + 4] - oy) * invDy;
+            double tz0 = (nodeBounds[b + 2] - oz) * invDz, tz1 = (nodeBounds[b + 5] - oz) * invDz;
+
+            double tNear = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.max(Math.min(tz0, tz1), tMin));
+            double tFar = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.min(Math.max(tz0, tz1), tMax));
+
+            if (tNear <= tFar) {
+                int d = 3 * node;
+                int sphereCount = nodeData[d + 1];
+
+                if (sphereCount > 0) {
+                    int first = nodeData[d];
+                    for (int i = first; i < first + sphereCount; i++) {
+                        double ocx = centerX[i] - ox;
+                        double ocy = centerY[i] - oy;
+                        double ocz = centerZ[i] - oz;
+                        if (motionX != null) {
+                            ocx += time * motionX[i];
+                            ocy += time * motionY[i];
+                            ocz += time * motionZ[i];
+                        }
+                        double h = dx * ocx + dy * ocy + dz * ocz;
+                        double c = ocx * ocx + ocy * ocy + ocz * ocz - radius[i] * radius[i];
+                        double discriminant = h * h - a * c;
+                        if (discriminant < 0) {
+                            continue;
+                        }
+                        double sqrtDiscriminant = Math.sqrt(discriminant);
+                        double near = (h - sqrtDiscriminant) / a;
+                        double far = (h + sqrtDiscriminant) / a;
+                        if ((near > tMin && near < tMax) || (far > tMin && far < tMax)) {
+                            return true;
+                        }
+                    }
+                } else {
+                    stack[stackPtr++] = nodeData[d];
+                    node = node + 1;
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                return false;
+            }
+            node = stack[--stackPtr];
+        }
+    }
+
+    @Override
+    public AABB boundingBox() {
+        return bbox;
+    }
+
+    public int size() {
+        return radius.length;
+    }
+
+    static List<Sphere> spheresOf(HittableList list) {
+        List<Sphere> spheres = new ArrayList<>(list.size());
+        for (Hittable object : list.getObjects()) {
+            if (!(object instanceof Sphere)) {
+                throw new IllegalArgumentException("Sphere sets can only hold spheres, got " + object.getClass().getSimpleName());
+            }
+            spheres.add((Sphere) object);
+        }
+        return spheres;
+    }
+}
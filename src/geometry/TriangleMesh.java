@@ -0,0 +1,527 @@
+package geometry;
+
+import core.Interval;
+import core.Ray;
+import material.Material;
+import math.Precision;
+import math.Vec3;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+    A triangle mesh stored as shared, indexed vertex arrays, with its own BVH:
+
+        vertices:   [ x0 y0 z0 | x1 y1 z1 | ... ]     3 floats per vertex, shared by every triangle using it
+        indices:    [ a0 b0 c0 | a1 b1 c1 | ... ]     3 vertex numbers per triangle
+        nodeBounds: [ n0 box | n1 box | ... ]         6 floats per BVH node
+        nodeData:   [ n0 info | n1 info | ... ]       3 ints per BVH node, see geometry.BvhBuilder
+
+    There is no object per triangle. The triangles are reordered so every BVH leaf is a contiguous run of
+    indices, and the node boxes are stored as floats rounded outwards, so the whole mesh costs about
+    12 bytes of indices per triangle, 12 bytes per vertex and well under 20 bytes of BVH per triangle.
+
+    Triangles are tested with the Möller–Trumbore algorithm, which solves for t and the barycentric
+    coordinates (u, v) of the hit directly from the edges, without computing the triangle's plane first:
+
+        origin + t * direction = (1 - u - v) * A + u * B + v * C
+
+    The whole mesh has one material. The normal is the geometric normal of the triangle that was hit.
+
+    write and read store a mesh with its BVH exactly as it is held, so caches (see scene.SceneLoader) can skip
+    the build:
+        vertex floats, index count, node count, stack size (ints), bounding box (6 doubles),
+        then vertices, indices, nodeBounds, nodeData
+    in the buffer's byte order.
+ */
+public class TriangleMesh implements Hittable {
+    private static final int MAX_LEAF_SIZE = 4;
+    // Below this |determinant| the ray runs parallel to the triangle's plane
+    private static final double PARALLEL_EPSILON = 1e-12;
+
+    private final float[] vertices;
+    private final int[] indices;
+    private final Material material;
+
+    private final float[] nodeBounds;
+    private final int[] nodeData;
+    private final AABB bbox;
+    private final ThreadLocal<int[]> traversalStack;
+    private final ThreadLocal<PacketState> packetState = ThreadLocal.withInitial(PacketState::new);
+
+    // Per ray of a packet: whether it entered the current leaf, and its closest triangle
+    private static final class PacketState {
+        boolean[] lanes = new boolean[0];
+        int[] closest = new int[0];
+
+        void fit(int capacity) {
+            if (lanes.length < capacity) {
+                lanes = new boolean[capacity];
+                closest = new int[capacity];
+            }
+        }
+    }
+
+    public TriangleMesh(float[] vertices, int[] indices, Material material) {
+        if (vertices.length % 3 != 0) {
+            throw new IllegalArgumentException("Vertex array length must be a multiple of 3, got " + vertices.length);
+        }
+        if (indices.length % 3 != 0 || indices.length == 0) {
+            throw new IllegalArgumentException("Index array must hold 3 indices per triangle and at least one triangle, got "
+                    + indices.length);
+        }
+        int vertexCount = vertices.length / 3;
+        int triangleCount = indices.length / 3;
+
+        double[] primBounds = new double[6 * triangleCount];
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int tri = 0; tri < triangleCount; tri++) {
+            int b = 6 * tri;
+            for (int axis = 0; axis < 3; axis++) {
+                primBounds[b + axis] = Double.POSITIVE_INFINITY;
+                primBounds[b + 3 + axis] = Double.NEGATIVE_INFINITY;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                int vertex = indices[3 * tri + corner];
+                if (vertex < 0 || vertex >= vertexCount) {
+                    throw new IllegalArgumentException("Triangle " + tri + " refers to vertex " + vertex
+                            + ", the mesh has " + vertexCount);
+                }
+                for (int axis = 0; axis < 3; axis++) {
+                    double value = vertices[3 * vertex + axis];
+                    primBounds[b + axis] = Math.min(primBounds[b + axis], value);
+                    primBounds[b + 3 + axis] = Math.max(primBounds[b + 3 + axis], value);
+                }
+            }
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], primBounds[b + axis]);
+                max[axis] = Math.max(max[axis], primBounds[b + 3 + axis]);
+            }
+        }
+
+        BvhBuilder builder = new BvhBuilder(primBounds, triangleCount, MAX_LEAF_SIZE);
+
+        // Triangles in leaf order, so a leaf covers a contiguous run of indices
+        this.indices = new int[indices.length];
+        for (int i = 0; i < triangleCount; i++) {
+            System.arraycopy(indices, 3 * builder.primIndices[i], this.indices, 3 * i, 3);
+        }
+        this.vertices = vertices;
+        this.material = material;
+
+        // Rounded outwards so the float boxes still contain everything the double boxes did
+        this.nodeBounds = new float[6 * builder.nodeCount];
+        for (int n = 0; n < builder.nodeCount; n++) {
+            for (int axis = 0; axis < 3; axis++) {
+                nodeBounds[6 * n + axis] = Math.nextDown((float) builder.nodeBounds[6 * n + axis]);
+                nodeBounds[6 * n + 3 + axis] = Math.nextUp((float) builder.nodeBounds[6 * n + 3 + axis]);
+            }
+        }
+        this.nodeData = Arrays.copyOf(builder.nodeData, 3 * builder.nodeCount);
+        this.bbox = new AABB(new Vec3(min[0], min[1], min[2]), new Vec3(max[0], max[1], max[2]));
+
+        int stackSize = builder.maxDepth + 1;
+        this.traversalStack = ThreadLocal.withInitial(() -> new int[stackSize]);
+    }
+
+    private TriangleMesh(float[] vertices, int[] indices, Material material, float[] nodeBounds, int[] nodeData,
+                         AABB bbox, int stackSize) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.material = material;
+        this.nodeBounds = nodeBounds;
+        this.nodeData = nodeData;
+        this.bbox = bbox;
+        this.traversalStack = ThreadLocal.withInitial(() -> new int[stackSize]);
+    }
+
+    @Override
+    public boolean hit(Ray r, Interval rayT, HitRecord record) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double ox = origin.x, oy = origin.y, oz = origin.z;
+        double dx = direction.x, dy = direction.y, dz = direction.z;
+        double invDx = 1.0 / dx, invDy = 1.0 / dy, invDz = 1.0 / dz;
+        int negativeAxes = (invDx < 0 ? 1 : 0) | (invDy < 0 ? 2 : 0) | (invDz < 0 ? 4 : 0);
+
+        int[] stack = traversalStack.get();
+        double tMin = rayT.getMin();
+        double closestSoFar = rayT.getMax();
+        int closestTriangle = -1;
+        int visits = 0;
+        int tests = 0;
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            visits++;
+            int b = 6 * node;
+            double tx0 = (nodeBounds[b] - ox) * invDx, tx1 = (nodeBounds[b + 3] - ox) * invDx;
+            double ty0 = (nodeBounds[b + 1] - oy) * invDy, ty1 = (nodeBounds[b + 4] - oy) * invDy;
+            double tz0 = (nodeBounds[b + 2] - oz) * invDz, tz1 = (nodeBounds[b + 5] - oz) * invDz;
+
+            double tNear = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.max(Math.min(tz0, tz1), tMin));
+            double tFar = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.min(Math.max(tz0, tz1), closestSoFar));
+
+            if (tNear <= tFar) {
+                int d = 3 * node;
+                int triangleCount = nodeData[d + 1];
+
+                if (triangleCount > 0) {
+                    int first = nodeData[d];
+                    tests += triangleCount;
+                    for (int tri = first; tri < first + triangleCount; tri++) {
+                        int a = 3 * indices[3 * tri];
+                        int bv = 3 * indices[3 * tri + 1];
+                        int c = 3 * indices[3 * tri + 2];
+
+                        double ax = vertices[a], ay = vertices[a + 1], az = vertices[a + 2];
+                        double e1x = vertices[bv] - ax, e1y = vertices[bv + 1] - ay, e1z = vertices[bv + 2] - az;
+                        double e2x = vertices[c] - ax, e2y = vertices[c + 1] - ay, e2z = vertices[c + 2] - az;
+
+                        // p = direction × e2
+                        double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+                        double det = e1x * px + e1y * py + e1z * pz;
+                        if (Math.abs(det) < PARALLEL_EPSILON) {
+                            continue;
+                        }
+                        double invDet = 1.0 / det;
+
+                        double sx = ox - ax, sy = oy - ay, sz = oz - az;
+                        double u = (sx * px + sy * py + sz * pz) * invDet;
+                        if (u < 0 || u > 1) {
+                            continue;
+                        }
+
+                        // q = s × e1
+                        double qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+                        double v = (dx * qx + dy * qy + dz * qz) * invDet;
+                        if (v < 0 || u + v > 1) {
+                            continue;
+                        }
+
+                        double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+                        if (t <= tMin || t >= closestSoFar) {
+                            continue;
+                        }
+                        closestSoFar = t;
+                        closestTriangle = tri;
+                    }
+                } else {
+                    // Visit the child on the ray's side of the split first, it is more likely to hold the closest hit
+                    if ((negativeAxes >> nodeData[d + 2] & 1) != 0) {
+                        stack[stackPtr++] = node + 1;
+                        node = nodeData[d];
+                    } else {
+                        stack[stackPtr++] = nodeData[d];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                break;
+            }
+            node = stack[--stackPtr];
+        }
+
+        record.nodeVisits += visits;
+        record.primitiveTests += tests;
+        if (closestTriangle < 0) {
+            return false;
+        }
+
+        // Only the closest triangle fills in the record
+        int a = 3 * indices[3 * closestTriangle];
+        int b = 3 * indices[3 * closestTriangle + 1];
+        int c = 3 * indices[3 * closestTriangle + 2];
+        setHit(record, r, closestSoFar, a, b, c);
+        record.material = material;
+        return true;
+    }
+
+    /*
+        The walk of hit for a whole packet. A leaf loads each triangle's vertices and edges once and then runs
+        Möller–Trumbore for every ray that entered the leaf, instead of once per ray and walk.
+     */
+    @Override
+    public void hit(RayPacket packet, boolean[] active) {
+        PacketState state = packetState.get();
+        state.fit(packet.getCapacity());
+        boolean[] lanes = state.lanes;
+        int[] closest = state.closest;
+        int[] stack = traversalStack.get();
+
+        int count = packet.count;
+        double[] originX = packet.originX, originY = packet.originY, originZ = packet.originZ;
+        double[] directionX = packet.directionX, directionY = packet.directionY, directionZ = packet.directionZ;
+        double[] tMin = packet.tMin, tMax = packet.tMax;
+        for (int k = 0; k < count; k++) {
+            closest[k] = -1;
+        }
+        int negativeAxes = packet.negativeAxes(active);
+        int visits = 0;
+        long tests = 0;
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            visits++;
+            if (packet.entersBox(nodeBounds, 6 * node, active)) {
+                int d = 3 * node;
+                int triangleCount = nodeData[d + 1];
+
+                if (triangleCount > 0) {
+                    packet.enteredLanes(active, lanes);
+                    int first = nodeData[d];
+                    for (int tri = first; tri < first + triangleCount; tri++) {
+                        int a = 3 * indices[3 * tri];
+                        int bv = 3 * indices[3 * tri + 1];
+                        int c = 3 * indices[3 * tri + 2];
+
+                        double ax = vertices[a], ay = vertices[a + 1], az = vertices[a + 2];
+                        double e1x = vertices[bv] - ax, e1y = vertices[bv + 1] - ay, e1z = vertices[bv + 2] - az;
+                        double e2x = vertices[c] - ax, e2y = vertices[c + 1] - ay, e2z = vertices[c + 2] - az;
+
+                        for (int k = 0; k < count; k++) {
+                            if (!lanes[k]) {
+                                continue;
+                            }
+                            tests++;
+                            double dx = directionX[k], dy = directionY[k], dz = directionZ[k];
+
+                            double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+                            double det = e1x * px + e1y * py + e1z * pz;
+                            if (Math.abs(det) < PARALLEL_EPSILON) {
+                                continue;
+                            }
+                            double invDet = 1.0 / det;
+
+                            double sx = originX[k] - ax, sy = originY[k] - ay, sz = originZ[k] - az;
+                            double u = (sx * px + sy * py + sz * pz) * invDet;
+                            if (u < 0 || u > 1) {
+                                continue;
+                            }
+
+                            double qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+                            double v = (dx * qx + dy * qy + dz * qz) * invDet;
+                            if (v < 0 || u + v > 1) {
+                                continue;
+                            }
+
+                            double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+                            if (t <= tMin[k] || t >= tMax[k]) {
+                                continue;
+                            }
+                            tMax[k] = t;
+                            closest[k] = tri;
+                        }
+                    }
+                } else {
+                    if ((negativeAxes >> nodeData[d + 2] & 1) != 0) {
+                        stack[stackPtr++] = node + 1;
+                        node = nodeData[d];
+                    } else {
+                        stack[stackPtr++] = nodeData[d];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                break;
+            }
+            node = stack[--stackPtr];
+        }
+
+        packet.nodeVisits += visits;
+        packet.primitiveTests += tests;
+
+        for (int k = 0; k < count; k++) {
+            int tri = closest[k];
+            if (tri < 0) {
+                continue;
+            }
+            int a = 3 * indices[3 * tri];
+            int b = 3 * indices[3 * tri + 1];
+            int c = 3 * indices[3 * tri + 2];
+            Ray r = packet.rays[k];
+            HitRecord record = packet.records[k];
+            setHit(record, r, tMax[k], a, b, c);
+            record.material = material;
+            packet.hit[k] = true;
+        }
+    }
+
+    // Same walk as hit, returning at the first triangle the ray crosses inside rayT
+    @Override
+    public boolean occluded(Ray r, Interval rayT) {
+        Vec3 origin = r.getOrigin();
+        Vec3 direction = r.getDirection();
+        double ox = origin.x, oy = origin.y, oz = origin.z;
+        double dx = direction.x, dy = direction.y, dz = direction.z;
+        double invDx = 1.0 / dx, invDy = 1.0 / dy, invDz = 1.0 / dz;
+
+        int[] stack = traversalStack.get();
+        double tMin = rayT.getMin();
+        double tMax = rayT.getMax();
+
+        int stackPtr = 0;
+        int node = 0;
+        while (true) {
+            int b = 6 * node;
+            double tx0 = (nodeBounds[b] - ox) * invDx, tx1 = (nodeBounds[b + 3] - ox) * invDx;
+            double ty0 = (nodeBounds[b + 1] - oy) * invDy, ty1 = (nodeBounds[b + 4] - oy) * invDy;
+            double tz0 = (nodeBounds[b + 2] - oz) * invDz, tz1 = (nodeBounds[b + 5] - oz) * invDz;
+
+            double tNear = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.max(Math.min(tz0, tz1), tMin));
+            double tFar = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.min(Math.max(tz0, tz1), tMax));
+
+            if (tNear <= tFar) {
+                int d = 3 * node;
+                int triangleCount = nodeData[d + 1];
+
+                if (triangleCount > 0) {
+                    int first = nodeData[d];
+                    for (int tri = first; tri < first + triangleCount; tri++) {
+                        int a = 3 * indices[3 * tri];
+                        int bv = 3 * indices[3 * tri + 1];
+                        int c = 3 * indices[3 * tri + 2];
+
+                        double ax = vertices[a], ay = vertices[a + 1], az = vertices[a + 2];
+                        double e1x = vertices[bv] - ax, e1y = vertices[bv + 1] - ay, e1z = vertices[bv + 2] - az;
+                        double e2x = vertices[c] - ax, e2y = vertices[c + 1] - ay, e2z = vertices[c + 2] - az;
+
+                        double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+                        double det = e1x * px + e1y * py + e1z * pz;
+                        if (Math.abs(det) < PARALLEL_EPSILON) {
+                            continue;
+                        }
+                        double invDet = 1.0 / det;
+
+                        double sx = ox - ax, sy = oy - ay, sz = oz - az;
+                        double u = (sx * px + sy * py + sz * pz) * invDet;
+                        if (u < 0 || u > 1) {
+                            continue;
+                        }
+
+                        double qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+                        double v = (dx * qx + dy * qy + dz * qz) * invDet;
+                        if (v < 0 || u + v > 1) {
+                            continue;
+                        }
+
+                        double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+                        if (t > tMin && t < tMax) {
+                            return true;
+                        }
+                    }
+                } else {
+                    stack[stackPtr++] = nodeData[d];
+                    node = node + 1;
+                    continue;
+                }
+            }
+
+            if (stackPtr == 0) {
+                return false;
+            }
+            node = stack[--stackPtr];
+        }
+    }
+
+    @Override
+    public AABB boundingBox() {
+        return bbox;
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+
+    /*
+        Fills in a hit at t on the triangle with vertex offsets a, b and c. The edges are taken in double, the
+        way the intersection test takes them, so p is moved onto the plane the test hit and not onto one tilted
+        by rounding the edges to float. The rounding left in the normal grows as the triangle gets thinner, by
+        |e1| |e2| / |e1 × e2|, and so does how far p can be off the triangle
+     */
+    private void setHit(HitRecord record, Ray r, double t, int a, int b, int c) {
+        double ax = vertices[a], ay = vertices[a + 1], az = vertices[a + 2];
+        double e1x = vertices[b] - ax, e1y = vertices[b + 1] - ay, e1z = vertices[b + 2] - az;
+        double e2x = vertices[c] - ax, e2y = vertices[c + 1] - ay, e2z = vertices[c + 2] - az;
+        double nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        double thinness = Math.sqrt((e1x * e1x + e1y * e1y + e1z * e1z) * (e2x * e2x + e2y * e2y + e2z * e2z)) / length;
+        nx /= length;
+        ny /= length;
+        nz /= length;
+
+        double magnitude = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            magnitude = Math.max(magnitude, Math.max(Math.abs(vertices[a + axis]),
+                    Math.max(Math.abs(vertices[b + axis]), Math.abs(vertices[c + axis]))));
+        }
+        double planeOffset = nx * ax + ny * ay + nz * az;
+        record.setPlaneHit(r, t, nx, ny, nz, planeOffset, magnitude * thinness, Precision.DOUBLE);
+    }
+
+    public int vertexCount() {
+        return vertices.length / 3;
+    }
+
+    public int triangleCount() {
+        return indices.length / 3;
+    }
+
+    public int nodeCount() {
+        return nodeData.length / 3;
+    }
+
+    // Bytes write puts in the buffer
+    public long byteSize() {
+        return 4 * 4 + 6 * 8 + 4L * (vertices.length + indices.length + nodeBounds.length + nodeData.length);
+    }
+
+    public void write(ByteBuffer out) {
+        out.putInt(vertices.length).putInt(indices.length).putInt(nodeCount()).putInt(traversalStack.get().length);
+        for (int axis = 0; axis < 3; axis++) {
+            out.putDouble(bbox.axisInterval(axis).getMin());
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            out.putDouble(bbox.axisInterval(axis).getMax());
+        }
+        out.asFloatBuffer().put(vertices);
+        out.position(out.position() + 4 * vertices.length);
+        out.asIntBuffer().put(indices);
+        out.position(out.position() + 4 * indices.length);
+        out.asFloatBuffer().put(nodeBounds);
+        out.position(out.position() + 4 * nodeBounds.length);
+        out.asIntBuffer().put(nodeData);
+        out.position(out.position() + 4 * nodeData.length);
+    }
+
+    // Reads what write wrote, without checking it again; only read buffers written by write
+    public static TriangleMesh read(ByteBuffer in, Material material) {
+        float[] vertices = new float[in.getInt()];
+        int[] indices = new int[in.getInt()];
+        int nodeCount = in.getInt();
+        int stackSize = in.getInt();
+        Vec3 min = new Vec3(in.getDouble(), in.getDouble(), in.getDouble());
+        Vec3 max = new Vec3(in.getDouble(), in.getDouble(), in.getDouble());
+        float[] nodeBounds = new float[6 * nodeCount];
+        int[] nodeData = new int[3 * nodeCount];
+
+        in.asFloatBuffer().get(vertices);
+        in.position(in.position() + 4 * vertices.length);
+        in.asIntBuffer().get(indices);
+        in.position(in.position() + 4 * indices.length);
+        in.asFloatBuffer().get(nodeBounds);
+        in.position(in.position() + 4 * nodeBounds.length);
+        in.asIntBuffer().get(nodeData);
+        in.position(in.position() + 4 * nodeData.length);
+        return new TriangleMesh(vertices, indices, material, nodeBounds, nodeData, new AABB(min, max), stackSize);
+    }
+}
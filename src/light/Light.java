@@ -0,0 +1,26 @@
+package light;
+
+import math.Vec3;
+
+/*
+    Something the camera can aim shadow rays at (next-event estimation): instead of hoping a bounced path
+    runs into a small light, every diffuse hit picks a point on a light, checks that nothing is in between
+    and adds its light directly.
+ */
+public interface Light {
+    /**
+     * Pick a direction from point towards this light and fill in sample: the unit direction, the distance to
+     * the light along it, the radiance arriving from there and the density of the pick per solid angle
+     * (or 1 for a point light, which can only be sampled, never hit)
+     * @return false if the light cannot be seen from point at all, sample is then left undefined
+     */
+    boolean sample(Vec3 point, LightSample sample);
+
+    /**
+     * Density per solid angle with which sample, called at origin, would pick the point lightPoint on this
+     * light; 0 if lightPoint is not on this light. lightPoint is a hit point, off the true surface by up to
+     * error (HitRecord.error). Used to weight the light a scattered path ran into against the chance that
+     * light sampling would have found the same point
+     */
+    double pdf(Vec3 origin, Vec3 lightPoint, double error);
+}
@@ -0,0 +1,52 @@
+package light;
+
+import math.Utils;
+import math.Vec3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    The lights of a scene, handed to Camera.setLights. Each light sample picks one light uniformly, so the
+    density of a sample is the chosen light's own density divided by the number of lights.
+ */
+public class LightList {
+    private final List<Light> lights = new ArrayList<>();
+
+    public LightList add(Light light) {
+        lights.add(light);
+        return this;
+    }
+
+    public List<Light> getLights() {
+        return lights;
+    }
+
+    public int size() {
+        return lights.size();
+    }
+
+    public boolean isEmpty() {
+        return lights.isEmpty();
+    }
+
+    // Picks a light and a direction towards it, see Light.sample
+    public boolean sample(Vec3 point, LightSample sample) {
+        int count = lights.size();
+        int index = Math.min((int) (Utils.randomDouble() * count), count - 1);
+        if (!lights.get(index).sample(point, sample)) {
+            return false;
+        }
+        sample.pdf /= count;
+        return true;
+    }
+
+    // Density with which sample would pick lightPoint from origin, 0 for a point on none of the lights
+    public double pdf(Vec3 origin, Vec3 lightPoint, double error) {
+        double pdf = 0;
+        for (Light light : lights) {
+            pdf += light.pdf(origin, lightPoint, error);
+        }
+        return pdf / lights.size();
+    }
+}
@@ -0,0 +1,12 @@
+package light;
+
+import math.Vec3;
+
+// What Light.sample picked, filled in place so each render thread reuses one of these for every sample
+public class LightSample {
+    public final Vec3 direction = new Vec3();   // unit vector from the shaded point towards the light
+    public final Vec3 radiance = new Vec3();    // light arriving along direction, if nothing is in the way
+    public double distance;                     // to the sampled point on the light
+    public double pdf;                          // per solid angle, times the chance of picking this light
+    public boolean delta;                       // a point light, which paths cannot hit by themselves
+}
@@ -0,0 +1,44 @@
+package light;
+
+import math.Vec3;
+
+// A light without size: sharp shadows, and only light sampling can ever find it
+public class PointLight implements Light {
+    private final Vec3 position;
+    private final Vec3 intensity;
+
+    // intensity is the radiant intensity, the light arriving at distance r is intensity / r²
+    public PointLight(Vec3 position, Vec3 intensity) {
+        this.position = position;
+        this.intensity = intensity;
+    }
+
+    @Override
+    public boolean sample(Vec3 point, LightSample sample) {
+        double dx = position.x - point.x, dy = position.y - point.y, dz = position.z - point.z;
+        double distanceSquared = dx * dx + dy * dy + dz * dz;
+        if (distanceSquared == 0) {
+            return false;
+        }
+        double distance = Math.sqrt(distanceSquared);
+        sample.direction.set(dx / distance, dy / distance, dz / distance);
+        sample.radiance.set(intensity).divideAssign(distanceSquared);
+        sample.distance = distance;
+        sample.pdf = 1;
+        sample.delta = true;
+        return true;
+    }
+
+    @Override
+    public double pdf(Vec3 origin, Vec3 lightPoint, double error) {
+        return 0;
+    }
+
+    public Vec3 getPosition() {
+        return position;
+    }
+
+    public Vec3 getIntensity() {
+        return intensity;
+    }
+}
@@ -0,0 +1,66 @@
+package light;
+
+import geometry.Quad;
+import material.DiffuseLight;
+import math.Utils;
+import math.Vec3;
+
+/*
+    A quad with a DiffuseLight material, sampled uniformly over its area. An area sample turns into a density
+    per solid angle with distance² / (cos at the light * area): the further away and the more edge-on the light,
+    the smaller it looks and the more concentrated the samples are.
+ */
+public class QuadLight implements Light {
+    private final Quad quad;
+    private final Vec3 emission;
+
+    public QuadLight(Quad quad) {
+        if (!(quad.getMaterial() instanceof DiffuseLight)) {
+            throw new IllegalArgumentException("A quad light needs a DiffuseLight material");
+        }
+        this.quad = quad;
+        this.emission = ((DiffuseLight) quad.getMaterial()).getEmission();
+    }
+
+    @Override
+    public boolean sample(Vec3 point, LightSample sample) {
+        Vec3 q = quad.getQ(), u = quad.getU(), v = quad.getV();
+        double a = Utils.randomDouble();
+        double b = Utils.randomDouble();
+        double dx = q.x + a * u.x + b * v.x - point.x;
+        double dy = q.y + a * u.y + b * v.y - point.y;
+        double dz = q.z + a * u.z + b * v.z - point.z;
+        double distanceSquared = dx * dx + dy * dy + dz * dz;
+        double distance = Math.sqrt(distanceSquared);
+
+        // Only the front side emits
+        Vec3 n = quad.getNormal();
+        double cosLight = -(n.x * dx + n.y * dy + n.z * dz) / distance;
+        if (cosLight < 1e-8) {
+            return false;
+        }
+        sample.direction.set(dx / distance, dy / distance, dz / distance);
+        sample.radiance.set(emission);
+        sample.distance = distance;
+        sample.pdf = distanceSquared / (cosLight * quad.getArea());
+        sample.delta = false;
+        return true;
+    }
+
+    @Override
+    public double pdf(Vec3 origin, Vec3 lightPoint, double error) {
+        // Quads are always hit in double, where the rounding contains already allows for is larger than error
+        if (!quad.contains(lightPoint)) {
+            return 0;
+        }
+        double dx = lightPoint.x - origin.x, dy = lightPoint.y - origin.y, dz = lightPoint.z - origin.z;
+        double distanceSquared = dx * dx + dy * dy + dz * dz;
+        Vec3 n = quad.getNormal();
+        double cosLight = -(n.x * dx + n.y * dy + n.z * dz) / Math.sqrt(distanceSquared);
+        return cosLight < 1e-8 ? 0 : distanceSquared / (cosLight * quad.getArea());
+    }
+
+    public Quad getQuad() {
+        return quad;
+    }
+}
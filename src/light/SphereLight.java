@@ -0,0 +1,97 @@
+package light;
+
+import geometry.Sphere;
+import material.DiffuseLight;
+import math.Utils;
+import math.Vec3;
+
+/*
+    A still sphere with a DiffuseLight material. Seen from outside, the sphere fills a cone of directions around
+    the line to its center, with half-angle asin(radius / distance). Directions are drawn uniformly inside that
+    cone, so every sample hits the sphere and the density is 1 / the cone's solid angle, 2π (1 - cos θmax).
+ */
+public class SphereLight implements Light {
+    private final Sphere sphere;
+    private final Vec3 emission;
+
+    public SphereLight(Sphere sphere) {
+        if (!(sphere.getMaterial() instanceof DiffuseLight)) {
+            throw new IllegalArgumentException("A sphere light needs a DiffuseLight material");
+        }
+        if (sphere.isMoving()) {
+            throw new IllegalArgumentException("A moving sphere cannot be sampled as a light");
+        }
+        this.sphere = sphere;
+        this.emission = ((DiffuseLight) sphere.getMaterial()).getEmission();
+    }
+
+    @Override
+    public boolean sample(Vec3 point, LightSample sample) {
+        Vec3 c = sphere.getCenter();
+        double radius = sphere.getRadius();
+        double wx = c.x - point.x, wy = c.y - point.y, wz = c.z - point.z;
+        double distanceSquared = wx * wx + wy * wy + wz * wz;
+        double radiusSquared = radius * radius;
+        if (distanceSquared <= radiusSquared) {
+            return false;   // inside the light, the cone is the whole sphere of directions
+        }
+        double centerDistance = Math.sqrt(distanceSquared);
+        wx /= centerDistance;
+        wy /= centerDistance;
+        wz /= centerDistance;
+
+        // Orthonormal basis around w, the direction to the center: v = w × (x or y axis, whichever is less parallel)
+        double ax = Math.abs(wx) > 0.9 ? 0 : 1, ay = 1 - ax;
+        double vx = -wz * ay, vy = wz * ax, vz = wx * ay - wy * ax;
+        double vLength = Math.sqrt(vx * vx + vy * vy + vz * vz);
+        vx /= vLength;
+        vy /= vLength;
+        vz /= vLength;
+        double ux = vy * wz - vz * wy, uy = vz * wx - vx * wz, uz = vx * wy - vy * wx;
+
+        double cosThetaMax = Math.sqrt(1 - radiusSquared / distanceSquared);
+        double cosTheta = 1 + Utils.randomDouble() * (cosThetaMax - 1);
+        double sinTheta = Math.sqrt(Math.max(0, 1 - cosTheta * cosTheta));
+        double phi = 2 * Math.PI * Utils.randomDouble();
+        double x = Math.cos(phi) * sinTheta, y = Math.sin(phi) * sinTheta;
+
+        double dx = x * ux + y * vx + cosTheta * wx;
+        double dy = x * uy + y * vy + cosTheta * wy;
+        double dz = x * uz + y * vz + cosTheta * wz;
+
+        // Distance to the near side of the sphere along the sampled direction
+        double h = dx * (c.x - point.x) + dy * (c.y - point.y) + dz * (c.z - point.z);
+        double discriminant = Math.max(0, h * h - (distanceSquared - radiusSquared));
+
+        sample.direction.set(dx, dy, dz);
+        sample.radiance.set(emission);
+        sample.distance = h - Math.sqrt(discriminant);
+        sample.pdf = 1 / (2 * Math.PI * (1 - cosThetaMax));
+        sample.delta = false;
+        return true;
+    }
+
+    @Override
+    public double pdf(Vec3 origin, Vec3 lightPoint, double error) {
+        Vec3 c = sphere.getCenter();
+        double radius = sphere.getRadius();
+        double px = lightPoint.x - c.x, py = lightPoint.y - c.y, pz = lightPoint.z - c.z;
+        // A float hit (geometry.FloatSphereSoA) lies on the sphere around the center rounded to float, which
+        // can be off this one by far more than the fixed tolerance; error covers that rounding
+        if (Math.abs(Math.sqrt(px * px + py * py + pz * pz) - radius) > error + 1e-7 * Math.max(1, radius)) {
+            return 0;
+        }
+        double wx = c.x - origin.x, wy = c.y - origin.y, wz = c.z - origin.z;
+        double distanceSquared = wx * wx + wy * wy + wz * wz;
+        double radiusSquared = radius * radius;
+        if (distanceSquared <= radiusSquared) {
+            return 0;
+        }
+        double cosThetaMax = Math.sqrt(1 - radiusSquared / distanceSquared);
+        return 1 / (2 * Math.PI * (1 - cosThetaMax));
+    }
+
+    public Sphere getSphere() {
+        return sphere;
+    }
+}
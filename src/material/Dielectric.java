@@ -6,6 +6,9 @@ import math.Utils;
 import math.Vec3;
 
 public class Dielectric extends Material {
+    // Glass absorbs nothing; shared because callers only ever read the attenuation
+    private static final Vec3 REFLECTIVENESS = new Vec3(1.0, 1.0, 1.0);
+
     private final double refractiveIndex;
 
     private static double reflectance(double cos, double refractiveIndex) {
@@ -19,22 +22,20 @@ public class Dielectric extends Material {
     }
 
     @Override
-    public ScatterRecord scatter(Ray rayIn, HitRecord rec) {
-        Vec3 reflectiveness = new Vec3(1.0, 1.0, 1.0);
-
+    public boolean scatter(Ray rayIn, HitRecord rec, ScatterRecord out) {
         double ri = rec.frontFacing ? (1.0 / this.refractiveIndex) : this.refractiveIndex;
 
-        Vec3 unitDirection = Vec3.unitVector(rayIn.getDirection());
-        double cos = Math.min(Vec3.dot(unitDirection.negate(), rec.normal), 1.0);
+        // The unit direction is turned into the new direction in place
+        Vec3 direction = out.set(REFLECTIVENESS, rec.p, rayIn.getTime()).getDirection();
+        direction.set(rayIn.getDirection()).unitVectorAssign();
+        double cos = Math.min(-Vec3.dot(direction, rec.normal), 1.0);
         double sin = Math.sqrt(1.0 - cos*cos);
         boolean cannotRefract = ri * sin > 1.0;
-        Vec3 direction;
         if (cannotRefract || reflectance(cos, ri) > Utils.randomDouble()) {
-            direction = Vec3.reflect(unitDirection, rec.normal);
+            direction.reflectAssign(rec.normal);
         } else {
-            direction = Vec3.refract(unitDirection, rec.normal, ri);
+            direction.refractAssign(rec.normal, ri);
         }
-        Ray scattered = new Ray(rec.p, direction);
-        return new ScatterRecord(reflectiveness, scattered);
+        return true;
     }
 }
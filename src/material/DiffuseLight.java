@@ -0,0 +1,32 @@
+package material;
+
+import core.Ray;
+import geometry.HitRecord;
+import math.Vec3;
+
+/*
+    An emitter: its front side gives off the same radiance in every direction and it reflects nothing.
+    Put it on a geometry.Quad or a geometry.Sphere and register that shape with a light.LightList as well,
+    so the camera can aim shadow rays at it instead of waiting for paths to find it by chance.
+ */
+public class DiffuseLight extends Material {
+    private final Vec3 emission;
+
+    public DiffuseLight(Vec3 emission) {
+        this.emission = emission;
+    }
+
+    @Override
+    public boolean scatter(Ray rayIn, HitRecord rec, ScatterRecord out) {
+        return false;
+    }
+
+    @Override
+    public Vec3 emitted(Ray rayIn, HitRecord rec) {
+        return rec.frontFacing ? emission : null;
+    }
+
+    public Vec3 getEmission() {
+        return emission;
+    }
+}
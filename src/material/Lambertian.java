@@ -4,6 +4,11 @@ import core.Ray;
 import geometry.HitRecord;
 import math.Vec3;
 
+/*
+    Ideal diffuse reflection: the BSDF is reflectance / pi in every direction. Directions are drawn with a
+    density of cos / pi (a unit sphere sample added to the normal), which puts the samples where the cosine
+    makes them count and leaves exactly the reflectance as the attenuation.
+ */
 public class Lambertian extends Material {
     private Vec3 reflectance;
 
@@ -12,12 +17,23 @@ public class Lambertian extends Material {
     }
 
     @Override
-    public ScatterRecord scatter(Ray rayIn, HitRecord rec) {
-        Vec3 scatterDirection = Vec3.randomOnHemisphere(rec.normal);
+    public boolean scatter(Ray rayIn, HitRecord rec, ScatterRecord out) {
+        Vec3 scatterDirection = out.set(this.reflectance, rec.p, rayIn.getTime()).getDirection();
+        Vec3.randomUnitVector(scatterDirection).addAssign(rec.normal);
         if (scatterDirection.nearZero()) {
-            scatterDirection = rec.normal;
+            scatterDirection.set(rec.normal);
         }
-        Ray scattered = new Ray(rec.p, scatterDirection);
-        return new ScatterRecord(this.reflectance, scattered);
+        return true;
+    }
+
+    @Override
+    public boolean isSpecular() {
+        return false;
+    }
+
+    @Override
+    public double scatteringPdf(Ray rayIn, HitRecord rec, Vec3 direction) {
+        double cos = Vec3.dot(rec.normal, direction) / direction.length();
+        return cos <= 0 ? 0 : cos / Math.PI;
     }
 }
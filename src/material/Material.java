@@ -2,10 +2,39 @@ package material;
 
 import core.Ray;
 import geometry.HitRecord;
+import math.Vec3;
 
 public abstract class Material {
-    public abstract ScatterRecord scatter(
+    /*
+        Scatters rayIn at the hit rec into out and returns true, or returns false if the material absorbs the ray.
+        out belongs to the caller and is reused from call to call; rayIn is never out's own scattered ray.
+     */
+    public abstract boolean scatter(
             Ray rayIn,
-            HitRecord rec
+            HitRecord rec,
+            ScatterRecord out
     );
+
+    // Light the surface gives off towards rayIn's origin, null for the (usual) material that gives off none
+    public Vec3 emitted(Ray rayIn, HitRecord rec) {
+        return null;
+    }
+
+    /*
+        Whether scatter sends the ray into one direction (a mirror, glass) or a narrow lobe around it, which a
+        light sample would practically never pick. The camera only samples lights at non-specular materials.
+     */
+    public boolean isSpecular() {
+        return true;
+    }
+
+    /*
+        Density, per solid angle, with which scatter picks direction; 0 for specular materials.
+        For a non-specular material the attenuation scatter returns has to be BSDF * cos / scatteringPdf, the
+        same for every direction, so that attenuation * scatteringPdf(d) is the BSDF times the cosine for any
+        direction d. The camera relies on that to weight light samples it picked itself.
+     */
+    public double scatteringPdf(Ray rayIn, HitRecord rec, Vec3 direction) {
+        return 0;
+    }
 }
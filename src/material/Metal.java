@@ -18,12 +18,11 @@ public class Metal extends Material {
     }
 
     @Override
-    public ScatterRecord scatter(Ray rayIn, HitRecord rec) {
-        Vec3 reflected = Vec3.reflect(Vec3.unitVector(rayIn.getDirection()), rec.normal);
-        reflected = Vec3.unitVector(reflected).add(Vec3.randomUnitVector().multiply(fuzz));
+    public boolean scatter(Ray rayIn, HitRecord rec, ScatterRecord out) {
+        Vec3 reflected = out.set(this.reflectance, rec.p, rayIn.getTime()).getDirection();
+        reflected.set(rayIn.getDirection()).unitVectorAssign().reflectAssign(rec.normal);
+        reflected.unitVectorAssign().addRandomUnitVectorAssign(fuzz);
 
-        Ray scattered = new Ray(rec.p, reflected);
-        if (Vec3.dot(scattered.getDirection(), rec.normal) > 0) return new ScatterRecord(this.reflectance, scattered);
-        return null;
+        return Vec3.dot(reflected, rec.normal) > 0;
     }
 }
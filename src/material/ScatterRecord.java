@@ -3,14 +3,14 @@ package material;
 import core.Ray;
 import math.Vec3;
 
+/*
+    What Material.scatter fills in. The caller owns the record and hands the same one to every scatter call
+    (one per render thread, or one per path in core.Wavefront), so scattering allocates nothing: the material
+    writes into the scattered ray's own origin and direction and points the attenuation at a vector it keeps.
+ */
 public class ScatterRecord {
     private Vec3 attenuation; // signals how much a ray color should be enhanced (multiplied)
-    private Ray scattered;
-
-    public ScatterRecord(Vec3 attenuation, Ray scattered) {
-        this.attenuation = attenuation;
-        this.scattered = scattered;
-    }
+    private final Ray scattered = new Ray();
 
     public Ray getScattered() {
         return scattered;
@@ -19,4 +19,13 @@ public class ScatterRecord {
     public Vec3 getAttenuation() {
         return attenuation;
     }
+
+    // Sets the attenuation, read only by callers, and starts the scattered ray at origin at the given time.
+    // The material then writes the direction into getScattered().getDirection()
+    public Ray set(Vec3 attenuation, Vec3 origin, double time) {
+        this.attenuation = attenuation;
+        scattered.getOrigin().set(origin);
+        scattered.setTime(time);
+        return scattered;
+    }
 }
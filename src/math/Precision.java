@@ -0,0 +1,29 @@
+package math;
+
+/*
+    Floating-point precision of the arithmetic a hit was found with. geometry.FloatSphereSoA stores the spheres
+    and their BVH as floats and intersects them in float: half the memory per sphere and node, for scenes where
+    that is what runs out. It currently renders somewhat slower than DOUBLE, so scene files always build double.
+
+    unitRoundoff is the largest relative error of one rounded operation, and gamma(n) bounds the relative error
+    that n of them in a row can add up to, n u / (1 - n u). Hit points carry such a bound (see HitRecord.error)
+    so rays leaving a surface can start just far enough off it.
+ */
+public enum Precision {
+    DOUBLE(0x1p-53),
+    FLOAT(0x1p-24);
+
+    private final double unitRoundoff;
+
+    Precision(double unitRoundoff) {
+        this.unitRoundoff = unitRoundoff;
+    }
+
+    public double unitRoundoff() {
+        return unitRoundoff;
+    }
+
+    public double gamma(int n) {
+        return n * unitRoundoff / (1 - n * unitRoundoff);
+    }
+}
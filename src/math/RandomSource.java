@@ -0,0 +1,17 @@
+package math;
+
+/**
+ * A per-thread stream of random numbers, see math.Utils for how one is picked for each thread.
+ * Implementations do not need to be thread-safe, every thread gets its own instance.
+ */
+public interface RandomSource {
+    /**
+     * @return a uniformly distributed double in [0, 1)
+     */
+    double nextDouble();
+
+    /**
+     * Restart the stream, the same seed always gives the same sequence
+     */
+    void setSeed(long seed);
+}
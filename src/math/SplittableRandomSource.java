@@ -0,0 +1,22 @@
+package math;
+
+import java.util.SplittableRandom;
+
+// The JDK's SplittableRandom behind the RandomSource interface, for comparing against Xoroshiro128Plus
+public class SplittableRandomSource implements RandomSource {
+    private SplittableRandom random;
+
+    public SplittableRandomSource(long seed) {
+        setSeed(seed);
+    }
+
+    @Override
+    public double nextDouble() {
+        return random.nextDouble();
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+}
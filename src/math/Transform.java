@@ -0,0 +1,171 @@
+package math;
+
+/*
+    An affine transform (rotation, scale, shear and translation) as a 3x4 matrix, with its inverse worked out
+    once when it is built:
+
+        | m00 m01 m02 | m03 |        point  p → M * p + t
+        | m10 m11 m12 | m13 |        vector v → M * v
+        | m20 m21 m22 | m23 |        normal n → (M⁻¹)ᵀ * n, so it stays perpendicular to the surface
+
+    Transforms are immutable. Build one by chaining, where each step is applied after the ones before it:
+        Transform.scale(2).then(Transform.rotateY(30)).then(Transform.translate(4, 0, 1))
+ */
+public final class Transform {
+    private final double m00, m01, m02, m03;
+    private final double m10, m11, m12, m13;
+    private final double m20, m21, m22, m23;
+    private final Transform inverse;
+
+    private Transform(double m00, double m01, double m02, double m03,
+                      double m10, double m11, double m12, double m13,
+                      double m20, double m21, double m22, double m23,
+                      Transform inverse) {
+        this.m00 = m00; this.m01 = m01; this.m02 = m02; this.m03 = m03;
+        this.m10 = m10; this.m11 = m11; this.m12 = m12; this.m13 = m13;
+        this.m20 = m20; this.m21 = m21; this.m22 = m22; this.m23 = m23;
+        this.inverse = inverse != null ? inverse : invert();
+    }
+
+    private Transform(double m00, double m01, double m02, double m03,
+                      double m10, double m11, double m12, double m13,
+                      double m20, double m21, double m22, double m23) {
+        this(m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23, null);
+    }
+
+    public static final Transform IDENTITY = new Transform(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0);
+
+    public static Transform translate(double x, double y, double z) {
+        return new Transform(1, 0, 0, x, 0, 1, 0, y, 0, 0, 1, z);
+    }
+
+    public static Transform translate(Vec3 offset) {
+        return translate(offset.x, offset.y, offset.z);
+    }
+
+    public static Transform scale(double s) {
+        return scale(s, s, s);
+    }
+
+    public static Transform scale(double x, double y, double z) {
+        return new Transform(x, 0, 0, 0, 0, y, 0, 0, 0, 0, z, 0);
+    }
+
+    public static Transform rotateX(double degrees) {
+        double c = Math.cos(Utils.degreesToRadians(degrees)), s = Math.sin(Utils.degreesToRadians(degrees));
+        return new Transform(1, 0, 0, 0, 0, c, -s, 0, 0, s, c, 0);
+    }
+
+    public static Transform rotateY(double degrees) {
+        double c = Math.cos(Utils.degreesToRadians(degrees)), s = Math.sin(Utils.degreesToRadians(degrees));
+        return new Transform(c, 0, s, 0, 0, 1, 0, 0, -s, 0, c, 0);
+    }
+
+    public static Transform rotateZ(double degrees) {
+        double c = Math.cos(Utils.degreesToRadians(degrees)), s = Math.sin(Utils.degreesToRadians(degrees));
+        return new Transform(c, -s, 0, 0, s, c, 0, 0, 0, 0, 1, 0);
+    }
+
+    // This transform followed by next
+    public Transform then(Transform next) {
+        Transform a = next;
+        Transform b = this;
+        return new Transform(
+                a.m00 * b.m00 + a.m01 * b.m10 + a.m02 * b.m20,
+                a.m00 * b.m01 + a.m01 * b.m11 + a.m02 * b.m21,
+                a.m00 * b.m02 + a.m01 * b.m12 + a.m02 * b.m22,
+                a.m00 * b.m03 + a.m01 * b.m13 + a.m02 * b.m23 + a.m03,
+                a.m10 * b.m00 + a.m11 * b.m10 + a.m12 * b.m20,
+                a.m10 * b.m01 + a.m11 * b.m11 + a.m12 * b.m21,
+                a.m10 * b.m02 + a.m11 * b.m12 + a.m12 * b.m22,
+                a.m10 * b.m03 + a.m11 * b.m13 + a.m12 * b.m23 + a.m13,
+                a.m20 * b.m00 + a.m21 * b.m10 + a.m22 * b.m20,
+                a.m20 * b.m01 + a.m21 * b.m11 + a.m22 * b.m21,
+                a.m20 * b.m02 + a.m21 * b.m12 + a.m22 * b.m22,
+                a.m20 * b.m03 + a.m21 * b.m13 + a.m22 * b.m23 + a.m23);
+    }
+
+    public Transform inverse() {
+        return inverse;
+    }
+
+    // The 12 matrix entries row by row, m00 m01 m02 m03 m10 ... m23
+    public double[] toArray() {
+        return new double[]{m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23};
+    }
+
+    public static Transform fromArray(double[] m) {
+        if (m.length != 12) {
+            throw new IllegalArgumentException("A transform has 12 entries, got " + m.length);
+        }
+        return new Transform(m[0], m[1], m[2], m[3], m[4], m[5], m[6], m[7], m[8], m[9], m[10], m[11]);
+    }
+
+    // M * p + t for the point (x, y, z), written into out
+    public Vec3 applyPoint(double x, double y, double z, Vec3 out) {
+        return out.set(
+                m00 * x + m01 * y + m02 * z + m03,
+                m10 * x + m11 * y + m12 * z + m13,
+                m20 * x + m21 * y + m22 * z + m23);
+    }
+
+    /*
+        Bound on how far applyPoint(x, y, z) can be off in any coordinate: its own rounding, plus what becomes of
+        an error of up to error in each of x, y and z (see geometry.HitRecord.error)
+     */
+    public double pointError(double x, double y, double z, double error) {
+        double g = Precision.DOUBLE.gamma(3);
+        double e0 = g * (Math.abs(m00 * x) + Math.abs(m01 * y) + Math.abs(m02 * z) + Math.abs(m03))
+                + (1 + g) * (Math.abs(m00) + Math.abs(m01) + Math.abs(m02)) * error;
+        double e1 = g * (Math.abs(m10 * x) + Math.abs(m11 * y) + Math.abs(m12 * z) + Math.abs(m13))
+                + (1 + g) * (Math.abs(m10) + Math.abs(m11) + Math.abs(m12)) * error;
+        double e2 = g * (Math.abs(m20 * x) + Math.abs(m21 * y) + Math.abs(m22 * z) + Math.abs(m23))
+                + (1 + g) * (Math.abs(m20) + Math.abs(m21) + Math.abs(m22)) * error;
+        return Math.max(e0, Math.max(e1, e2));
+    }
+
+    // M * v for the direction (x, y, z), written into out
+    public Vec3 applyVector(double x, double y, double z, Vec3 out) {
+        return out.set(
+                m00 * x + m01 * y + m02 * z,
+                m10 * x + m11 * y + m12 * z,
+                m20 * x + m21 * y + m22 * z);
+    }
+
+    // (M⁻¹)ᵀ * n for the normal (x, y, z), written into out; not normalized
+    public Vec3 applyNormal(double x, double y, double z, Vec3 out) {
+        Transform i = inverse;
+        return out.set(
+                i.m00 * x + i.m10 * y + i.m20 * z,
+                i.m01 * x + i.m11 * y + i.m21 * z,
+                i.m02 * x + i.m12 * y + i.m22 * z);
+    }
+
+    // Inverse of the 3x3 part by cofactors, then the translation taken back through it
+    private Transform invert() {
+        double c00 = m11 * m22 - m12 * m21;
+        double c01 = m12 * m20 - m10 * m22;
+        double c02 = m10 * m21 - m11 * m20;
+        double det = m00 * c00 + m01 * c01 + m02 * c02;
+        if (Math.abs(det) < 1e-300) {
+            throw new IllegalArgumentException("Transform cannot be inverted, it flattens space (determinant " + det + ")");
+        }
+        double invDet = 1 / det;
+
+        double i00 = c00 * invDet;
+        double i01 = (m02 * m21 - m01 * m22) * invDet;
+        double i02 = (m01 * m12 - m02 * m11) * invDet;
+        double i10 = c01 * invDet;
+        double i11 = (m00 * m22 - m02 * m20) * invDet;
+        double i12 = (m02 * m10 - m00 * m12) * invDet;
+        double i20 = c02 * invDet;
+        double i21 = (m01 * m20 - m00 * m21) * invDet;
+        double i22 = (m00 * m11 - m01 * m10) * invDet;
+
+        return new Transform(
+                i00, i01, i02, -(i00 * m03 + i01 * m13 + i02 * m23),
+                i10, i11, i12, -(i10 * m03 + i11 * m13 + i12 * m23),
+                i20, i21, i22, -(i20 * m03 + i21 * m13 + i22 * m23),
+                this);
+    }
+}
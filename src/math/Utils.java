@@ -1,18 +1,73 @@
 package math;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
 public class Utils {
     public static final double INFINITY = Double.POSITIVE_INFINITY;
     public static final double PI = 3.1415926535897932385;
 
+    /*
+        Every thread draws from its own RandomSource instead of the single shared generator behind Math.random(),
+        which made all render threads fight over one atomic seed.
+        New threads get a distinct starting seed; renders that need to be reproducible reseed explicitly
+        (the camera does it once per pixel, see setSeed and pixelSeed).
+     */
+    private static final AtomicLong threadSeeds = new AtomicLong(System.nanoTime());
+    private static volatile LongFunction<RandomSource> randomSourceFactory = Xoroshiro128Plus::new;
+    private static volatile ThreadLocal<RandomSource> random = newThreadLocalRandom();
+
     public static double degreesToRadians(double degrees) {
         return degrees * PI / 180.0;
     }
 
     public static double randomDouble() {
-        return Math.random();
+        return random.get().nextDouble();
     }
 
     public static double randomDouble(double min, double max) {
         return min + (max - min) * randomDouble();
     }
+
+    // Restart the current thread's random stream
+    public static void setSeed(long seed) {
+        random.get().setSeed(seed);
+    }
+
+    // Seed for one pixel of one render, so every pixel gets the same samples no matter which thread renders it
+    public static long pixelSeed(long renderSeed, int column, int row) {
+        long z = renderSeed * 0x9E3779B97F4A7C15L + ((long) row << 32 | (column & 0xFFFFFFFFL));
+        return Xoroshiro128Plus.splitMix64(z);
+    }
+
+    // Seed for the samples of one pixel from sample index firstSample on, so every pass of a progressive render
+    // draws new samples; the first pass gets the same samples as a one-shot render with pixelSeed
+    public static long sampleSeed(long renderSeed, int column, int row, int firstSample) {
+        long pixel = pixelSeed(renderSeed, column, row);
+        return firstSample == 0 ? pixel : Xoroshiro128Plus.splitMix64(pixel + firstSample * 0x9E3779B97F4A7C15L);
+    }
+
+    // A stream of the current kind that belongs to no thread, for keeping several streams apart on one thread
+    public static RandomSource newRandomSource(long seed) {
+        return randomSourceFactory.apply(seed);
+    }
+
+    // Make source the current thread's stream and return the one it replaces
+    public static RandomSource swapRandomSource(RandomSource source) {
+        ThreadLocal<RandomSource> current = random;
+        RandomSource previous = current.get();
+        current.set(source);
+        return previous;
+    }
+
+    // Swap the generator used by every thread from now on (e.g. SplittableRandomSource::new)
+    public static void setRandomSourceFactory(LongFunction<RandomSource> factory) {
+        randomSourceFactory = factory;
+        random = newThreadLocalRandom();
+    }
+
+    private static ThreadLocal<RandomSource> newThreadLocalRandom() {
+        return ThreadLocal.withInitial(() -> randomSourceFactory.apply(
+                Xoroshiro128Plus.splitMix64(threadSeeds.getAndAdd(0x9E3779B97F4A7C15L))));
+    }
 }
@@ -1,54 +1,101 @@
 package math;
 
+/*
+    The components are plain double fields instead of a double[] so that every vector is a single small object
+    (and often none at all, once the JIT has scalar-replaced it).
+
+    The methods without a suffix (add, subtract, multiply ...) return a new vector and leave this one alone.
+    The *Assign methods write the result into this vector and return it, for hot loops that want to reuse
+    one vector instead of allocating a new one per step.
+ */
 public class Vec3 {
-    public double[] e;
+    public double x;
+    public double y;
+    public double z;
 
     public Vec3() {
-        e = new double[] {0, 0, 0};
     }
 
-    public Vec3(double e0, double e1, double e2) {
-        e = new double[]{e0, e1, e2};
+    public Vec3(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public Vec3(Vec3 v) {
+        this(v.x, v.y, v.z);
     }
 
     public double x() {
-        return e[0];
+        return x;
     }
 
     public double y() {
-        return e[1];
+        return y;
     }
 
     public double z() {
-        return e[2];
+        return z;
     }
 
     public Vec3 negate() {
-        return new Vec3(-e[0], -e[1], -e[2]);
+        return new Vec3(-x, -y, -z);
     }
 
-    // Array access
+    // Array-style access, 0 = x, 1 = y, 2 = z
     public double get(int i) {
-        return e[i];
+        if (i == 0) return x;
+        if (i == 1) return y;
+        return z;
     }
 
     public void set(int i, double value) {
-        e[i] = value;
+        if (i == 0) x = value;
+        else if (i == 1) y = value;
+        else z = value;
+    }
+
+    // Overwrite all components (modifies this vector)
+    public Vec3 set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public Vec3 set(Vec3 v) {
+        return set(v.x, v.y, v.z);
     }
 
     // Addition (modifies this vector)
     public Vec3 addAssign(Vec3 v) {
-        e[0] += v.e[0];
-        e[1] += v.e[1];
-        e[2] += v.e[2];
+        x += v.x;
+        y += v.y;
+        z += v.z;
+        return this;
+    }
+
+    // Subtraction (modifies this vector)
+    public Vec3 subtractAssign(Vec3 v) {
+        x -= v.x;
+        y -= v.y;
+        z -= v.z;
+        return this;
+    }
+
+    // Element-wise multiplication (modifies this vector)
+    public Vec3 multiplyAssign(Vec3 v) {
+        x *= v.x;
+        y *= v.y;
+        z *= v.z;
         return this;
     }
 
     // Multiplication by scalar (modifies this vector)
     public Vec3 multiplyAssign(double t) {
-        e[0] *= t;
-        e[1] *= t;
-        e[2] *= t;
+        x *= t;
+        y *= t;
+        z *= t;
         return this;
     }
 
@@ -57,32 +104,53 @@ public class Vec3 {
         return multiplyAssign(1 / t);
     }
 
+    // this += v * t (modifies this vector)
+    public Vec3 addScaledAssign(Vec3 v, double t) {
+        x += v.x * t;
+        y += v.y * t;
+        z += v.z * t;
+        return this;
+    }
+
+    // Scale to unit length (modifies this vector)
+    public Vec3 unitVectorAssign() {
+        return divideAssign(length());
+    }
+
+    // Flip the direction (modifies this vector)
+    public Vec3 negateAssign() {
+        x = -x;
+        y = -y;
+        z = -z;
+        return this;
+    }
+
     public double length() {
         return Math.sqrt(lengthSquared());
     }
 
     public double lengthSquared() {
-        return e[0] * e[0] + e[1] * e[1] + e[2] * e[2];
+        return x * x + y * y + z * z;
     }
 
     // Vector addition (creates new vector)
     public Vec3 add(Vec3 v) {
-        return new Vec3(e[0] + v.e[0], e[1] + v.e[1], e[2] + v.e[2]);
+        return new Vec3(x + v.x, y + v.y, z + v.z);
     }
 
     // Vector subtraction (creates new vector)
     public Vec3 subtract(Vec3 v) {
-        return new Vec3(e[0] - v.e[0], e[1] - v.e[1], e[2] - v.e[2]);
+        return new Vec3(x - v.x, y - v.y, z - v.z);
     }
 
     // Vector multiplication (element-wise, creates new vector)
     public Vec3 multiply(Vec3 v) {
-        return new Vec3(e[0] * v.e[0], e[1] * v.e[1], e[2] * v.e[2]);
+        return new Vec3(x * v.x, y * v.y, z * v.z);
     }
 
     // Scalar multiplication (creates new vector)
     public Vec3 multiply(double t) {
-        return new Vec3(t * e[0], t * e[1], t * e[2]);
+        return new Vec3(t * x, t * y, t * z);
     }
 
     // Scalar division (creates new vector)
@@ -92,15 +160,15 @@ public class Vec3 {
 
     // Dot product
     public double dot(Vec3 v) {
-        return e[0] * v.e[0] + e[1] * v.e[1] + e[2] * v.e[2];
+        return x * v.x + y * v.y + z * v.z;
     }
 
     // Cross product
     public Vec3 cross(Vec3 v) {
         return new Vec3(
-                e[1] * v.e[2] - e[2] * v.e[1],
-                e[2] * v.e[0] - e[0] * v.e[2],
-                e[0] * v.e[1] - e[1] * v.e[0]
+                y * v.z - z * v.y,
+                z * v.x - x * v.z,
+                x * v.y - y * v.x
         );
     }
 
@@ -164,28 +232,47 @@ public class Vec3 {
     }
 
     public static Vec3 randomUnitVector() {
+        return randomUnitVector(new Vec3());
+    }
+
+    // Same as above, written into out (modifies out)
+    public static Vec3 randomUnitVector(Vec3 out) {
+        // Rejection sampling on plain doubles, only the accepted point goes into the vector
         while (true) {
-            Vec3 p = Vec3.random(-1, 1);
-            double lenSq = p.lengthSquared();
-            if (1e-160 < lenSq && lenSq <= 1) return p.divide(Math.sqrt(lenSq));
+            double px = Utils.randomDouble(-1, 1);
+            double py = Utils.randomDouble(-1, 1);
+            double pz = Utils.randomDouble(-1, 1);
+            double lenSq = px * px + py * py + pz * pz;
+            if (1e-160 < lenSq && lenSq <= 1) {
+                double invLength = 1 / Math.sqrt(lenSq);
+                return out.set(px * invLength, py * invLength, pz * invLength);
+            }
         }
     }
 
+    // this += random unit vector * t (modifies this vector)
+    public Vec3 addRandomUnitVectorAssign(double t) {
+        double ox = x, oy = y, oz = z;
+        randomUnitVector(this);
+        return set(ox + x * t, oy + y * t, oz + z * t);
+    }
+
     public static Vec3 randomOnHemisphere(Vec3 normal) {
         Vec3 onUnitHemisphere = randomUnitVector();
 
         if (Vec3.dot(onUnitHemisphere, normal) > 0.0) {
             return onUnitHemisphere;
         } else {
-            return onUnitHemisphere.negate();
+            return onUnitHemisphere.negateAssign();
         }
     }
 
     public static Vec3 randomInUnitDisk() {
         while (true) {
-            Vec3 p = new Vec3(Utils.randomDouble(-1, 1), Utils.randomDouble(-1, 1), 0);
-            if (p.lengthSquared() < 1) {
-                return p;
+            double px = Utils.randomDouble(-1, 1);
+            double py = Utils.randomDouble(-1, 1);
+            if (px * px + py * py < 1) {
+                return new Vec3(px, py, 0);
             }
         }
     }
@@ -199,7 +286,12 @@ public class Vec3 {
         The dot product calculates the projection of v onto n.
      */
     public static Vec3 reflect(Vec3 v, Vec3 n) {
-        return v.subtract(n.multiply(2 * Vec3.dot(v, n)));
+        return new Vec3(v).reflectAssign(n);
+    }
+
+    // Reflect about the unit normal n (modifies this vector)
+    public Vec3 reflectAssign(Vec3 n) {
+        return addScaledAssign(n, -2 * dot(n));
     }
 
     /**
@@ -210,19 +302,24 @@ public class Vec3 {
      * @return The refracted vector
      */
     public static Vec3 refract(Vec3 uv, Vec3 n, double etaiOverEtat) {
-        double cosTheta = Math.min(Vec3.dot(uv.negate(), n), 1.0);
-        Vec3 rOutPerp = uv.add(n.multiply(cosTheta)).multiply(etaiOverEtat);
-        Vec3 rOutParallel = n.multiply(-Math.sqrt(Math.abs(1.0 - rOutPerp.lengthSquared())));
-        return rOutPerp.add(rOutParallel);
+        return new Vec3(uv).refractAssign(n, etaiOverEtat);
+    }
+
+    // Refract this unit vector as above (modifies this vector): the perpendicular part first, then the parallel one
+    public Vec3 refractAssign(Vec3 n, double etaiOverEtat) {
+        double cosTheta = Math.min(-dot(n), 1.0);
+        addScaledAssign(n, cosTheta).multiplyAssign(etaiOverEtat);
+        double parallelLength = -Math.sqrt(Math.abs(1.0 - lengthSquared()));
+        return addScaledAssign(n, parallelLength);
     }
 
     public boolean nearZero() {
         double s = 1e-8;
-        return (Math.abs(e[0]) < s) && (Math.abs(e[1]) < s) && (Math.abs(e[2]) < s);
+        return (Math.abs(x) < s) && (Math.abs(y) < s) && (Math.abs(z) < s);
     }
 
     @Override
     public String toString() {
-        return e[0] + " " + e[1] + " " + e[2];
+        return x + " " + y + " " + z;
     }
 }
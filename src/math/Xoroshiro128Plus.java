@@ -0,0 +1,48 @@
+package math;
+
+/*
+    xoroshiro128+ (Blackman and Vigna): 128 bits of state, a few shifts, rotates and xors per number.
+    Plenty for Monte Carlo sampling, much cheaper than java.util.Random, and with no shared state between threads.
+    The top 53 bits of each output become the mantissa of the double, the low bits are the weakest and are dropped.
+ */
+public class Xoroshiro128Plus implements RandomSource {
+    private long s0;
+    private long s1;
+
+    public Xoroshiro128Plus(long seed) {
+        setSeed(seed);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        // Spread the seed over both state words with SplitMix64, as the authors recommend
+        long z = seed;
+        s0 = splitMix64(z += 0x9E3779B97F4A7C15L);
+        s1 = splitMix64(z + 0x9E3779B97F4A7C15L);
+        if (s0 == 0 && s1 == 0) {
+            s1 = 1; // the all-zero state would only ever produce zeros
+        }
+    }
+
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = a + b;
+
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    static long splitMix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,251 @@
+package preview;
+
+import core.Camera;
+import geometry.Hittable;
+import math.Vec3;
+import rendering.AccumulationBuffer;
+import rendering.Color;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/*
+    The rendering side of the interactive preview, without any window, so it runs headless as well
+    (see PreviewWindow, and its --offscreen mode).
+
+    Every call to renderPass adds one sample per pixel to an accumulation buffer with Camera.renderPass and
+    turns the buffer into an image, so the first frame after a change shows after a single 1-spp pass and then
+    keeps getting cleaner, up to the camera's samplesPerPixel. The camera moves (orbit, dolly, move, zoom,
+    defocus) only record the new view; the next pass applies it and starts the accumulation over.
+
+        change ──▶ 1/4 width, 1 spp, 2 spp ... ──(no change for SETTLE_NANOS)──▶ full width, 1 spp, 2 spp ...
+
+    While the camera keeps changing, passes render at 1/movingScale of the width (1/16 of the pixels at the
+    default 4) and are drawn scaled up, so dragging stays smooth even where a full pass takes a while.
+
+    Moves may come from any thread (the window's event thread); renderPass is for one render thread only.
+ */
+public class PreviewRenderer {
+    // How long the camera has to stay put before the preview goes back to full resolution
+    static final long SETTLE_NANOS = 250_000_000L;
+
+    private final Camera camera;
+    private final Hittable world;
+    private final int fullWidth;
+    private int movingScale = 4;
+
+    // The view the next pass renders, written by the moves and copied into the camera by renderPass
+    private final Vec3 lookFrom;
+    private final Vec3 lookAt;
+    private final Vec3 vUp;
+    private double verticalFov;
+    private double deFocusAngle;
+    private double focusDist;
+    private boolean changed = true;
+    private long lastChange = System.nanoTime() - SETTLE_NANOS;
+    private boolean stopped;
+
+    // Owned by the render thread
+    private AccumulationBuffer buffer;
+    private int scale;
+    private long passNanos;
+
+    // Finished frames: the render thread fills back and swaps it with front under imageLock, painters read front
+    private final Object imageLock = new Object();
+    private BufferedImage front;
+    private BufferedImage back;
+
+    public PreviewRenderer(Camera camera, Hittable world) {
+        this.camera = camera;
+        this.world = world;
+        this.fullWidth = camera.imageWidth;
+        this.lookFrom = new Vec3(camera.getLookFrom());
+        this.lookAt = new Vec3(camera.getLookAt());
+        this.vUp = camera.getvUp().unitVector();
+        this.verticalFov = camera.getVerticalFov();
+        this.deFocusAngle = camera.getDeFocusAngle();
+        this.focusDist = camera.getFocusDist();
+    }
+
+    // Width divisor while the camera moves, 1 keeps full resolution throughout
+    public synchronized void setMovingScale(int movingScale) {
+        if (movingScale < 1) {
+            throw new IllegalArgumentException("Moving scale must be at least 1, got " + movingScale);
+        }
+        this.movingScale = movingScale;
+    }
+
+    /*
+        Renders one more sample per pixel, first applying any camera change and picking the resolution.
+        Returns false without rendering when the image already has the camera's samplesPerPixel and nothing
+        changed, or after stop; the caller can then wait for a change with awaitChange.
+     */
+    public boolean renderPass() {
+        synchronized (this) {
+            if (stopped) {
+                return false;
+            }
+            boolean moving = System.nanoTime() - lastChange < SETTLE_NANOS;
+            int passScale = moving ? movingScale : 1;
+            if (changed || passScale != scale) {
+                camera.setLookFrom(new Vec3(lookFrom));
+                camera.setLookAt(new Vec3(lookAt));
+                camera.setVerticalFov(verticalFov);
+                camera.setDeFocusAngle(deFocusAngle);
+                camera.setFocusDist(focusDist);
+                camera.imageWidth = Math.max(1, fullWidth / passScale);
+                camera.initialize();
+
+                int width = camera.imageWidth, height = camera.getImageHeight();
+                if (buffer == null || buffer.getWidth() != width || buffer.getHeight() != height) {
+                    buffer = new AccumulationBuffer(width, height, camera.getSeed());
+                } else {
+                    buffer.clear();
+                }
+                changed = false;
+                scale = passScale;
+            }
+        }
+        if (buffer.getSamplesPerPixel() >= camera.getSamplesPerPixel()) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        camera.renderPass(world, buffer, 1);
+        passNanos = System.nanoTime() - start;
+        publish();
+        return true;
+    }
+
+    // Waits until the camera changes, or until a reduced-resolution image is due to go back to full resolution
+    public synchronized void awaitChange() throws InterruptedException {
+        if (stopped) {
+            return;
+        }
+        if (!changed && scale == 1) {
+            wait();
+        } else if (!changed) {
+            wait(Math.max(1, (lastChange + SETTLE_NANOS - System.nanoTime()) / 1_000_000));
+        }
+    }
+
+    // No more passes: wakes a render thread waiting in awaitChange, and renderPass renders nothing from now on
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    // Turns the view around the look-at point: yaw about the up vector, pitch up or down, both in degrees
+    public synchronized void orbit(double yawDegrees, double pitchDegrees) {
+        Vec3 offset = lookFrom.subtract(lookAt);
+        offset = rotate(offset, vUp, Math.toRadians(yawDegrees));
+
+        // Stop a little short of straight up or down, where the view would flip over
+        double elevation = Math.asin(Math.max(-1, Math.min(1, offset.unitVector().dot(vUp))));
+        double limit = Math.toRadians(89);
+        double pitch = Math.max(-limit - elevation, Math.min(limit - elevation, Math.toRadians(pitchDegrees)));
+        Vec3 right = offset.cross(vUp).unitVector();
+        offset = rotate(offset, right, pitch);
+
+        lookFrom.set(lookAt.add(offset));
+        changed();
+    }
+
+    // Moves towards (factor < 1) or away from the look-at point; the focus distance follows so it stays sharp
+    public synchronized void dolly(double factor) {
+        Vec3 offset = lookFrom.subtract(lookAt);
+        lookFrom.set(lookAt.add(offset.multiply(factor)));
+        focusDist *= factor;
+        changed();
+    }
+
+    // Moves the camera and its look-at point together, by fractions of their distance apart
+    public synchronized void move(double right, double up, double forward) {
+        Vec3 view = lookAt.subtract(lookFrom);
+        double distance = view.length();
+        Vec3 w = view.unitVector();
+        Vec3 u = w.cross(vUp).unitVector();
+        Vec3 v = u.cross(w);
+        Vec3 step = u.multiply(right * distance).add(v.multiply(up * distance)).add(w.multiply(forward * distance));
+        lookFrom.addAssign(step);
+        lookAt.addAssign(step);
+        changed();
+    }
+
+    // Narrows (factor < 1) or widens the field of view
+    public synchronized void zoom(double factor) {
+        verticalFov = Math.max(1, Math.min(170, verticalFov * factor));
+        changed();
+    }
+
+    public synchronized void adjustDeFocusAngle(double delta) {
+        deFocusAngle = Math.max(0, deFocusAngle + delta);
+        changed();
+    }
+
+    // The current view as the camera settings of a scene file (see scene.SceneLoader), to paste back into it
+    public synchronized String viewSettings() {
+        return String.format(Locale.ROOT,
+                "\"verticalFov\": %.3f, \"lookFrom\": [%.4f, %.4f, %.4f], \"lookAt\": [%.4f, %.4f, %.4f], "
+                        + "\"defocusAngle\": %.3f, \"focusDist\": %.4f",
+                verticalFov, lookFrom.x, lookFrom.y, lookFrom.z, lookAt.x, lookAt.y, lookAt.z, deFocusAngle, focusDist);
+    }
+
+    /*
+        The last finished frame, at the resolution it was rendered at, or null before the first one. Only valid
+        until the next frame is published, so draw it inside withImage, which holds it for that long.
+     */
+    public void withImage(Consumer<BufferedImage> draw) {
+        synchronized (imageLock) {
+            draw.accept(front);
+        }
+    }
+
+    // The rest describe the last pass, and are for the render thread (or after it has stopped)
+    public AccumulationBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public long getPassNanos() {
+        return passNanos;
+    }
+
+    private void changed() {
+        changed = true;
+        lastChange = System.nanoTime();
+        notifyAll();
+    }
+
+    // The buffer's average as 8-bit gamma-corrected RGB, into back, then back becomes the front image
+    private void publish() {
+        int width = buffer.getWidth(), height = buffer.getHeight();
+        if (back == null || back.getWidth() != width || back.getHeight() != height) {
+            back = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        int[] pixels = ((DataBufferInt) back.getRaster().getDataBuffer()).getData();
+        float[] sums = buffer.getSums();
+        double average = 1.0 / buffer.getSamplesPerPixel();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = Color.toByte(sums[3 * i] * average) << 16
+                    | Color.toByte(sums[3 * i + 1] * average) << 8
+                    | Color.toByte(sums[3 * i + 2] * average);
+        }
+        synchronized (imageLock) {
+            BufferedImage previous = front;
+            front = back;
+            back = previous;
+        }
+    }
+
+    // v turned by angle radians around the unit axis (Rodrigues' rotation formula)
+    private static Vec3 rotate(Vec3 v, Vec3 axis, double angle) {
+        double cos = Math.cos(angle), sin = Math.sin(angle);
+        return v.multiply(cos).add(axis.cross(v).multiply(sin)).add(axis.multiply(axis.dot(v) * (1 - cos)));
+    }
+}
@@ -0,0 +1,218 @@
+package preview;
+
+import core.Camera;
+import rendering.AccumulationBuffer;
+import rendering.ImageWriter;
+import scene.Scene;
+import scene.SceneLoader;
+
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/*
+    Interactive preview of a scene file, for framing a shot without a full render after every camera tweak:
+
+        java -cp out preview.PreviewWindow <scene.json>
+        java -cp out preview.PreviewWindow <scene.json> --offscreen [passes]
+
+    The window shows a 1-spp image as soon as the first pass is done and refines it pass by pass, starting over
+    whenever the camera moves, at reduced resolution while it keeps moving (see PreviewRenderer):
+
+        left drag        orbit around the look-at point        wheel       dolly in / out
+        right drag       move sideways and up / down           W A S D     move forward / left / back / right
+        + / -            narrow / widen the field of view      Q / E       move down / up
+        [ / ]            less / more defocus blur              P           print the view as scene file settings
+
+    On Linux without a display run it under Xvfb (xvfb-run java ...). With --offscreen, or when Java finds no
+    display at all, there is no window: it renders the given number of passes (default 8), orbits the camera
+    once to show the restart at reduced resolution, renders again, prints every pass and writes the last image
+    to the scene's output file.
+ */
+public class PreviewWindow {
+    private static final double ORBIT_DEGREES_PER_PIXEL = 0.3;
+    private static final double MOVE_PER_PIXEL = 0.002;
+    private static final double MOVE_PER_KEY = 0.05;
+
+    private final PreviewRenderer renderer;
+    private final JFrame frame;
+    private final JComponent view;
+    private volatile boolean running = true;
+
+    public PreviewWindow(String title, PreviewRenderer renderer, int width, int height) {
+        this.renderer = renderer;
+        this.frame = new JFrame(title);
+        this.view = new JComponent() {
+            @Override
+            protected void paintComponent(Graphics g) {
+                // Reduced-resolution frames are stretched over the whole view, pixel for pixel
+                renderer.withImage(image -> {
+                    if (image != null) {
+                        g.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+                    }
+                });
+            }
+        };
+        view.setPreferredSize(new Dimension(width, height));
+        view.setFocusable(true);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            private int lastX;
+            private int lastY;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                lastX = e.getX();
+                lastY = e.getY();
+                view.requestFocusInWindow();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                int dx = e.getX() - lastX, dy = e.getY() - lastY;
+                lastX = e.getX();
+                lastY = e.getY();
+                if (SwingUtilities.isRightMouseButton(e)) {
+                    renderer.move(-dx * MOVE_PER_PIXEL, dy * MOVE_PER_PIXEL, 0);
+                } else {
+                    renderer.orbit(-dx * ORBIT_DEGREES_PER_PIXEL, dy * ORBIT_DEGREES_PER_PIXEL);
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                renderer.dolly(Math.pow(1.1, e.getPreciseWheelRotation()));
+            }
+        };
+        view.addMouseListener(mouse);
+        view.addMouseMotionListener(mouse);
+        view.addMouseWheelListener(mouse);
+
+        view.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_W: renderer.move(0, 0, MOVE_PER_KEY); break;
+                    case KeyEvent.VK_S: renderer.move(0, 0, -MOVE_PER_KEY); break;
+                    case KeyEvent.VK_A: renderer.move(-MOVE_PER_KEY, 0, 0); break;
+                    case KeyEvent.VK_D: renderer.move(MOVE_PER_KEY, 0, 0); break;
+                    case KeyEvent.VK_Q: renderer.move(0, -MOVE_PER_KEY, 0); break;
+                    case KeyEvent.VK_E: renderer.move(0, MOVE_PER_KEY, 0); break;
+                    case KeyEvent.VK_OPEN_BRACKET: renderer.adjustDeFocusAngle(-0.1); break;
+                    case KeyEvent.VK_CLOSE_BRACKET: renderer.adjustDeFocusAngle(0.1); break;
+                    case KeyEvent.VK_P: System.out.println(renderer.viewSettings()); break;
+                    default:
+                        break;
+                }
+            }
+
+            @Override
+            public void keyTyped(KeyEvent e) {
+                if (e.getKeyChar() == '+' || e.getKeyChar() == '=') {
+                    renderer.zoom(1 / 1.1);
+                } else if (e.getKeyChar() == '-') {
+                    renderer.zoom(1.1);
+                }
+            }
+        });
+
+        frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                running = false;
+                renderer.stop();
+            }
+        });
+        frame.add(view);
+        frame.pack();
+    }
+
+    // Opens the window and renders on the calling thread until it is closed
+    public void run() throws InterruptedException {
+        SwingUtilities.invokeLater(() -> {
+            frame.setVisible(true);
+            view.requestFocusInWindow();
+        });
+        String title = frame.getTitle();
+
+        while (running) {
+            if (!renderer.renderPass()) {
+                renderer.awaitChange();
+                continue;
+            }
+            AccumulationBuffer buffer = renderer.getBuffer();
+            String status = String.format("%s - %d spp, %.0f ms per pass%s", title, buffer.getSamplesPerPixel(),
+                    renderer.getPassNanos() / 1e6, renderer.getScale() > 1 ? ", 1/" + renderer.getScale() + " resolution" : "");
+            SwingUtilities.invokeLater(() -> {
+                frame.setTitle(status);
+                view.repaint();
+            });
+        }
+        System.out.println(renderer.viewSettings());
+        System.exit(0);
+    }
+
+    // The headless run described at the top: passes, one camera move, passes again, then the image is written
+    static void runOffscreen(Camera camera, PreviewRenderer renderer, int passes) throws IOException,
+            InterruptedException {
+        for (int pass = 0; pass < passes; pass++) {
+            renderAndReport(renderer);
+        }
+        renderer.orbit(15, 0);
+        for (int pass = 0; pass < passes; pass++) {
+            renderAndReport(renderer);
+        }
+        Thread.sleep(PreviewRenderer.SETTLE_NANOS / 1_000_000);
+        for (int pass = 0; pass < passes; pass++) {
+            renderAndReport(renderer);
+        }
+
+        AccumulationBuffer buffer = renderer.getBuffer();
+        ImageWriter.write(camera.getOutputPath(), buffer.getWidth(), buffer.getHeight(), buffer.getSums(),
+                1.0 / buffer.getSamplesPerPixel());
+        System.out.println("Image created at: " + camera.getOutputPath().toAbsolutePath());
+        System.out.println(renderer.viewSettings());
+    }
+
+    private static void renderAndReport(PreviewRenderer renderer) {
+        if (!renderer.renderPass()) {
+            return;
+        }
+        AccumulationBuffer buffer = renderer.getBuffer();
+        System.out.printf("%4d x %-4d %4d spp  %7.1f ms%n", buffer.getWidth(), buffer.getHeight(),
+                buffer.getSamplesPerPixel(), renderer.getPassNanos() / 1e6);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: PreviewWindow <scene.json> [--offscreen [passes]]");
+            System.exit(2);
+        }
+        Scene scene = SceneLoader.load(Paths.get(args[0]));
+        Camera camera = scene.getCamera();
+        camera.initialize();
+        int width = camera.imageWidth, height = camera.getImageHeight();
+        PreviewRenderer renderer = new PreviewRenderer(camera, scene.getWorld());
+
+        boolean offscreen = args.length > 1 && args[1].equals("--offscreen");
+        if (offscreen || GraphicsEnvironment.isHeadless()) {
+            runOffscreen(camera, renderer, args.length > 2 ? Integer.parseInt(args[2]) : 8);
+            System.exit(0);
+        }
+        new PreviewWindow("Preview: " + args[0], renderer, width, height).run();
+    }
+}
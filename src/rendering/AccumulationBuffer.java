@@ -0,0 +1,119 @@
+package rendering;
+
+import math.Vec3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/*
+    Running sums of every sample traced so far, three floats (r, g, b) per pixel, row by row.
+    A progressive render adds one pass after another into it, and the image is the sums divided by the sample count.
+
+    Every pass gives every pixel the same number of samples, so one count covers the whole buffer.
+
+    The buffer can be checkpointed to disk and loaded back to carry on with more samples. A checkpoint is:
+        magic "RTAC", version, width, height, render seed, samples per pixel, then width * height * 3 floats
+ */
+public class AccumulationBuffer {
+    private static final int MAGIC = 0x52544143;    // "RTAC"
+    private static final int VERSION = 1;
+
+    private final int width;
+    private final int height;
+    private final long seed;
+    private final float[] sums;
+    private int samplesPerPixel;
+
+    public AccumulationBuffer(int width, int height, long seed) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        this.sums = new float[width * height * 3];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+
+    // Called once a pass has added its samples to every pixel
+    public void addSamples(int samples) {
+        samplesPerPixel += samples;
+    }
+
+    // Back to no samples, to start the image over without a new buffer
+    public void clear() {
+        Arrays.fill(sums, 0);
+        samplesPerPixel = 0;
+    }
+
+    // Adds a pixel's summed samples; different threads may add to different pixels at the same time
+    public void add(int column, int row, Vec3 color) {
+        int i = (row * width + column) * 3;
+        sums[i] += (float) color.x;
+        sums[i + 1] += (float) color.y;
+        sums[i + 2] += (float) color.z;
+    }
+
+    // The packed sums, r, g, b per pixel row by row; divide by getSamplesPerPixel for the image
+    public float[] getSums() {
+        return sums;
+    }
+
+    /*
+        Writes to a temporary file next to the target and then moves it over the target,
+        so a job killed in the middle of a save still leaves the previous checkpoint intact.
+     */
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeLong(seed);
+            out.writeInt(samplesPerPixel);
+            for (float sum : sums) {
+                out.writeFloat(sum);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static AccumulationBuffer load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a render checkpoint");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has checkpoint version " + version + ", expected " + VERSION);
+            }
+
+            AccumulationBuffer buffer = new AccumulationBuffer(in.readInt(), in.readInt(), in.readLong());
+            buffer.samplesPerPixel = in.readInt();
+            for (int i = 0; i < buffer.sums.length; i++) {
+                buffer.sums[i] = in.readFloat();
+            }
+            return buffer;
+        }
+    }
+}
@@ -1,11 +1,5 @@
 package rendering;
 
-import core.Interval;
-import math.Vec3;
-
-import java.io.BufferedWriter;
-import java.io.IOException;
-
 public class Color {
 
     private static double linearToGama(double linearComponent) {
@@ -13,20 +7,9 @@ public class Color {
         return 0;
     }
 
-    public static void writeColor(BufferedWriter w, Vec3 pixelColor) throws IOException {
-        double r = pixelColor.x();
-        double g = pixelColor.y();
-        double b = pixelColor.z();
-
-        r = linearToGama(r);
-        g = linearToGama(g);
-        b = linearToGama(b);
-
-        Interval intensity = new Interval(0.000, 0.999);
-        int rByte = (int)(256 * intensity.clamp(r));
-        int gByte = (int)(256 * intensity.clamp(g));
-        int bByte = (int)(256 * intensity.clamp(b));
-
-        w.write(rByte + " " + gByte + " " + bByte + "\n");
+    // One linear color component to a gamma-corrected 8-bit value, clamped to [0, 255]
+    public static int toByte(double linearComponent) {
+        double gamma = linearToGama(linearComponent);
+        return (int) (256 * Math.min(gamma, 0.999));
     }
 }
@@ -0,0 +1,115 @@
+package rendering;
+
+import math.Vec3;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+    The pixels of one frame, stored as named layers. Each layer is a single float[] holding channels values
+    per pixel, row by row from the top, so a whole layer is one object no matter how big the image is:
+
+        color   (3 channels)  r g b | r g b | r g b ...
+        samples (1 channel)   n | n | n ...
+
+    Beside the color a render can keep any other per-pixel output (AOV: sample counts, depth, normals ...)
+    as its own layer. Render workers write straight into the arrays; every pixel belongs to one tile,
+    so no two threads write the same values, and the scheduler's join makes the writes visible afterwards.
+ */
+public class Framebuffer {
+    public static final String COLOR = "color";
+    public static final String SAMPLES = "samples";
+
+    private final int width;
+    private final int height;
+    private final Map<String, Layer> layers = new LinkedHashMap<>();
+
+    public Framebuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Adds a zeroed layer, or returns the existing one if a layer of that name and channel count is already there
+    public Layer addLayer(String name, int channels) {
+        Layer layer = layers.get(name);
+        if (layer == null) {
+            layer = new Layer(name, channels);
+            layers.put(name, layer);
+        } else if (layer.channels != channels) {
+            throw new IllegalArgumentException("Layer " + name + " has " + layer.channels + " channels, not " + channels);
+        }
+        return layer;
+    }
+
+    public Layer getLayer(String name) {
+        Layer layer = layers.get(name);
+        if (layer == null) {
+            throw new IllegalArgumentException("No layer " + name + " in this framebuffer");
+        }
+        return layer;
+    }
+
+    public boolean hasLayer(String name) {
+        return layers.containsKey(name);
+    }
+
+    public class Layer {
+        private final String name;
+        private final int channels;
+        private final float[] data;
+
+        private Layer(String name, int channels) {
+            if (channels < 1) {
+                throw new IllegalArgumentException("A layer needs at least 1 channel, got " + channels);
+            }
+            this.name = name;
+            this.channels = channels;
+            this.data = new float[width * height * channels];
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        // The packed values, channels floats per pixel row by row
+        public float[] getData() {
+            return data;
+        }
+
+        public float get(int column, int row, int channel) {
+            return data[(row * width + column) * channels + channel];
+        }
+
+        public void set(int column, int row, int channel, float value) {
+            data[(row * width + column) * channels + channel] = value;
+        }
+
+        // Writes a color scaled by scale into the first three channels of a pixel
+        public void set(int column, int row, Vec3 color, double scale) {
+            int i = (row * width + column) * channels;
+            data[i] = (float) (color.x * scale);
+            data[i + 1] = (float) (color.y * scale);
+            data[i + 2] = (float) (color.z * scale);
+        }
+    }
+}
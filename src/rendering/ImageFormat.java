@@ -0,0 +1,19 @@
+package rendering;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+// The image file types rendering.ImageWriter can produce, picked by file extension
+public enum ImageFormat {
+    PPM,    // binary P6, 8 bits per channel, gamma corrected
+    PNG,    // through javax.imageio, 8 bits per channel, gamma corrected
+    PFM;    // portable float map, 32-bit linear floats per channel, nothing clamped (HDR)
+
+    public static ImageFormat fromPath(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".ppm")) return PPM;
+        if (name.endsWith(".png")) return PNG;
+        if (name.endsWith(".pfm")) return PFM;
+        throw new IllegalArgumentException("Unsupported image type " + file + ", use .ppm, .png or .pfm");
+    }
+}
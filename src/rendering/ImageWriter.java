@@ -0,0 +1,112 @@
+package rendering;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+    Writes an image straight from a packed pixel buffer: r, g, b floats per pixel, row by row from the top,
+    in linear color. Every value is multiplied by scale first, so a buffer of sample sums can be written as is.
+
+    PPM and PFM are encoded one row at a time into a reused ByteBuffer and written to a FileChannel,
+    no String or object per pixel. PNG goes through ImageIO, which wants a whole BufferedImage.
+ */
+public class ImageWriter {
+
+    // Writes a 3-channel framebuffer layer
+    public static void write(Path file, Framebuffer.Layer layer, double scale) throws IOException {
+        if (layer.getChannels() != 3) {
+            throw new IllegalArgumentException("Layer " + layer.getName() + " has " + layer.getChannels()
+                    + " channels, an image needs 3");
+        }
+        write(file, layer.getWidth(), layer.getHeight(), layer.getData(), scale);
+    }
+
+    public static void write(Path file, int width, int height, float[] rgb, double scale) throws IOException {
+        switch (ImageFormat.fromPath(file)) {
+            case PPM:
+                writePpm(file, width, height, rgb, scale);
+                break;
+            case PNG:
+                writePng(file, width, height, rgb, scale);
+                break;
+            case PFM:
+                writePfm(file, width, height, rgb, scale);
+                break;
+        }
+    }
+
+    private static void writePpm(Path file, int width, int height, float[] rgb, double scale) throws IOException {
+        try (FileChannel channel = openForWrite(file)) {
+            writeFully(channel, header("P6\n" + width + " " + height + "\n255\n"));
+
+            ByteBuffer row = ByteBuffer.allocateDirect(width * 3);
+            for (int y = 0; y < height; y++) {
+                row.clear();
+                int i = y * width * 3;
+                for (int x = 0; x < width * 3; x++) {
+                    row.put((byte) Color.toByte(rgb[i + x] * scale));
+                }
+                row.flip();
+                writeFully(channel, row);
+            }
+        }
+    }
+
+    /*
+        PFM: header "PF", size, and a scale whose sign gives the byte order (negative = little endian),
+        then the rows from the bottom of the image up.
+     */
+    private static void writePfm(Path file, int width, int height, float[] rgb, double scale) throws IOException {
+        try (FileChannel channel = openForWrite(file)) {
+            writeFully(channel, header("PF\n" + width + " " + height + "\n-1.0\n"));
+
+            ByteBuffer row = ByteBuffer.allocateDirect(width * 3 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int y = height - 1; y >= 0; y--) {
+                row.clear();
+                int i = y * width * 3;
+                for (int x = 0; x < width * 3; x++) {
+                    row.putFloat((float) (rgb[i + x] * scale));
+                }
+                row.flip();
+                writeFully(channel, row);
+            }
+        }
+    }
+
+    private static void writePng(Path file, int width, int height, float[] rgb, double scale) throws IOException {
+        int[] packed = new int[width * height];
+        for (int p = 0, i = 0; p < packed.length; p++, i += 3) {
+            packed[p] = Color.toByte(rgb[i] * scale) << 16
+                    | Color.toByte(rgb[i + 1] * scale) << 8
+                    | Color.toByte(rgb[i + 2] * scale);
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, packed, 0, width);
+        if (!ImageIO.write(image, "png", file.toFile())) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+
+    private static FileChannel openForWrite(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static ByteBuffer header(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package rendering;
+
+/*
+    A rectangle of pixels [x0, x1) × [y0, y1) rendered as one unit of work.
+    Tiles over the same pixels are equal: a progressive render schedules new ones every pass, and
+    stats.RenderStats adds up the passes of a tile by using it as a map key.
+ */
+public class Tile {
+    public final int x0;
+    public final int y0;
+    public final int x1;
+    public final int y1;
+
+    public Tile(int x0, int y0, int x1, int y1) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+    }
+
+    public int width() {
+        return x1 - x0;
+    }
+
+    public int height() {
+        return y1 - y0;
+    }
+
+    public int pixelCount() {
+        return width() * height();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Tile)) {
+            return false;
+        }
+        Tile other = (Tile) o;
+        return x0 == other.x0 && y0 == other.y0 && x1 == other.x1 && y1 == other.y1;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((x0 * 31 + y0) * 31 + x1) * 31 + y1;
+    }
+}
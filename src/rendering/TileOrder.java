@@ -0,0 +1,8 @@
+package rendering;
+
+// The order tiles are handed out in, see rendering.TileScheduler
+public enum TileOrder {
+    SCANLINE,   // left to right, top to bottom
+    SPIRAL,     // outwards from the image center, where the subject usually is
+    HILBERT     // along a Hilbert curve, so any run of consecutive tiles forms a compact patch of the image
+}
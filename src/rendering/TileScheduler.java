@@ -0,0 +1,125 @@
+package rendering;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/*
+    Splits the image into square tiles and renders them on a ForkJoinPool.
+
+    One task per scanline (the old parallel stream) balances badly: a row through the glass spheres costs many
+    times more than a row of sky, and a thread walks a whole row before it touches the next one.
+    Tiles are small enough to even that out and keep a thread's rays within one patch of the scene.
+
+    The ordered tile list is handed to the pool as one task that keeps splitting itself in half:
+
+            [ t0 t1 t2 t3 t4 t5 t6 t7 ]
+              /                  \
+        [ t0 t1 t2 t3 ]     [ t4 t5 t6 t7 ]   ← an idle worker steals a whole half
+          /        \
+       [ t0 t1 ]  [ t2 t3 ] ...
+
+    Each worker renders its own half front to back, and idle workers steal the biggest pending half from a busy one.
+    With Hilbert ordering every one of those halves is a compact block of the image, so stolen work stays coherent too.
+ */
+public class TileScheduler {
+    private final List<Tile> tiles;
+
+    public TileScheduler(int imageWidth, int imageHeight, int tileSize, TileOrder order) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be at least 1, got " + tileSize);
+        }
+
+        int tilesX = (imageWidth + tileSize - 1) / tileSize;
+        int tilesY = (imageHeight + tileSize - 1) / tileSize;
+
+        List<int[]> grid = new ArrayList<>(tilesX * tilesY);
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                grid.add(new int[]{tx, ty});
+            }
+        }
+
+        if (order == TileOrder.SPIRAL) {
+            double cx = (tilesX - 1) / 2.0;
+            double cy = (tilesY - 1) / 2.0;
+            // Ring by ring (Chebyshev distance from the center), clockwise within a ring
+            grid.sort(Comparator
+                    .comparingDouble((int[] t) -> Math.max(Math.abs(t[0] - cx), Math.abs(t[1] - cy)))
+                    .thenComparingDouble(t -> Math.atan2(t[1] - cy, t[0] - cx)));
+        } else if (order == TileOrder.HILBERT) {
+            int side = Integer.highestOneBit(Math.max(Math.max(tilesX, tilesY) - 1, 1)) << 1;
+            grid.sort(Comparator.comparingLong(t -> hilbertIndex(side, t[0], t[1])));
+        }
+
+        tiles = new ArrayList<>(grid.size());
+        for (int[] t : grid) {
+            int x0 = t[0] * tileSize;
+            int y0 = t[1] * tileSize;
+            tiles.add(new Tile(x0, y0, Math.min(x0 + tileSize, imageWidth), Math.min(y0 + tileSize, imageHeight)));
+        }
+    }
+
+    public List<Tile> getTiles() {
+        return tiles;
+    }
+
+    // Renders every tile on the pool and returns once all of them are done
+    public void run(ForkJoinPool pool, Consumer<Tile> renderTile) {
+        pool.invoke(new TileRange(renderTile, 0, tiles.size()));
+    }
+
+    private class TileRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Consumer<Tile> renderTile;
+        private final int start;
+        private final int end;
+
+        TileRange(Consumer<Tile> renderTile, int start, int end) {
+            this.renderTile = renderTile;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                if (end > start) {
+                    renderTile.accept(tiles.get(start));
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new TileRange(renderTile, start, mid), new TileRange(renderTile, mid, end));
+        }
+    }
+
+    /*
+        Distance of cell (x, y) along the Hilbert curve that fills a side × side grid (side is a power of two).
+        Standard rotate-and-flip formulation: at every scale, pick the quadrant, then rotate the coordinates
+        so the curve inside that quadrant has the same orientation as the whole.
+     */
+    private static long hilbertIndex(int side, int x, int y) {
+        long d = 0;
+        for (int s = side / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = side - 1 - x;
+                    y = side - 1 - y;
+                }
+                int swap = x;
+                x = y;
+                y = swap;
+            }
+        }
+        return d;
+    }
+}
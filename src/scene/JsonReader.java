@@ -0,0 +1,355 @@
+package scene;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/*
+    A pull parser for JSON: the caller asks for the next token (beginObject, nextName, nextDouble, ...) and the
+    reader only ever holds one buffer of the input, so scene files much larger than memory can be streamed.
+
+    Errors are IOExceptions naming the source and the line and column where the input stopped making sense.
+ */
+class JsonReader {
+    enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    // What the reader expects next in each open object or array
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+    private final String source;
+    private final char[] buffer = new char[1 << 16];
+    private int pos;
+    private int limit;
+
+    private int line = 1;
+    private long lineStart;
+    private long bufferStart;
+
+    private int[] scopes = new int[32];
+    private int depth;
+    private Token peeked;
+    private final StringBuilder text = new StringBuilder();
+
+    JsonReader(Reader in, String source) {
+        this.in = in;
+        this.source = source;
+        scopes[depth++] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        pos++;
+        depth--;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        pos++;
+        depth--;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    String nextString() throws IOException {
+        expect(Token.STRING);
+        return readString();
+    }
+
+    double nextDouble() throws IOException {
+        expect(Token.NUMBER);
+        String number = readNumber();
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("malformed number " + number);
+        }
+    }
+
+    long nextLong() throws IOException {
+        expect(Token.NUMBER);
+        String number = readNumber();
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw error("expected a whole number, got " + number);
+        }
+    }
+
+    int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw error("number " + value + " is too large");
+        }
+        return (int) value;
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        if (current() == 't') {
+            readLiteral("true");
+            return true;
+        }
+        readLiteral("false");
+        return false;
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+        readLiteral("null");
+    }
+
+    // Skips the next value, however deeply nested
+    void skipValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case STRING:
+                nextString();
+                break;
+            case NUMBER:
+                readNumber();
+                peeked = null;
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            default:
+                throw error("expected a value, got " + peek());
+        }
+    }
+
+    // An IOException pointing at where the reader is now
+    IOException error(String message) {
+        long column = bufferStart + pos - lineStart + 1;
+        return new IOException(source + ":" + line + ":" + column + ": " + message);
+    }
+
+    private void expect(Token token) throws IOException {
+        Token actual = peek();
+        if (actual != token) {
+            throw error("expected " + token + ", got " + actual);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            scopes = Arrays.copyOf(scopes, 2 * depth);
+        }
+        scopes[depth++] = scope;
+    }
+
+    // Consumes the separators before the next token and works out what it is, without consuming the token itself
+    private Token doPeek() throws IOException {
+        int scope = scopes[depth - 1];
+        if (scope == EMPTY_ARRAY || scope == NONEMPTY_ARRAY) {
+            int c = nextNonWhitespace();
+            if (c == ']') {
+                return Token.END_ARRAY;
+            }
+            if (scope == NONEMPTY_ARRAY) {
+                if (c != ',') {
+                    throw error("expected ',' or ']'");
+                }
+                pos++;
+            }
+            scopes[depth - 1] = NONEMPTY_ARRAY;
+        } else if (scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT) {
+            int c = nextNonWhitespace();
+            if (c == '}') {
+                return Token.END_OBJECT;
+            }
+            if (scope == NONEMPTY_OBJECT) {
+                if (c != ',') {
+                    throw error("expected ',' or '}'");
+                }
+                pos++;
+                c = nextNonWhitespace();
+            }
+            if (c != '"') {
+                throw error("expected a quoted name");
+            }
+            scopes[depth - 1] = DANGLING_NAME;
+            return Token.NAME;
+        } else if (scope == DANGLING_NAME) {
+            if (nextNonWhitespace() != ':') {
+                throw error("expected ':'");
+            }
+            pos++;
+            scopes[depth - 1] = NONEMPTY_OBJECT;
+        } else if (scope == EMPTY_DOCUMENT) {
+            scopes[depth - 1] = NONEMPTY_DOCUMENT;
+        } else {
+            if (nextNonWhitespace() == -1) {
+                return Token.END_DOCUMENT;
+            }
+            throw error("unexpected data after the end of the document");
+        }
+
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{': return Token.BEGIN_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case '"': return Token.STRING;
+            case 't': case 'f': return Token.BOOLEAN;
+            case 'n': return Token.NULL;
+            case -1: throw error("unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw error("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    // The next character that is not whitespace, left unconsumed, or -1 at the end of the input
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = current();
+            if (c == '\n') {
+                line++;
+                lineStart = bufferStart + pos + 1;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    private int current() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    private boolean fill() throws IOException {
+        bufferStart += limit;
+        pos = 0;
+        limit = 0;
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) == 0) {
+            // Readers may return 0 before the end, only -1 means there is nothing left
+        }
+        if (read < 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    private String readString() throws IOException {
+        pos++;  // opening quote
+        text.setLength(0);
+        while (true) {
+            int c = current();
+            if (c == -1 || c == '\n') {
+                throw error("unterminated string");
+            }
+            pos++;
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c != '\\') {
+                text.append((char) c);
+                continue;
+            }
+            int escaped = current();
+            pos++;
+            switch (escaped) {
+                case '"': case '\\': case '/': text.append((char) escaped); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(current(), 16);
+                        if (digit < 0) {
+                            throw error("malformed \\u escape");
+                        }
+                        pos++;
+                        code = code * 16 + digit;
+                    }
+                    text.append((char) code);
+                    break;
+                default:
+                    throw error("unknown escape \\" + (char) escaped);
+            }
+        }
+    }
+
+    private String readNumber() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = current();
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                text.append((char) c);
+                pos++;
+            } else {
+                return text.toString();
+            }
+        }
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (current() != literal.charAt(i)) {
+                throw error("expected " + literal);
+            }
+            pos++;
+        }
+    }
+}
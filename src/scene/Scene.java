@@ -0,0 +1,30 @@
+package scene;
+
+import core.Camera;
+import geometry.Hittable;
+
+// A loaded scene: the camera as the file set it up, and everything it can see under one acceleration structure
+public class Scene {
+    private final Camera camera;
+    private final Hittable world;
+    private final int objectCount;
+
+    public Scene(Camera camera, Hittable world, int objectCount) {
+        this.camera = camera;
+        this.world = world;
+        this.objectCount = objectCount;
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    public Hittable getWorld() {
+        return world;
+    }
+
+    // Spheres, meshes and instances, as listed in the file
+    public int getObjectCount() {
+        return objectCount;
+    }
+}
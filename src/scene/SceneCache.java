@@ -0,0 +1,298 @@
+package scene;
+
+import core.Camera;
+import geometry.TriangleMesh;
+import math.Vec3;
+import rendering.TileOrder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+/*
+    A scene already parsed, with its meshes' BVHs already built, in one little-endian file that is memory-mapped
+    when read back:
+
+        magic "RTSC", version
+        sources:    count, then path, size and modification time of the scene file and every mesh file
+        camera:     every setting the scene file can make
+        materials:  count, then type, albedo and parameter each
+        spheres:    count, then x y z radius x1 y1 z1 per sphere, then the material index per sphere
+        placed:     count, then mesh indices
+        instances:  count, then mesh indices, then 12 transform entries per instance
+        quads:      count, then q u v per quad, then the material index per quad
+        point lights: count, then position and intensity per light
+        meshes:     count, then material, offset and size per mesh, then each mesh as TriangleMesh.write stores it
+
+    The meshes come last, each at a known offset, so they are mapped and decoded separately and in parallel.
+    Each one (and everything before the meshes) has to stay under 2 GB, the most one mapping can hold.
+ */
+final class SceneCache {
+    private static final int MAGIC = 0x52545343;    // "RTSC"
+    private static final int VERSION = 7;
+
+    private SceneCache() {
+    }
+
+    // Writes to a temporary file next to the target first, so an interrupted write never leaves a broken cache
+    static void write(Path file, SceneData data) throws IOException {
+        TriangleMesh[] meshes = data.loadedMeshes();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = section(8 + 4);
+            header.putInt(MAGIC).putInt(VERSION);
+            header.putInt(data.sources.size());
+            writeFully(channel, header);
+            for (Path source : data.sources) {
+                byte[] path = source.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer entry = section(4 + path.length + 16);
+                entry.putInt(path.length).put(path);
+                entry.putLong(Files.size(source)).putLong(Files.getLastModifiedTime(source).toMillis());
+                writeFully(channel, entry);
+            }
+
+            writeCamera(channel, data.camera);
+
+            ByteBuffer materials = section(4 + 36 * data.materials.size());
+            materials.putInt(data.materials.size());
+            for (SceneData.MaterialSpec spec : data.materials) {
+                materials.putInt(spec.type).putDouble(spec.r).putDouble(spec.g).putDouble(spec.b).putDouble(spec.parameter);
+            }
+            writeFully(channel, materials);
+
+            int spheres = data.sphereCount;
+            int stride = SceneData.SPHERE_STRIDE;
+            ByteBuffer sphereSection = section(4 + (8L * stride + 4) * spheres);
+            sphereSection.putInt(spheres);
+            sphereSection.asDoubleBuffer().put(data.spheres, 0, stride * spheres);
+            sphereSection.position(sphereSection.position() + 8 * stride * spheres);
+            sphereSection.asIntBuffer().put(data.sphereMaterials, 0, spheres);
+            sphereSection.position(sphereSection.position() + 4 * spheres);
+            writeFully(channel, sphereSection);
+
+            ByteBuffer placed = section(4 + 4L * data.placedCount);
+            placed.putInt(data.placedCount);
+            placed.asIntBuffer().put(data.placedMeshes, 0, data.placedCount);
+            placed.position(placed.position() + 4 * data.placedCount);
+            writeFully(channel, placed);
+
+            int instances = data.instanceCount;
+            ByteBuffer instanceSection = section(4 + 100L * instances);
+            instanceSection.putInt(instances);
+            instanceSection.asIntBuffer().put(data.instanceMeshes, 0, instances);
+            instanceSection.position(instanceSection.position() + 4 * instances);
+            instanceSection.asDoubleBuffer().put(data.instanceTransforms, 0, 12 * instances);
+            instanceSection.position(instanceSection.position() + 96 * instances);
+            writeFully(channel, instanceSection);
+
+            ByteBuffer quadSection = section(4 + 76L * data.quadCount);
+            quadSection.putInt(data.quadCount);
+            quadSection.asDoubleBuffer().put(data.quads, 0, 9 * data.quadCount);
+            quadSection.position(quadSection.position() + 72 * data.quadCount);
+            quadSection.asIntBuffer().put(data.quadMaterials, 0, data.quadCount);
+            quadSection.position(quadSection.position() + 4 * data.quadCount);
+            writeFully(channel, quadSection);
+
+            ByteBuffer pointLightSection = section(4 + 48L * data.pointLightCount);
+            pointLightSection.putInt(data.pointLightCount);
+            pointLightSection.asDoubleBuffer().put(data.pointLights, 0, 6 * data.pointLightCount);
+            pointLightSection.position(pointLightSection.position() + 48 * data.pointLightCount);
+            writeFully(channel, pointLightSection);
+
+            ByteBuffer table = section(4 + 20L * meshes.length);
+            table.putInt(meshes.length);
+            long offset = channel.position() + table.capacity();
+            for (int i = 0; i < meshes.length; i++) {
+                long size = meshes[i].byteSize();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("mesh " + i + " is over 2 GB, too large for the cache");
+                }
+                table.putInt(data.meshMaterials.get(i)).putLong(offset).putLong(size);
+                offset += size;
+            }
+            writeFully(channel, table);
+
+            for (TriangleMesh mesh : meshes) {
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, channel.position(), mesh.byteSize());
+                mesh.write(out.order(ByteOrder.LITTLE_ENDIAN));
+                channel.position(channel.position() + mesh.byteSize());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The cached scene, or null when checkSources is set and a source file changed since the cache was written
+    static SceneData read(Path file, boolean checkSources) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (in.getInt() != MAGIC) {
+                throw new IOException(file + " is not a scene cache");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has scene cache version " + version + ", expected " + VERSION);
+            }
+
+            int sourceCount = in.getInt();
+            Path[] sources = new Path[sourceCount];
+            for (int i = 0; i < sourceCount; i++) {
+                byte[] path = new byte[in.getInt()];
+                in.get(path);
+                sources[i] = Paths.get(new String(path, StandardCharsets.UTF_8));
+                long size = in.getLong();
+                long modified = in.getLong();
+                if (checkSources && (!Files.exists(sources[i]) || Files.size(sources[i]) != size
+                        || Files.getLastModifiedTime(sources[i]).toMillis() != modified)) {
+                    return null;
+                }
+            }
+
+            SceneData data = new SceneData(readCamera(in));
+            for (Path source : sources) {
+                data.sources.add(source);
+            }
+
+            int materialCount = in.getInt();
+            for (int i = 0; i < materialCount; i++) {
+                data.materials.add(new SceneData.MaterialSpec(in.getInt(), in.getDouble(), in.getDouble(), in.getDouble(),
+                        in.getDouble()));
+            }
+
+            int spheres = in.getInt();
+            data.spheres = new double[SceneData.SPHERE_STRIDE * spheres];
+            data.sphereMaterials = new int[spheres];
+            data.sphereCount = spheres;
+            in.asDoubleBuffer().get(data.spheres);
+            in.position(in.position() + 8 * SceneData.SPHERE_STRIDE * spheres);
+            in.asIntBuffer().get(data.sphereMaterials);
+            in.position(in.position() + 4 * spheres);
+
+            int placed = in.getInt();
+            data.placedMeshes = new int[placed];
+            data.placedCount = placed;
+            in.asIntBuffer().get(data.placedMeshes);
+            in.position(in.position() + 4 * placed);
+
+            int instances = in.getInt();
+            data.instanceMeshes = new int[instances];
+            data.instanceTransforms = new double[12 * instances];
+            data.instanceCount = instances;
+            in.asIntBuffer().get(data.instanceMeshes);
+            in.position(in.position() + 4 * instances);
+            in.asDoubleBuffer().get(data.instanceTransforms);
+            in.position(in.position() + 96 * instances);
+
+            int quads = in.getInt();
+            data.quads = new double[9 * quads];
+            data.quadMaterials = new int[quads];
+            data.quadCount = quads;
+            in.asDoubleBuffer().get(data.quads);
+            in.position(in.position() + 72 * quads);
+            in.asIntBuffer().get(data.quadMaterials);
+            in.position(in.position() + 4 * quads);
+
+            int pointLights = in.getInt();
+            data.pointLights = new double[6 * pointLights];
+            data.pointLightCount = pointLights;
+            in.asDoubleBuffer().get(data.pointLights);
+            in.position(in.position() + 48 * pointLights);
+
+            int meshCount = in.getInt();
+            for (int i = 0; i < meshCount; i++) {
+                int material = in.getInt();
+                long offset = in.getLong();
+                long size = in.getLong();
+                ByteBuffer mesh = channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+                SceneData.MaterialSpec spec = data.materials.get(material);
+                data.meshMaterials.add(material);
+                data.meshes.add(CompletableFuture.supplyAsync(() -> TriangleMesh.read(mesh, spec.material)));
+            }
+            return data;
+        }
+    }
+
+    private static void writeCamera(FileChannel channel, Camera camera) throws IOException {
+        byte[] output = camera.getOutputPath().toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = section(19 * 8 + 11 * 4 + 8 + 4 + output.length);
+        out.putDouble(camera.aspectRatio).putDouble(camera.getVerticalFov());
+        putVec3(out, camera.getLookFrom());
+        putVec3(out, camera.getLookAt());
+        putVec3(out, camera.getvUp());
+        out.putDouble(camera.getDeFocusAngle()).putDouble(camera.getFocusDist()).putDouble(camera.getNoiseThreshold());
+        out.putDouble(camera.getShutterOpen()).putDouble(camera.getShutterClose());
+        Vec3 background = camera.getBackground();
+        out.putInt(background != null ? 1 : 0);
+        putVec3(out, background != null ? background : new Vec3());
+        out.putInt(camera.imageWidth).putInt(camera.getSamplesPerPixel()).putInt(camera.maxDepth);
+        out.putInt(camera.getMinSamplesPerPixel()).putInt(camera.getRouletteStartDepth());
+        out.putInt(camera.getTileSize()).putInt(camera.getTileOrder().ordinal()).putInt(camera.getPacketSize());
+        out.putInt(camera.isWavefront() ? 1 : 0);
+        out.putLong(camera.getSeed());
+        out.putInt(output.length).put(output);
+        writeFully(channel, out);
+    }
+
+    private static Camera readCamera(ByteBuffer in) {
+        Camera camera = new Camera();
+        camera.setAspectRatio(in.getDouble());
+        camera.setVerticalFov(in.getDouble());
+        camera.setLookFrom(getVec3(in));
+        camera.setLookAt(getVec3(in));
+        camera.setvUp(getVec3(in));
+        camera.setDeFocusAngle(in.getDouble());
+        camera.setFocusDist(in.getDouble());
+        camera.setNoiseThreshold(in.getDouble());
+        camera.setShutter(in.getDouble(), in.getDouble());
+        boolean hasBackground = in.getInt() != 0;
+        Vec3 background = getVec3(in);
+        camera.setBackground(hasBackground ? background : null);
+        camera.imageWidth = in.getInt();
+        camera.setSamplesPerPixel(in.getInt());
+        camera.maxDepth = in.getInt();
+        camera.setMinSamplesPerPixel(in.getInt());
+        camera.setRouletteStartDepth(in.getInt());
+        camera.setTileSize(in.getInt());
+        camera.setTileOrder(TileOrder.values()[in.getInt()]);
+        camera.setPacketSize(in.getInt());
+        camera.setWavefront(in.getInt() != 0);
+        camera.setSeed(in.getLong());
+        byte[] output = new byte[in.getInt()];
+        in.get(output);
+        camera.setOutputPath(Paths.get(new String(output, StandardCharsets.UTF_8)));
+        return camera;
+    }
+
+    private static void putVec3(ByteBuffer out, Vec3 v) {
+        out.putDouble(v.x).putDouble(v.y).putDouble(v.z);
+    }
+
+    private static Vec3 getVec3(ByteBuffer in) {
+        return new Vec3(in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    private static ByteBuffer section(long bytes) throws IOException {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("scene section of " + bytes + " bytes is over 2 GB, too large for the cache");
+        }
+        return ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
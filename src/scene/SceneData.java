@@ -0,0 +1,252 @@
+package scene;
+
+import core.Camera;
+import geometry.FlatBvh;
+import geometry.Hittable;
+import geometry.Instance;
+import geometry.Quad;
+import geometry.Sphere;
+import geometry.SphereSoA;
+import geometry.TriangleMesh;
+import light.LightList;
+import light.PointLight;
+import light.QuadLight;
+import light.SphereLight;
+import material.Dielectric;
+import material.DiffuseLight;
+import material.Lambertian;
+import material.Material;
+import material.Metal;
+import math.Transform;
+import math.Vec3;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+/*
+    A scene as plain arrays, the form both the JSON parser and the binary cache produce and the cache stores:
+
+        spheres:    [ x y z radius x1 y1 z1 | ... ]     with one material index each, x1 y1 z1 is where a
+                                                    moving sphere is at time 1 (the same as x y z if it stays)
+        meshes:     loading (or decoding) in the background, one material index each
+        placed:     indices of meshes that sit in the world as they are
+        instances:  a mesh index and 12 transform entries each
+        quads:      [ q u v | ... ]     9 numbers with one material index each
+        point lights: [ position intensity | ... ]
+
+    build turns it into a Scene. The spheres' BVH is built while the meshes finish loading, and the
+    instances are created in parallel before everything goes under one top-level FlatBvh. Spheres and quads
+    with a light material, and the point lights, become the camera's lights.
+ */
+final class SceneData {
+    static final int LAMBERTIAN = 0;
+    static final int METAL = 1;
+    static final int DIELECTRIC = 2;
+    static final int LIGHT = 3;
+
+    // A material as the file describes it; the cache stores these and creates the same material again
+    static final class MaterialSpec {
+        final int type;
+        final double r, g, b;
+        final double parameter;     // fuzz for metal, refractive index for dielectric
+                                    // r g b are the albedo, or the emission of a light
+        final Material material;
+
+        MaterialSpec(int type, double r, double g, double b, double parameter) {
+            this.type = type;
+            this.r = r;
+            this.g = g;
+            this.b = b;
+            this.parameter = parameter;
+            switch (type) {
+                case LAMBERTIAN: material = new Lambertian(new Vec3(r, g, b)); break;
+                case METAL: material = new Metal(new Vec3(r, g, b), parameter); break;
+                case DIELECTRIC: material = new Dielectric(parameter); break;
+                case LIGHT: material = new DiffuseLight(new Vec3(r, g, b)); break;
+                default: throw new IllegalArgumentException("Unknown material type " + type);
+            }
+        }
+    }
+
+    final Camera camera;
+    // Files the scene was made from, so a cache can tell when it is out of date
+    final List<Path> sources = new ArrayList<>();
+    final List<MaterialSpec> materials = new ArrayList<>();
+
+    static final int SPHERE_STRIDE = 7;
+
+    double[] spheres = new double[SPHERE_STRIDE * 64];
+    int[] sphereMaterials = new int[64];
+    int sphereCount;
+
+    final List<CompletableFuture<TriangleMesh>> meshes = new ArrayList<>();
+    final List<Integer> meshMaterials = new ArrayList<>();
+
+    int[] placedMeshes = new int[8];
+    int placedCount;
+
+    int[] instanceMeshes = new int[64];
+    double[] instanceTransforms = new double[12 * 64];
+    int instanceCount;
+
+    double[] quads = new double[9 * 8];
+    int[] quadMaterials = new int[8];
+    int quadCount;
+
+    double[] pointLights = new double[6 * 4];
+    int pointLightCount;
+
+    SceneData(Camera camera) {
+        this.camera = camera;
+    }
+
+    void addSphere(double x, double y, double z, double x1, double y1, double z1, double radius, int material) {
+        if (sphereCount == sphereMaterials.length) {
+            spheres = Arrays.copyOf(spheres, 2 * SPHERE_STRIDE * sphereCount);
+            sphereMaterials = Arrays.copyOf(sphereMaterials, 2 * sphereCount);
+        }
+        int i = SPHERE_STRIDE * sphereCount;
+        spheres[i] = x;
+        spheres[i + 1] = y;
+        spheres[i + 2] = z;
+        spheres[i + 3] = radius;
+        spheres[i + 4] = x1;
+        spheres[i + 5] = y1;
+        spheres[i + 6] = z1;
+        sphereMaterials[sphereCount++] = material;
+    }
+
+    void placeMesh(int mesh) {
+        if (placedCount == placedMeshes.length) {
+            placedMeshes = Arrays.copyOf(placedMeshes, 2 * placedCount);
+        }
+        placedMeshes[placedCount++] = mesh;
+    }
+
+    void addInstance(int mesh, double[] transform) {
+        if (instanceCount == instanceMeshes.length) {
+            instanceMeshes = Arrays.copyOf(instanceMeshes, 2 * instanceCount);
+            instanceTransforms = Arrays.copyOf(instanceTransforms, 24 * instanceCount);
+        }
+        instanceMeshes[instanceCount] = mesh;
+        System.arraycopy(transform, 0, instanceTransforms, 12 * instanceCount, 12);
+        instanceCount++;
+    }
+
+    void addQuad(double[] q, double[] u, double[] v, int material) {
+        if (quadCount == quadMaterials.length) {
+            quads = Arrays.copyOf(quads, 18 * quadCount);
+            quadMaterials = Arrays.copyOf(quadMaterials, 2 * quadCount);
+        }
+        System.arraycopy(q, 0, quads, 9 * quadCount, 3);
+        System.arraycopy(u, 0, quads, 9 * quadCount + 3, 3);
+        System.arraycopy(v, 0, quads, 9 * quadCount + 6, 3);
+        quadMaterials[quadCount++] = material;
+    }
+
+    void addPointLight(double[] position, double[] intensity) {
+        if (6 * pointLightCount == pointLights.length) {
+            pointLights = Arrays.copyOf(pointLights, 12 * pointLightCount);
+        }
+        System.arraycopy(position, 0, pointLights, 6 * pointLightCount, 3);
+        System.arraycopy(intensity, 0, pointLights, 6 * pointLightCount + 3, 3);
+        pointLightCount++;
+    }
+
+    Scene build() throws IOException {
+        if (sphereCount + placedCount + instanceCount + quadCount == 0) {
+            throw new IOException(sources.get(0) + ": the scene has no objects");
+        }
+
+        CompletableFuture<Hittable> sphereBvh = sphereCount == 0 ? null : CompletableFuture.supplyAsync(() -> {
+            List<Sphere> list = new ArrayList<>(sphereCount);
+            for (int i = 0; i < sphereCount; i++) {
+                int s = SPHERE_STRIDE * i;
+                list.add(new Sphere(new Vec3(spheres[s], spheres[s + 1], spheres[s + 2]),
+                        new Vec3(spheres[s + 4], spheres[s + 5], spheres[s + 6]), spheres[s + 3],
+                        materials.get(sphereMaterials[i]).material));
+            }
+            return new SphereSoA(list);
+        });
+
+        TriangleMesh[] loaded = loadedMeshes();
+
+        Instance[] instances = new Instance[instanceCount];
+        IntStream.range(0, instanceCount).parallel().forEach(i -> instances[i] = new Instance(loaded[instanceMeshes[i]],
+                Transform.fromArray(Arrays.copyOfRange(instanceTransforms, 12 * i, 12 * i + 12))));
+
+        List<Hittable> parts = new ArrayList<>();
+        if (sphereBvh != null) {
+            parts.add(join(sphereBvh));
+        }
+        for (int i = 0; i < placedCount; i++) {
+            parts.add(loaded[placedMeshes[i]]);
+        }
+        parts.addAll(Arrays.asList(instances));
+
+        LightList lights = new LightList();
+        for (int i = 0; i < quadCount; i++) {
+            int q = 9 * i;
+            Quad quad = new Quad(new Vec3(quads[q], quads[q + 1], quads[q + 2]),
+                    new Vec3(quads[q + 3], quads[q + 4], quads[q + 5]), new Vec3(quads[q + 6], quads[q + 7], quads[q + 8]),
+                    materials.get(quadMaterials[i]).material);
+            parts.add(quad);
+            if (materials.get(quadMaterials[i]).type == LIGHT) {
+                lights.add(new QuadLight(quad));
+            }
+        }
+        for (int i = 0; i < sphereCount; i++) {
+            int s = SPHERE_STRIDE * i;
+            Sphere sphere = new Sphere(new Vec3(spheres[s], spheres[s + 1], spheres[s + 2]),
+                    new Vec3(spheres[s + 4], spheres[s + 5], spheres[s + 6]), spheres[s + 3],
+                    materials.get(sphereMaterials[i]).material);
+            // A moving emitter still glows when hit, it just cannot be aimed at
+            if (materials.get(sphereMaterials[i]).type == LIGHT && !sphere.isMoving()) {
+                lights.add(new SphereLight(sphere));
+            }
+        }
+        for (int i = 0; i < pointLightCount; i++) {
+            int p = 6 * i;
+            lights.add(new PointLight(new Vec3(pointLights[p], pointLights[p + 1], pointLights[p + 2]),
+                    new Vec3(pointLights[p + 3], pointLights[p + 4], pointLights[p + 5])));
+        }
+        if (!lights.isEmpty()) {
+            camera.setLights(lights);
+        }
+
+        Hittable world = parts.size() == 1 ? parts.get(0) : new FlatBvh(parts);
+        return new Scene(camera, world, sphereCount + placedCount + instanceCount + quadCount);
+    }
+
+    // Waits for every mesh; only call once they are needed, loading carries on in the background until then
+    TriangleMesh[] loadedMeshes() throws IOException {
+        TriangleMesh[] loaded = new TriangleMesh[meshes.size()];
+        for (int i = 0; i < loaded.length; i++) {
+            loaded[i] = join(meshes.get(i));
+        }
+        return loaded;
+    }
+
+    // The result of a background task, with the IOException it failed with (if any) rethrown as it was
+    static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+}
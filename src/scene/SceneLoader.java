@@ -0,0 +1,441 @@
+package scene;
+
+import core.Camera;
+import geometry.MeshLoader;
+import math.Transform;
+import math.Vec3;
+import rendering.TileOrder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/*
+    Loads a scene (camera, materials and objects) from a JSON file, so scenes can change without recompiling:
+
+    {
+      "camera": {
+        "aspectRatio": 1.7778, "imageWidth": 1200, "samplesPerPixel": 500, "maxDepth": 50,
+        "verticalFov": 20, "lookFrom": [13, 2, 3], "lookAt": [0, 0, 0], "vUp": [0, 1, 0],
+        "defocusAngle": 0.6, "focusDist": 10,
+        "noiseThreshold": 0.01, "minSamplesPerPixel": 32, "rouletteStartDepth": 5,
+        "seed": 0, "tileSize": 32, "tileOrder": "hilbert", "packetSize": 8, "wavefront": false,
+        "shutter": [0, 1], "background": [0, 0, 0],
+        "output": "image.png"
+      },
+      "materials": {
+        "ground": { "type": "lambertian", "albedo": [0.5, 0.5, 0.5] },
+        "steel":  { "type": "metal", "albedo": [0.7, 0.6, 0.5], "fuzz": 0.1 },
+        "glass":  { "type": "dielectric", "refractiveIndex": 1.5 },
+        "lamp":   { "type": "light", "emission": [15, 15, 15] }
+      },
+      "meshes": {
+        "tree": { "file": "tree.obj", "material": "ground" }
+      },
+      "objects": [
+        { "type": "sphere", "center": [0, -1000, 0], "radius": 1000, "material": "ground" },
+        { "type": "sphere", "center": [0, 1, 0], "center1": [0, 1.5, 0], "radius": 1, "material": "steel" },
+        { "type": "mesh", "mesh": "tree" },
+        { "type": "instance", "mesh": "tree",
+          "transform": [ { "scale": 2 }, { "rotateY": 30 }, { "translate": [4, 0, 1] } ] },
+        { "type": "quad", "q": [-1, 5, -1], "u": [2, 0, 0], "v": [0, 0, 2], "material": "lamp" },
+        { "type": "pointLight", "position": [0, 10, 5], "intensity": [50, 50, 50] }
+      ]
+    }
+
+    Every camera setting is optional (samplesPerPixel defaults to 10, the camera to looking down -z from the origin).
+    Mesh files are relative to the scene file. A transform is a list of steps applied in order: translate [x, y, z],
+    scale s or [x, y, z], rotateX, rotateY or rotateZ in degrees. A sphere with a center1 moves there from center
+    in time 0 to 1, and is blurred over the part of that the camera's shutter [open, close] is open for.
+    A quad is the parallelogram from corner q along edges u and v, lit on the side u × v points to. Spheres
+    and quads with a light material, and point lights, are sampled directly as lights (see Camera.setLights);
+    without a background the sky gradient lights the scene as well.
+
+    The file is streamed, so it is never held in memory as a whole, and names must be defined before they are
+    used: materials before meshes and objects, meshes before objects. Each mesh starts loading (and building
+    its BVH) in the background as soon as its definition is read, while the rest of the file is still parsed.
+
+    load also keeps a binary copy of the loaded scene next to the file (see scene.SceneCache) and uses it
+    instead of the JSON while neither the scene file nor any mesh file has changed.
+ */
+public class SceneLoader {
+    private SceneLoader() {
+    }
+
+    // Loads through the cache, writing or refreshing it when it is missing or out of date
+    public static Scene load(Path file) throws IOException {
+        Path cache = cachePath(file);
+        if (Files.exists(cache)) {
+            try {
+                SceneData cached = SceneCache.read(cache, true);
+                if (cached != null) {
+                    return cached.build();
+                }
+            } catch (IOException e) {
+                System.err.println("Ignoring scene cache " + cache + ": " + e.getMessage());
+            }
+        }
+
+        SceneData data = parse(file);
+        Scene scene = data.build();
+        try {
+            SceneCache.write(cache, data);
+        } catch (IOException e) {
+            System.err.println("Could not write scene cache " + cache + ": " + e.getMessage());
+        }
+        return scene;
+    }
+
+    // Loads straight from the JSON, without reading or writing a cache
+    public static Scene loadJson(Path file) throws IOException {
+        return parse(file).build();
+    }
+
+    /*
+        Loads a cache file on its own, without checking it against the files it was made from, for a scene
+        that was copied to a machine that does not have them (see distributed.RenderWorker)
+     */
+    public static Scene loadCache(Path cacheFile) throws IOException {
+        return SceneCache.read(cacheFile, false).build();
+    }
+
+    public static Path cachePath(Path file) {
+        return file.resolveSibling(file.getFileName() + ".cache");
+    }
+
+    private static SceneData parse(Path file) throws IOException {
+        Camera camera = new Camera();
+        camera.setSamplesPerPixel(10);
+        camera.setLookFrom(new Vec3(0, 0, 0));
+        camera.setLookAt(new Vec3(0, 0, -1));
+        camera.setvUp(new Vec3(0, 1, 0));
+
+        SceneData data = new SceneData(camera);
+        data.sources.add(file);
+        Map<String, Integer> materialNames = new HashMap<>();
+        Map<String, Integer> meshNames = new HashMap<>();
+
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonReader reader = new JsonReader(in, file.toString());
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String section = reader.nextName();
+                switch (section) {
+                    case "camera":
+                        readCamera(reader, camera);
+                        break;
+                    case "materials":
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String name = reader.nextName();
+                            if (materialNames.containsKey(name)) {
+                                throw reader.error("material \"" + name + "\" is defined twice");
+                            }
+                            data.materials.add(readMaterial(reader));
+                            materialNames.put(name, data.materials.size() - 1);
+                        }
+                        reader.endObject();
+                        break;
+                    case "meshes":
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String name = reader.nextName();
+                            if (meshNames.containsKey(name)) {
+                                throw reader.error("mesh \"" + name + "\" is defined twice");
+                            }
+                            readMesh(reader, file, data, materialNames);
+                            meshNames.put(name, data.meshes.size() - 1);
+                        }
+                        reader.endObject();
+                        break;
+                    case "objects":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            readObject(reader, data, materialNames, meshNames);
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        throw reader.error("unknown section \"" + section + "\"");
+                }
+            }
+            reader.endObject();
+            reader.peek();
+        }
+        return data;
+    }
+
+    private static void readCamera(JsonReader reader, Camera camera) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "aspectRatio": camera.setAspectRatio(reader.nextDouble()); break;
+                case "imageWidth": camera.imageWidth = reader.nextInt(); break;
+                case "samplesPerPixel": camera.setSamplesPerPixel(reader.nextInt()); break;
+                case "maxDepth": camera.maxDepth = reader.nextInt(); break;
+                case "verticalFov": camera.setVerticalFov(reader.nextDouble()); break;
+                case "lookFrom": camera.setLookFrom(readVec3(reader)); break;
+                case "lookAt": camera.setLookAt(readVec3(reader)); break;
+                case "vUp": camera.setvUp(readVec3(reader)); break;
+                case "defocusAngle": camera.setDeFocusAngle(reader.nextDouble()); break;
+                case "focusDist": camera.setFocusDist(reader.nextDouble()); break;
+                case "noiseThreshold": camera.setNoiseThreshold(reader.nextDouble()); break;
+                case "minSamplesPerPixel": camera.setMinSamplesPerPixel(reader.nextInt()); break;
+                case "rouletteStartDepth": camera.setRouletteStartDepth(reader.nextInt()); break;
+                case "seed": camera.setSeed(reader.nextLong()); break;
+                case "tileSize": camera.setTileSize(reader.nextInt()); break;
+                case "packetSize":
+                    int packetSize = reader.nextInt();
+                    try {
+                        camera.setPacketSize(packetSize);
+                    } catch (IllegalArgumentException e) {
+                        throw reader.error(e.getMessage());
+                    }
+                    break;
+                case "tileOrder":
+                    String order = reader.nextString();
+                    try {
+                        camera.setTileOrder(TileOrder.valueOf(order.toUpperCase(Locale.ROOT)));
+                    } catch (IllegalArgumentException e) {
+                        throw reader.error("unknown tile order \"" + order + "\"");
+                    }
+                    break;
+                case "shutter":
+                    reader.beginArray();
+                    double open = reader.nextDouble();
+                    double close = reader.nextDouble();
+                    if (reader.hasNext()) {
+                        throw reader.error("expected 2 numbers");
+                    }
+                    reader.endArray();
+                    try {
+                        camera.setShutter(open, close);
+                    } catch (IllegalArgumentException e) {
+                        throw reader.error(e.getMessage());
+                    }
+                    break;
+                case "wavefront": camera.setWavefront(reader.nextBoolean()); break;
+                case "background": camera.setBackground(readVec3(reader)); break;
+                case "output":
+                    String output = reader.nextString();
+                    try {
+                        camera.setOutputPath(Paths.get(output));
+                    } catch (IllegalArgumentException e) {
+                        throw reader.error(e.getMessage());
+                    }
+                    break;
+                default: throw reader.error("unknown camera setting \"" + name + "\"");
+            }
+        }
+        reader.endObject();
+    }
+
+    private static SceneData.MaterialSpec readMaterial(JsonReader reader) throws IOException {
+        String type = null;
+        double[] albedo = null;
+        double[] emission = null;
+        double fuzz = 0;
+        double refractiveIndex = 1.5;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "type": type = reader.nextString(); break;
+                case "albedo": albedo = readTriple(reader); break;
+                case "emission": emission = readTriple(reader); break;
+                case "fuzz": fuzz = reader.nextDouble(); break;
+                case "refractiveIndex": refractiveIndex = reader.nextDouble(); break;
+                default: throw reader.error("unknown material property \"" + name + "\"");
+            }
+        }
+        reader.endObject();
+
+        if ("dielectric".equals(type)) {
+            return new SceneData.MaterialSpec(SceneData.DIELECTRIC, 1, 1, 1, refractiveIndex);
+        }
+        if ("light".equals(type)) {
+            if (emission == null) {
+                throw reader.error("light material needs an emission");
+            }
+            return new SceneData.MaterialSpec(SceneData.LIGHT, emission[0], emission[1], emission[2], 0);
+        }
+        if (!"lambertian".equals(type) && !"metal".equals(type)) {
+            throw reader.error("material type must be lambertian, metal, dielectric or light, got " + type);
+        }
+        if (albedo == null) {
+            throw reader.error(type + " material needs an albedo");
+        }
+        int kind = "metal".equals(type) ? SceneData.METAL : SceneData.LAMBERTIAN;
+        return new SceneData.MaterialSpec(kind, albedo[0], albedo[1], albedo[2], fuzz);
+    }
+
+    // Reads a mesh definition and starts loading the file in the background
+    private static void readMesh(JsonReader reader, Path sceneFile, SceneData data, Map<String, Integer> materialNames)
+            throws IOException {
+        String file = null;
+        int material = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "file": file = reader.nextString(); break;
+                case "material": material = lookup(reader, materialNames, "material"); break;
+                default: throw reader.error("unknown mesh property \"" + name + "\"");
+            }
+        }
+        reader.endObject();
+        if (file == null || material < 0) {
+            throw reader.error("a mesh needs a file and a material");
+        }
+
+        Path path = sceneFile.toAbsolutePath().resolveSibling(file);
+        SceneData.MaterialSpec spec = data.materials.get(material);
+        data.sources.add(path);
+        data.meshMaterials.add(material);
+        data.meshes.add(CompletableFuture.supplyAsync(() -> {
+            try {
+                return MeshLoader.load(path, spec.material);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+    }
+
+    private static void readObject(JsonReader reader, SceneData data, Map<String, Integer> materialNames,
+                                   Map<String, Integer> meshNames) throws IOException {
+        String type = null;
+        double[] center = null;
+        double[] center1 = null;
+        double[] q = null, u = null, v = null;
+        double[] position = null, intensity = null;
+        double radius = Double.NaN;
+        int material = -1;
+        int mesh = -1;
+        Transform transform = Transform.IDENTITY;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "type": type = reader.nextString(); break;
+                case "center": center = readTriple(reader); break;
+                case "center1": center1 = readTriple(reader); break;
+                case "radius": radius = reader.nextDouble(); break;
+                case "q": q = readTriple(reader); break;
+                case "u": u = readTriple(reader); break;
+                case "v": v = readTriple(reader); break;
+                case "position": position = readTriple(reader); break;
+                case "intensity": intensity = readTriple(reader); break;
+                case "material": material = lookup(reader, materialNames, "material"); break;
+                case "mesh": mesh = lookup(reader, meshNames, "mesh"); break;
+                case "transform": transform = readTransform(reader); break;
+                default: throw reader.error("unknown object property \"" + name + "\"");
+            }
+        }
+        reader.endObject();
+
+        if ("sphere".equals(type)) {
+            if (center == null || Double.isNaN(radius) || material < 0) {
+                throw reader.error("a sphere needs a center, a radius and a material");
+            }
+            if (center1 == null) {
+                center1 = center;
+            }
+            data.addSphere(center[0], center[1], center[2], center1[0], center1[1], center1[2], radius, material);
+        } else if ("mesh".equals(type) || "instance".equals(type)) {
+            if (mesh < 0) {
+                throw reader.error("a " + type + " needs a mesh");
+            }
+            if ("mesh".equals(type)) {
+                data.placeMesh(mesh);
+            } else {
+                data.addInstance(mesh, transform.toArray());
+            }
+        } else if ("quad".equals(type)) {
+            if (q == null || u == null || v == null || material < 0) {
+                throw reader.error("a quad needs q, u, v and a material");
+            }
+            data.addQuad(q, u, v, material);
+        } else if ("pointLight".equals(type)) {
+            if (position == null || intensity == null) {
+                throw reader.error("a point light needs a position and an intensity");
+            }
+            data.addPointLight(position, intensity);
+        } else {
+            throw reader.error("object type must be sphere, quad, pointLight, mesh or instance, got " + type);
+        }
+    }
+
+    private static Transform readTransform(JsonReader reader) throws IOException {
+        Transform transform = Transform.IDENTITY;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String step = reader.nextName();
+                try {
+                    transform = transform.then(readStep(reader, step));
+                } catch (IllegalArgumentException e) {
+                    // A zero scale cannot be inverted
+                    throw reader.error(e.getMessage());
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        return transform;
+    }
+
+    private static Transform readStep(JsonReader reader, String step) throws IOException {
+        switch (step) {
+            case "translate":
+                double[] offset = readTriple(reader);
+                return Transform.translate(offset[0], offset[1], offset[2]);
+            case "scale":
+                if (reader.peek() == JsonReader.Token.NUMBER) {
+                    return Transform.scale(reader.nextDouble());
+                }
+                double[] factors = readTriple(reader);
+                return Transform.scale(factors[0], factors[1], factors[2]);
+            case "rotateX": return Transform.rotateX(reader.nextDouble());
+            case "rotateY": return Transform.rotateY(reader.nextDouble());
+            case "rotateZ": return Transform.rotateZ(reader.nextDouble());
+            default: throw reader.error("unknown transform step \"" + step + "\"");
+        }
+    }
+
+    private static int lookup(JsonReader reader, Map<String, Integer> names, String kind) throws IOException {
+        String name = reader.nextString();
+        Integer index = names.get(name);
+        if (index == null) {
+            throw reader.error("unknown " + kind + " \"" + name + "\", it has to be defined before it is used");
+        }
+        return index;
+    }
+
+    private static double[] readTriple(JsonReader reader) throws IOException {
+        reader.beginArray();
+        double[] values = {reader.nextDouble(), reader.nextDouble(), reader.nextDouble()};
+        if (reader.hasNext()) {
+            throw reader.error("expected 3 numbers");
+        }
+        reader.endArray();
+        return values;
+    }
+
+    private static Vec3 readVec3(JsonReader reader) throws IOException {
+        double[] values = readTriple(reader);
+        return new Vec3(values[0], values[1], values[2]);
+    }
+}
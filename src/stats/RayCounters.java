@@ -0,0 +1,44 @@
+package stats;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+    Plain counters for the rays one thread traces. Every render thread owns one, so counting is a field
+    increment with no atomics or shared cache lines; the camera hands it to RenderStats after every tile,
+    which adds it to the totals and resets it.
+ */
+public class RayCounters {
+    public long primaryRays;            // camera rays
+    public long secondaryRays;          // scattered rays, one per bounce after the first
+    public long shadowRays;             // rays towards sampled lights, see Camera.setLights
+    public long skyRays;                // rays that left the scene
+    public long absorbedRays;           // rays a material absorbed
+    public long rouletteTerminations;   // paths ended by Russian roulette
+    public long depthLimited;           // paths cut off at maxDepth
+
+    // Scatter events per material class; a material type is looked up by identity, no string per event
+    final Map<Class<?>, long[]> scatters = new IdentityHashMap<>();
+
+    public void scatter(Class<?> materialType) {
+        long[] count = scatters.get(materialType);
+        if (count == null) {
+            count = new long[1];
+            scatters.put(materialType, count);
+        }
+        count[0]++;
+    }
+
+    void reset() {
+        primaryRays = 0;
+        secondaryRays = 0;
+        shadowRays = 0;
+        skyRays = 0;
+        absorbedRays = 0;
+        rouletteTerminations = 0;
+        depthLimited = 0;
+        for (long[] count : scatters.values()) {
+            count[0] = 0;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package stats;
+
+import rendering.ImageWriter;
+import rendering.Tile;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    Where the time of a render goes: rays by kind, how paths end, scatter events per material,
+    BVH node visits and primitive tests, and the wall time of every tile.
+
+    Hand one to Camera.setStats before rendering. The render threads count into their own RayCounters
+    and the HitRecord counters, and only add them in here once per tile, so the LongAdders below are
+    touched a few times per tile rather than per ray. Without stats the camera skips the counting.
+
+    The totals can be read while the render runs (JMX or a listener) and are final after renderFinished.
+ */
+public class RenderStats implements RenderStatsMXBean {
+    private final LongAdder primaryRays = new LongAdder();
+    private final LongAdder secondaryRays = new LongAdder();
+    private final LongAdder shadowRays = new LongAdder();
+    private final LongAdder skyRays = new LongAdder();
+    private final LongAdder absorbedRays = new LongAdder();
+    private final LongAdder rouletteTerminations = new LongAdder();
+    private final LongAdder depthLimited = new LongAdder();
+    private final LongAdder nodeVisits = new LongAdder();
+    private final LongAdder primitiveTests = new LongAdder();
+    private final LongAdder tilesFinished = new LongAdder();
+    private final Map<String, LongAdder> scatters = new ConcurrentHashMap<>();
+    private final Map<Tile, LongAdder> tileNanos = new ConcurrentHashMap<>();
+    private final List<RenderStatsListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private int imageWidth;
+    private int imageHeight;
+    private boolean tileHeatmap = false;
+
+    public void addListener(RenderStatsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(RenderStatsListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isTileHeatmap() {
+        return tileHeatmap;
+    }
+
+    // Ask the camera to write the tile cost heatmap next to the image, see writeTileHeatmap
+    public void setTileHeatmap(boolean tileHeatmap) {
+        this.tileHeatmap = tileHeatmap;
+    }
+
+    // Publishes these stats on the platform MBean server as raytracer:type=RenderStats,name=<name>
+    public void registerMBean(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(this, new ObjectName("raytracer:type=RenderStats,name=" + ObjectName.quote(name)));
+    }
+
+    // Clears the totals for a new render of the given size
+    public void renderStarted(int imageWidth, int imageHeight) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        for (LongAdder counter : new LongAdder[]{primaryRays, secondaryRays, shadowRays, skyRays, absorbedRays,
+                rouletteTerminations, depthLimited, nodeVisits, primitiveTests, tilesFinished}) {
+            counter.reset();
+        }
+        scatters.clear();
+        tileNanos.clear();
+        endNanos = 0;
+        startNanos = System.nanoTime();
+    }
+
+    /*
+        Adds what one thread counted while rendering a tile and resets its counters.
+        nodeVisits and primitiveTests are the growth of the thread's HitRecord counters over the tile.
+     */
+    public void tileFinished(Tile tile, long nanos, RayCounters counters, long tileNodeVisits, long tilePrimitiveTests) {
+        primaryRays.add(counters.primaryRays);
+        secondaryRays.add(counters.secondaryRays);
+        shadowRays.add(counters.shadowRays);
+        skyRays.add(counters.skyRays);
+        absorbedRays.add(counters.absorbedRays);
+        rouletteTerminations.add(counters.rouletteTerminations);
+        depthLimited.add(counters.depthLimited);
+        for (Map.Entry<Class<?>, long[]> scatter : counters.scatters.entrySet()) {
+            if (scatter.getValue()[0] > 0) {
+                scatters.computeIfAbsent(scatter.getKey().getSimpleName(), k -> new LongAdder()).add(scatter.getValue()[0]);
+            }
+        }
+        counters.reset();
+
+        nodeVisits.add(tileNodeVisits);
+        primitiveTests.add(tilePrimitiveTests);
+        tileNanos.computeIfAbsent(tile, t -> new LongAdder()).add(nanos);
+        tilesFinished.increment();
+
+        for (RenderStatsListener listener : listeners) {
+            listener.tileFinished(tile, nanos);
+        }
+    }
+
+    public void renderFinished() {
+        endNanos = System.nanoTime();
+        for (RenderStatsListener listener : listeners) {
+            listener.renderFinished(this);
+        }
+    }
+
+    @Override
+    public long getPrimaryRays() {
+        return primaryRays.sum();
+    }
+
+    @Override
+    public long getSecondaryRays() {
+        return secondaryRays.sum();
+    }
+
+    @Override
+    public long getShadowRays() {
+        return shadowRays.sum();
+    }
+
+    @Override
+    public long getSkyRays() {
+        return skyRays.sum();
+    }
+
+    @Override
+    public long getAbsorbedRays() {
+        return absorbedRays.sum();
+    }
+
+    @Override
+    public long getRouletteTerminations() {
+        return rouletteTerminations.sum();
+    }
+
+    @Override
+    public long getDepthLimited() {
+        return depthLimited.sum();
+    }
+
+    @Override
+    public long getNodeVisits() {
+        return nodeVisits.sum();
+    }
+
+    @Override
+    public long getPrimitiveTests() {
+        return primitiveTests.sum();
+    }
+
+    @Override
+    public Map<String, Long> getScatterCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        scatters.forEach((material, count) -> counts.put(material, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public long getTilesFinished() {
+        return tilesFinished.sum();
+    }
+
+    // Time since renderStarted, up to renderFinished once the render is done
+    @Override
+    public double getElapsedSeconds() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return (end - startNanos) / 1e9;
+    }
+
+    @Override
+    public double getRaysPerSecond() {
+        double seconds = getElapsedSeconds();
+        return seconds > 0 ? (getPrimaryRays() + getSecondaryRays() + getShadowRays()) / seconds : 0;
+    }
+
+    public String summary() {
+        long primary = getPrimaryRays();
+        long rays = primary + getSecondaryRays();
+        long shadow = getShadowRays();
+        double perRay = Math.max(rays, 1);
+
+        StringBuilder out = new StringBuilder();
+        out.append("Render statistics\n");
+        out.append(String.format(Locale.ROOT, "  Time:                  %.2f s%n", getElapsedSeconds()));
+        out.append(String.format(Locale.ROOT, "  Rays:                  %d (%d primary, %d secondary)%n", rays, primary, getSecondaryRays()));
+        if (shadow > 0) {
+            out.append(String.format(Locale.ROOT, "  Shadow rays:           %d%n", shadow));
+        }
+        out.append(String.format(Locale.ROOT, "  Rays per second:       %.0f%n", getRaysPerSecond()));
+        out.append(String.format(Locale.ROOT, "  Rays per path:         %.2f%n", (double) rays / Math.max(primary, 1)));
+        out.append(String.format(Locale.ROOT, "  Paths ended:           %d sky, %d absorbed, %d roulette, %d max depth%n",
+                getSkyRays(), getAbsorbedRays(), getRouletteTerminations(), getDepthLimited()));
+        out.append(String.format(Locale.ROOT, "  BVH nodes per ray:     %.1f%n", getNodeVisits() / perRay));
+        out.append(String.format(Locale.ROOT, "  Primitive tests/ray:   %.1f%n", getPrimitiveTests() / perRay));
+        getScatterCounts().forEach((material, count) ->
+                out.append(String.format(Locale.ROOT, "  Scatter %-14s %d%n", material + ":", count)));
+
+        if (!tileNanos.isEmpty()) {
+            long min = Long.MAX_VALUE, max = 0, total = 0;
+            for (LongAdder nanos : tileNanos.values()) {
+                long t = nanos.sum();
+                min = Math.min(min, t);
+                max = Math.max(max, t);
+                total += t;
+            }
+            out.append(String.format(Locale.ROOT, "  Tile time:             %.1f ms min, %.1f ms avg, %.1f ms max over %d tiles%n",
+                    min / 1e6, total / 1e6 / tileNanos.size(), max / 1e6, tileNanos.size()));
+        }
+        return out.toString();
+    }
+
+    // Writes every tile's wall time as a color from blue (no time at all) to red (the slowest tile)
+    public void writeTileHeatmap(Path file) throws IOException {
+        long max = 1;
+        for (LongAdder nanos : tileNanos.values()) {
+            max = Math.max(max, nanos.sum());
+        }
+
+        float[] heat = new float[imageWidth * imageHeight * 3];
+        for (Map.Entry<Tile, LongAdder> entry : tileNanos.entrySet()) {
+            Tile tile = entry.getKey();
+            float level = (float) entry.getValue().sum() / max;
+            for (int row = tile.y0; row < tile.y1; row++) {
+                for (int column = tile.x0; column < tile.x1; column++) {
+                    int i = (row * imageWidth + column) * 3;
+                    heat[i] = level;
+                    heat[i + 2] = 1 - level;
+                }
+            }
+        }
+        ImageWriter.write(file, imageWidth, imageHeight, heat, 1);
+    }
+}
@@ -0,0 +1,23 @@
+package stats;
+
+import rendering.Tile;
+
+/**
+ * Receives render progress from RenderStats, see RenderStats.addListener.
+ * tileFinished is called on the render thread that did the tile, so implementations must be thread-safe
+ * and should return quickly.
+ */
+public interface RenderStatsListener {
+    /**
+     * A tile was rendered (once per pass in a progressive render)
+     * @param nanos wall time the tile took
+     */
+    default void tileFinished(Tile tile, long nanos) {
+    }
+
+    /**
+     * The render is done and the totals in stats are final
+     */
+    default void renderFinished(RenderStats stats) {
+    }
+}
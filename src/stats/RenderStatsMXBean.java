@@ -0,0 +1,35 @@
+package stats;
+
+import java.util.Map;
+
+/**
+ * The render counters over JMX, so a running render can be watched from JConsole or any JMX client.
+ * See RenderStats.registerMBean.
+ */
+public interface RenderStatsMXBean {
+    long getPrimaryRays();
+
+    long getSecondaryRays();
+
+    long getShadowRays();
+
+    long getSkyRays();
+
+    long getAbsorbedRays();
+
+    long getRouletteTerminations();
+
+    long getDepthLimited();
+
+    long getNodeVisits();
+
+    long getPrimitiveTests();
+
+    Map<String, Long> getScatterCounts();
+
+    long getTilesFinished();
+
+    double getElapsedSeconds();
+
+    double getRaysPerSecond();
+}